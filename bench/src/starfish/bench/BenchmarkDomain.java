@@ -0,0 +1,225 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Element;
+import starfish.collisions.CollisionsPlugin;
+import starfish.core.common.Options;
+import starfish.core.common.Plugin;
+import starfish.core.common.Starfish;
+import starfish.core.common.WorkerPool;
+import starfish.core.domain.Mesh;
+import starfish.core.materials.KineticMaterial;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Synthetic simulation used by the benchmarks. A square uniform mesh with a
+ * polygonal cylinder in the middle is written to a temporary input deck and
+ * processed by Starfish with zero time steps, so that all modules are initialized
+ * but no particles are injected. Ions and neutrals are then loaded uniformly with
+ * a fixed seed so every trial starts from the same state.
+ *
+ * The cylinder is held at -10 V and the walls at 0 V. Using Dirichlet walls keeps
+ * the matrix symmetric so that all linear solvers, including PCG, are applicable. Ions and neutrals are
+ * argon, with MCC charge exchange between them and DSMC neutral collisions.
+ */
+public final class BenchmarkDomain {
+	public static final String ION = "Ar+";
+	public static final String NEUTRAL = "Ar";
+
+	public static final double SPACING = 1e-3; /* cell size in m */
+	public static final double DT = 1e-6; /* time step in s */
+	public static final double ION_DEN = 1e14; /* #/m^3 */
+	public static final double NEUTRAL_DEN = 1e22; /* #/m^3 */
+
+	public final int nodes;
+	public final int per_cell;
+	public final File dir;
+	public final Mesh mesh;
+	public final KineticMaterial ions;
+	public final KineticMaterial neutrals;
+
+	/**
+	 * writes the input deck and initializes Starfish
+	 * @param nodes    number of nodes in each direction
+	 * @param segments number of linear segments on the cylinder
+	 * @param per_cell macroparticles per cell of each species
+	 * @param method   potential solver method, gs, pcg, multigrid, adi, or direct
+	 * @param threads  number of worker threads
+	 */
+	public BenchmarkDomain(int nodes, int segments, int per_cell, String method, int threads) throws IOException {
+		Locale.setDefault(new Locale("en", "US"));
+		this.nodes = nodes;
+		this.per_cell = per_cell;
+
+		dir = Files.createTempDirectory("starfish-bench").toFile();
+		writeDeck(new File(dir, "starfish.xml"), segments, method);
+
+		Options options = new Options(new String[] { "-randomize=false", "-max_threads=" + threads });
+		options.wd = dir.getAbsolutePath() + File.separator;
+
+		ArrayList<Plugin> plugins = new ArrayList<>();
+		plugins.add(new CollisionsPlugin());
+
+		WorkerPool.shutdown(); /* pick up the thread count */
+		new Starfish().start(options, plugins, null);
+
+		mesh = Starfish.getMeshList().get(0);
+		ions = (KineticMaterial) Starfish.getMaterial(ION);
+		neutrals = (KineticMaterial) Starfish.getMaterial(NEUTRAL);
+	}
+
+	/** @return domain length in each direction */
+	public double length() {
+		return (nodes - 1) * SPACING;
+	}
+
+	/** @return cylinder radius */
+	public double radius() {
+		return 0.2 * length();
+	}
+
+	/**
+	 * removes all particles and loads per_cell particles of each species into every
+	 * cell outside the cylinder, then updates densities and the potential
+	 * @param seed random seed for positions and velocities
+	 */
+	public void loadParticles(long seed) {
+		SplittableRandom rnd = new SplittableRandom(seed);
+		for (KineticMaterial km : new KineticMaterial[] { ions, neutrals }) {
+			clearParticles(km);
+
+			double v_th = Math.sqrt(2 * 1.380649e-23 * 300 / km.getMass());
+			double c = 0.5 * length();
+			double pos[] = new double[3];
+			for (int i = 0; i < nodes - 1; i++)
+				for (int j = 0; j < nodes - 1; j++)
+					for (int p = 0; p < per_cell; p++) {
+						pos[0] = (i + rnd.nextDouble()) * SPACING;
+						pos[1] = (j + rnd.nextDouble()) * SPACING;
+						pos[2] = 0;
+						double dx = pos[0] - c;
+						double dy = pos[1] - c;
+						if (dx * dx + dy * dy < radius() * radius())
+							continue;
+
+						double vel[] = { v_th * gaussian(rnd), v_th * gaussian(rnd), v_th * gaussian(rnd) };
+						km.addParticle(pos.clone(), vel);
+					}
+		}
+
+		Starfish.materials_module.updateMaterials();
+		Starfish.solver_module.updateFields();
+	}
+
+	/** removes all particles of the material */
+	public void clearParticles(KineticMaterial km) {
+		Iterator<Particle> iterator = km.getIterator(mesh);
+		while (iterator.hasNext()) {
+			iterator.next();
+			iterator.remove();
+		}
+	}
+
+	/** removes the temporary input deck and any output written to it */
+	public void delete() {
+		File files[] = dir.listFiles();
+		if (files != null)
+			for (File file : files)
+				file.delete();
+		dir.delete();
+	}
+
+	/** @return root element of the given XML snippet */
+	public static Element parse(String xml) {
+		try {
+			return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+					.parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))).getDocumentElement();
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Failed to parse " + xml, e);
+		}
+	}
+
+	private static double gaussian(SplittableRandom rnd) {
+		/* Box-Muller */
+		double u1 = 1 - rnd.nextDouble();
+		double u2 = rnd.nextDouble();
+		return Math.sqrt(-2 * Math.log(u1)) * Math.cos(2 * Math.PI * u2) / Math.sqrt(2);
+	}
+
+	private void writeDeck(File file, int segments, String method) throws IOException {
+		double L = length();
+		double spwt_ion = ION_DEN * SPACING * SPACING / per_cell;
+		double spwt_neutral = NEUTRAL_DEN * SPACING * SPACING / per_cell;
+
+		/* cylinder traced clockwise so that the normals point out */
+		StringBuilder path = new StringBuilder();
+		for (int s = 0; s <= segments; s++) {
+			double theta = -2 * Math.PI * s / segments;
+			path.append(s == 0 ? "M " : s == 1 ? " L " : " ");
+			path.append(String.format("%.9g, %.9g", 0.5 * L + radius() * Math.cos(theta),
+					0.5 * L + radius() * Math.sin(theta)));
+		}
+
+		try (PrintWriter pw = new PrintWriter(file, StandardCharsets.UTF_8)) {
+			pw.println("<simulation>");
+			pw.println("<log level=\"warning\"/>");
+			pw.println("<domain type=\"xy\">");
+			pw.println("<mesh type=\"uniform\" name=\"mesh\">");
+			pw.println("<origin>0, 0</origin>");
+			pw.printf("<spacing>%g, %g</spacing>%n", SPACING, SPACING);
+			pw.printf("<nodes>%d, %d</nodes>%n", nodes, nodes);
+			for (String wall : new String[] { "left", "right", "bottom", "top" })
+				pw.printf("<mesh-bc wall=\"%s\" type=\"dirichlet\" value=\"0\"/>%n", wall);
+			pw.println("</mesh>");
+			pw.println("</domain>");
+
+			pw.println("<materials>");
+			pw.printf("<material name=\"%s\" type=\"kinetic\"><molwt>40</molwt><charge>1</charge><spwt>%g</spwt></material>%n",
+					ION, spwt_ion);
+			pw.printf("<material name=\"%s\" type=\"kinetic\"><molwt>40</molwt><charge>0</charge><spwt>%g</spwt>"
+					+ "<ref_temp>273</ref_temp><visc_temp_index>0.81</visc_temp_index><vss_alpha>1</vss_alpha>"
+					+ "<diam>4.17e-10</diam></material>%n", NEUTRAL, spwt_neutral);
+			pw.println("<material name=\"SS\" type=\"solid\"><molwt>52.3</molwt><density>8000</density></material>");
+			pw.println("</materials>");
+
+			pw.println("<boundaries>");
+			pw.println("<boundary name=\"cylinder\" type=\"solid\" value=\"-10\">");
+			pw.println("<material>SS</material>");
+			pw.println("<path>" + path + "</path>");
+			pw.println("</boundary>");
+			pw.println("</boundaries>");
+
+			pw.println("<material_interactions>");
+			pw.printf("<mcc model=\"cex\"><source>%s</source><target>%s</target><sigma>const</sigma><sigma_coeffs>1e-19</sigma_coeffs></mcc>%n",
+					ION, NEUTRAL);
+			pw.printf("<dsmc model=\"elastic\"><pair>%s,%s</pair><sigma>Bird463</sigma></dsmc>%n", NEUTRAL, NEUTRAL);
+			pw.println("</material_interactions>");
+
+			pw.println("<solver type=\"poisson\">");
+			pw.printf("<method>%s</method>%n", method);
+			pw.printf("<n0>%g</n0><Te0>2</Te0><phi0>0</phi0>%n", ION_DEN);
+			pw.println("<max_it>20000</max_it><nl_max_it>25</nl_max_it><tol>1e-6</tol><nl_tol>1e-4</nl_tol>");
+			pw.println("</solver>");
+
+			pw.printf("<time><num_it>0</num_it><dt>%g</dt></time>%n", DT);
+			pw.println("<starfish/>");
+			pw.println("</simulation>");
+		}
+	}
+}
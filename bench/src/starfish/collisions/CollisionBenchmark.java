@@ -0,0 +1,100 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.collisions;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import starfish.bench.BenchmarkDomain;
+import starfish.core.common.Starfish;
+import starfish.core.materials.KineticMaterial.CellIndex;
+import starfish.interactions.VolumeInteraction;
+
+/**
+ * DSMC neutral-neutral collisions and MCC ion-neutral charge exchange over the
+ * whole benchmark domain for one collision step. Collisions only change velocities
+ * so the particles are reloaded once per iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CollisionBenchmark {
+
+	@Param({ "129", "257" })
+	int nodes;
+
+	@Param({ "20" })
+	int per_cell;
+
+	@Param({ "1", "4" })
+	int threads;
+
+	BenchmarkDomain domain;
+	DSMC dsmc;
+	DSMC.Worker worker; /* scratch data for dsmcCollideCells, all cells run on one thread */
+	MCC mcc;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		domain = new BenchmarkDomain(nodes, 64, per_cell, "gs", threads);
+		for (VolumeInteraction vi : Starfish.interactions_module.getInteractionsList()) {
+			if (vi instanceof DSMC)
+				dsmc = (DSMC) vi;
+			else if (vi instanceof MCC)
+				mcc = (MCC) vi;
+		}
+		worker = dsmc.new Worker();
+	}
+
+	@Setup(Level.Iteration)
+	public void load() {
+		domain.loadParticles(42);
+		dsmc.perform(domain.mesh); /* groups particles to cells for dsmcCollideCells */
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		domain.delete();
+	}
+
+	/** DSMC including the grouping of particles to cells */
+	@Benchmark
+	public void dsmc() {
+		dsmc.perform(domain.mesh);
+	}
+
+	/** DSMC collisions alone, cells are already grouped */
+	@Benchmark
+	public void dsmcCollideCells() {
+		DSMC.CellInfo cell_info[][] = dsmc.mesh_data.get(domain.mesh).cell_info;
+		CellIndex src_index = dsmc.mat1.getCellIndex(domain.mesh);
+		CellIndex tgt_index = (dsmc.mat2 != dsmc.mat1) ? dsmc.mat2.getCellIndex(domain.mesh) : src_index;
+		worker.clear();
+		for (int i = 0; i < domain.mesh.ni - 1; i++)
+			for (int j = 0; j < domain.mesh.nj - 1; j++)
+				dsmc.collideCell(cell_info[i][j], src_index, tgt_index, i, j, worker);
+	}
+
+	@Benchmark
+	public void mcc() {
+		mcc.perform(domain.mesh);
+	}
+}
@@ -0,0 +1,110 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.domain;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import starfish.bench.BenchmarkDomain;
+import starfish.core.domain.DomainModule.DomainType;
+
+/**
+ * Field2D gather/scatter at random logical coordinates, and XtoL on the uniform
+ * mesh of the benchmark domain and on a skewed QuadrilateralMesh of the same size.
+ * Each invocation processes NUM_POINTS points.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FieldMeshBenchmark {
+
+	@Param({ "129", "513" })
+	int nodes;
+
+	static final int NUM_POINTS = 100000;
+
+	BenchmarkDomain domain;
+	Field2D field;
+	QuadrilateralMesh quad;
+	double lc[][]; /* random logical coordinates */
+	double pos[][]; /* matching physical coordinates on the uniform mesh */
+	double quad_pos[][]; /* matching physical coordinates on the quadrilateral mesh */
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		domain = new BenchmarkDomain(nodes, 64, 1, "gs", 1);
+		field = new Field2D(domain.mesh);
+
+		/* quadrilateral mesh with a sinusoidal skew so XtoL cannot use the uniform shortcut */
+		double ipos[][] = new double[nodes][nodes];
+		double jpos[][] = new double[nodes][nodes];
+		double h = BenchmarkDomain.SPACING;
+		for (int i = 0; i < nodes; i++)
+			for (int j = 0; j < nodes; j++) {
+				ipos[i][j] = i * h + 0.2 * h * Math.sin(2 * Math.PI * j / (nodes - 1));
+				jpos[i][j] = j * h + 0.1 * i * h;
+			}
+		quad = new QuadrilateralMesh(new int[] { nodes, nodes }, ipos, jpos, "quad", DomainType.XY);
+
+		SplittableRandom rnd = new SplittableRandom(1);
+		lc = new double[NUM_POINTS][];
+		pos = new double[NUM_POINTS][];
+		quad_pos = new double[NUM_POINTS][];
+		for (int p = 0; p < NUM_POINTS; p++) {
+			lc[p] = new double[] { (nodes - 1) * rnd.nextDouble(), (nodes - 1) * rnd.nextDouble() };
+			pos[p] = domain.mesh.pos(lc[p]);
+			quad_pos[p] = quad.pos(lc[p]);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		domain.delete();
+	}
+
+	@Benchmark
+	public void gather(Blackhole bh) {
+		double sum = 0;
+		for (int p = 0; p < NUM_POINTS; p++)
+			sum += field.gather(lc[p]);
+		bh.consume(sum);
+	}
+
+	@Benchmark
+	public void scatter() {
+		for (int p = 0; p < NUM_POINTS; p++)
+			field.scatter(lc[p], 1.0);
+	}
+
+	@Benchmark
+	public void XtoLUniform(Blackhole bh) {
+		for (int p = 0; p < NUM_POINTS; p++)
+			bh.consume(domain.mesh.XtoL(pos[p]));
+	}
+
+	@Benchmark
+	public void XtoLQuadrilateral(Blackhole bh) {
+		for (int p = 0; p < NUM_POINTS; p++)
+			bh.consume(quad.XtoL(quad_pos[p]));
+	}
+}
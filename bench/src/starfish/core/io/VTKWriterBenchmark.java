@@ -0,0 +1,75 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.io;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import starfish.bench.BenchmarkDomain;
+
+/**
+ * 2D field output of the benchmark domain in each VTK format. The file is
+ * rewritten in the temporary deck directory on every invocation. With async
+ * output the time is that of the main thread, including any wait on the
+ * output queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class VTKWriterBenchmark {
+
+	@Param({ "129", "513" })
+	int nodes;
+
+	@Param({ "ascii", "binary", "appended" })
+	String format;
+
+	@Param({ "false", "true" })
+	String async;
+
+	BenchmarkDomain domain;
+	Writer writer;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		domain = new BenchmarkDomain(nodes, 64, 1, "gs", 1);
+		domain.loadParticles(42);
+
+		writer = OutputModule.createWriter(BenchmarkDomain.parse(
+				"<output type=\"2D\" file_name=\"field.vts\" format=\"vtk\">"
+				+ "<output_format>" + format + "</output_format>"
+				+ "<async>" + async + "</async>"
+				+ "<scalars>phi, rho, nd.Ar+, nd.Ar, t.Ar</scalars>"
+				+ "<vectors>[efi, efj], [u.Ar+, v.Ar+]</vectors>"
+				+ "</output>"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		writer.close();
+		domain.delete();
+	}
+
+	@Benchmark
+	public void write2D() {
+		writer.write();
+	}
+}
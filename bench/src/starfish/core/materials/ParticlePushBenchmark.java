@@ -0,0 +1,139 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.materials;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import starfish.bench.BenchmarkDomain;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Particle push of one material over one time step (including the fused density
+ * deposit, sorting, and surface checks), the deposit alone, and ProcessBoundary for
+ * short particle moves crossing the cylinder, including the merge of the surface flux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParticlePushBenchmark {
+
+	@Param({ "129", "257" })
+	int nodes;
+
+	@Param({ "20" })
+	int per_cell;
+
+	@Param({ "64", "1024" })
+	int segments;
+
+	@Param({ "1", "4" })
+	int threads;
+
+	BenchmarkDomain domain;
+
+	/* rays for ProcessBoundary, each from old to new position */
+	static final int NUM_RAYS = 4096;
+	double ray_old[][];
+	double ray_new[][];
+	double ray_vel[][];
+	double ray_old_lc[][];
+	double ray_new_lc[][];
+	Particle part;
+	double old_lc[] = new double[2];
+	KineticMaterial.SegmentVisits visits = new KineticMaterial.SegmentVisits();
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		domain = new BenchmarkDomain(nodes, segments, per_cell, "gs", threads);
+
+		/* random moves of one cell length through the region around the cylinder surface */
+		SplittableRandom rnd = new SplittableRandom(1);
+		ray_old = new double[NUM_RAYS][];
+		ray_new = new double[NUM_RAYS][];
+		ray_vel = new double[NUM_RAYS][];
+		ray_old_lc = new double[NUM_RAYS][];
+		ray_new_lc = new double[NUM_RAYS][];
+		double c = 0.5 * domain.length();
+		for (int r = 0; r < NUM_RAYS; r++) {
+			double theta = 2 * Math.PI * rnd.nextDouble();
+			double rad = domain.radius() + BenchmarkDomain.SPACING * (0.2 + rnd.nextDouble());
+			double x = c + rad * Math.cos(theta);
+			double y = c + rad * Math.sin(theta);
+			double dx = -BenchmarkDomain.SPACING * Math.cos(theta);
+			double dy = -BenchmarkDomain.SPACING * Math.sin(theta);
+			ray_old[r] = new double[] { x, y, 0 };
+			ray_new[r] = new double[] { x + dx, y + dy, 0 };
+			ray_vel[r] = new double[] { dx / BenchmarkDomain.DT, dy / BenchmarkDomain.DT, 0 };
+			ray_old_lc[r] = domain.mesh.XtoL(ray_old[r]);
+			ray_new_lc[r] = domain.mesh.XtoL(ray_new[r]);
+		}
+		part = new Particle(domain.ions);
+		part.lc = new double[2];
+	}
+
+	@Setup(Level.Iteration)
+	public void load() {
+		domain.loadParticles(42);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		domain.delete();
+	}
+
+	/** push, deposit, and sort of the ions for one time step */
+	@Benchmark
+	public void push() {
+		domain.ions.moveParticles(false, 0);
+	}
+
+	/** re-deposit of the ion density and flux from all blocks */
+	@Benchmark
+	public void deposit() {
+		for (KineticMaterial.MeshData md : domain.ions.mesh_data) {
+			for (KineticMaterial.ParticleBlock pb : md.particle_block)
+				pb.moments_mod_count = -1;
+			domain.ions.updateFields(md);
+		}
+	}
+
+	/** surface intersection checks for moves crossing the cylinder */
+	@Benchmark
+	public void processBoundary(Blackhole bh) {
+		KineticMaterial km = domain.ions;
+		Material.SurfaceTally tally = new Material.SurfaceTally(); /* per mover and step, as in moveParticles */
+		for (int r = 0; r < NUM_RAYS; r++) {
+			System.arraycopy(ray_new[r], 0, part.pos, 0, 3);
+			System.arraycopy(ray_vel[r], 0, part.vel, 0, 3);
+			part.mpw = 1;
+			part.dt = BenchmarkDomain.DT;
+			part.lc[0] = ray_new_lc[r][0];
+			part.lc[1] = ray_new_lc[r][1];
+			old_lc[0] = ray_old_lc[r][0];
+			old_lc[1] = ray_old_lc[r][1];
+			bh.consume(km.ProcessBoundary(part, domain.mesh, ray_old[r], old_lc, visits, tally));
+		}
+		km.addSurfaceTally(tally);
+	}
+}
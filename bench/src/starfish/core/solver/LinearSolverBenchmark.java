@@ -0,0 +1,73 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.solver;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import starfish.bench.BenchmarkDomain;
+import starfish.core.common.Starfish;
+import starfish.core.domain.Mesh;
+
+/**
+ * Nonlinear Poisson (Boltzmann electrons) solve of the benchmark domain from a zero
+ * initial potential with each linear solver. The direct solver is dense and is only
+ * practical for small meshes, run it with -p method=direct -p nodes=33. ADI is not
+ * included since it diverges on this domain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LinearSolverBenchmark {
+
+	@Param({ "65", "129" })
+	int nodes;
+
+	@Param({ "gs", "pcg", "multigrid" })
+	String method;
+
+	@Param({ "1", "4" })
+	int threads;
+
+	BenchmarkDomain domain;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		domain = new BenchmarkDomain(nodes, 64, 10, method, threads);
+		domain.loadParticles(42);
+	}
+
+	@Setup(Level.Invocation)
+	public void resetPotential() {
+		for (Mesh mesh : Starfish.getMeshList())
+			Starfish.domain_module.getPhi(mesh).clear();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		domain.delete();
+	}
+
+	@Benchmark
+	public void solve() {
+		Starfish.solver_module.getSolver().update();
+	}
+}
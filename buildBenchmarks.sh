@@ -0,0 +1,43 @@
+#!/bin/bash
+
+# This will build a self-contained JAR file with the JMH microbenchmarks in
+# bench/src. The benchmarks exercise the particle push, field interpolation,
+# linear solvers, collisions, and VTK output on a synthetic domain.
+# JMH is not bundled with Starfish. Download jmh-core, jmh-generator-annprocess,
+# jopt-simple, and commons-math3 from Maven Central into a folder and pass it
+# as the first argument or in the JMH_LIB environment variable.
+#
+# usage: ./buildBenchmarks.sh [jmh_lib_dir]
+#        java -jar benchmarks.jar [JMH options, e.g. ParticlePush -p threads=4]
+
+JMH_LIB="${1:-$JMH_LIB}"
+JAR_FILE="benchmarks.jar"
+SOURCE_DIR="src"
+BENCH_DIR="bench/src"
+MAIN_CLASS="org.openjdk.jmh.Main"
+TMP_DIR="tmp_bench"
+
+if [ -z "$JMH_LIB" ] || [ ! -d "$JMH_LIB" ]; then
+	echo "usage: $0 jmh_lib_dir (or set JMH_LIB)"
+	exit 1
+fi
+
+JMH_LIB=$(cd "$JMH_LIB" && pwd)
+CLASSPATH=$(find "$JMH_LIB" -name "*.jar" | tr '\n' ':')
+
+mkdir -p "$TMP_DIR"
+# Copy Java files excluding those in the /src/starfish/gui folder, same as buildHeadless.sh
+find "$SOURCE_DIR" -name "*.java" ! -path "*/starfish/gui/*" ! -path "src/starfish/Main.java" -exec cp --parents \{\} "$TMP_DIR" \;
+(cd "$BENCH_DIR" && find . -name "*.java" -exec cp --parents \{\} "../../$TMP_DIR/$SOURCE_DIR" \;)
+
+# the JMH annotation processor on the classpath generates the benchmark harness
+javac -cp "$CLASSPATH" -d "$TMP_DIR" -sourcepath "$TMP_DIR/$SOURCE_DIR" $(find "$TMP_DIR" -name "*.java") || { rm -rf "$TMP_DIR"; exit 1; }
+
+# bundle JMH so the jar runs on its own
+for jar in $(find "$JMH_LIB" -name "*.jar"); do
+	(cd "$TMP_DIR" && jar xf "$jar")
+done
+rm -rf "$TMP_DIR/META-INF/MANIFEST.MF" "$TMP_DIR/$SOURCE_DIR"
+jar cfe "$JAR_FILE" "$MAIN_CLASS" -C "$TMP_DIR" .
+
+rm -rf "$TMP_DIR"
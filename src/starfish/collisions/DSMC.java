@@ -7,19 +7,21 @@
 
 package starfish.collisions;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.SplittableRandom;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
+import starfish.core.common.WorkerPool;
 import starfish.core.domain.Field2D;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
+import starfish.core.materials.KineticMaterial.CellIndex;
 import starfish.core.materials.KineticMaterial.Particle;
 import starfish.interactions.InteractionsModule;
 import starfish.interactions.Sigma;
@@ -42,6 +44,7 @@ public class DSMC extends VolumeInteraction
    // KineticMaterial product;
 
     double vss_inv;
+    int subcells;	    //number of subcells in each direction
     
     DSMC(Element element) 
     {
@@ -59,6 +62,10 @@ public class DSMC extends VolumeInteraction
     	/*get initial sig_cr_max*/
     	sig_cr_max0 = InputParser.getDouble("sig_cr_max",element, 1e-16);
 
+    	/*subcells per cell side used to select nearby collision partners*/
+    	subcells = InputParser.getInt("subcells", element, 1);
+    	if (subcells<1) subcells=1;
+
     	sigma = InteractionsModule.parseSigma(element);
 	
     	/*make sure we have a kinetic source*/
@@ -125,9 +132,6 @@ public class DSMC extends VolumeInteraction
     
     class CellInfo
     {
-	List<Particle> sp1_list = new ArrayList<Particle>();
-	List<Particle> sp2_list = new ArrayList<Particle>();
-	
 	double sig_cr_max;	/*TODO: this needs to be per species species pair*/
 	private double rem;
 	double cell_volume;
@@ -141,6 +145,7 @@ public class DSMC extends VolumeInteraction
     class MeshData
     {
 		CellInfo cell_info[][];
+		Worker workers[] = new Worker[0];
 		MeshData(Mesh mesh,double sig_cr)
 		{
 		    cell_info = new CellInfo[mesh.ni-1][mesh.nj-1];
@@ -150,6 +155,72 @@ public class DSMC extends VolumeInteraction
 		}
     }
     
+    /**per-chunk scratch data and sums, reused between calls*/
+    class Worker
+    {
+    	long nc_tot;
+    	double sig_cr_max;
+    	double cell_count, cell_real;	/*collisions in the last cell*/
+	
+    	/*target particles of the current cell sorted to subcells*/
+    	int sub_offset[] = new int[subcells*subcells+1];
+    	int sub_parts[] = new int[0];
+    	int sub_key[] = new int[0];
+	
+    	void clear()
+    	{
+    		nc_tot = 0;
+    		sig_cr_max = 0;
+    	}
+	
+    	/**@return subcell index of the particle in cell i,j*/
+    	int subcell(Particle part, int i, int j)
+    	{
+    		int si = (int)((part.lc[0]-i)*subcells);
+    		int sj = (int)((part.lc[1]-j)*subcells);
+    		if (si<0) si=0; else if (si>=subcells) si=subcells-1;
+    		if (sj<0) sj=0; else if (sj>=subcells) sj=subcells-1;
+    		return sj*subcells+si;
+    	}
+	
+    	/**sorts the np particles starting at parts[first] to subcells of cell i,j*/
+    	void sort(Particle parts[], int first, int np, int i, int j)
+    	{
+    		if (sub_parts.length<np)
+    		{
+    			sub_parts = new int[np+np/4];
+    			sub_key = new int[sub_parts.length];
+    		}
+    		Arrays.fill(sub_offset, 0);
+    		for (int p=0;p<np;p++)
+    		{
+    			sub_key[p] = subcell(parts[first+p],i,j);
+    			sub_offset[sub_key[p]+1]++;
+    		}
+    		for (int s=0;s<sub_offset.length-1;s++)
+    			sub_offset[s+1]+=sub_offset[s];
+    		for (int p=0;p<np;p++)
+    			sub_parts[sub_offset[sub_key[p]]++] = p;
+    		for (int s=sub_offset.length-1;s>0;s--)
+    			sub_offset[s] = sub_offset[s-1];
+    		sub_offset[0] = 0;
+    	}
+	
+    	/**@return index of a collision partner from the subcell of part1 other than self, 
+    	 * or -1 if the subcell has no such particle*/
+    	int pickPartner(Particle part1, int self, int i, int j)
+    	{
+    		int s = subcell(part1,i,j);
+    		int first = sub_offset[s];
+    		int count = sub_offset[s+1]-first;
+    		if (count<(self>=0?2:1)) return -1;
+    		int p2;
+    		do {p2 = sub_parts[first+(int)(Starfish.rnd()*count)];}
+    		while (p2==self);
+    		return p2;
+    	}
+    }
+    
     HashMap<Mesh,MeshData> mesh_data = new HashMap<Mesh,MeshData>();
     
     int num_samples = 0;
@@ -190,86 +261,87 @@ public class DSMC extends VolumeInteraction
 		fc_nu.mult(1.0/(num_samples*frequency*Starfish.getDt()));	
     }
 
-    /** performs DSMC on a mesh*/
+    /** performs DSMC on a mesh, columns of cells are distributed over the worker pool*/
     void perform(Mesh mesh)
     {
-    	CellInfo cell_info[][] = mesh_data.get(mesh).cell_info;
+    	final MeshData md = mesh_data.get(mesh);
+    	final CellInfo cell_info[][] = md.cell_info;
 	
-    	/*cleanup*/
-    	for (int i=0;i<mesh.ni-1;i++)
-    		for (int j=0;j<mesh.nj-1;j++)
-    		{
-    			cell_info[i][j].sp1_list.clear();
-    			cell_info[i][j].sp2_list.clear();
-    		}
-	
-    	/*sort particles into cells
-    	 * TODO: add support for subcells per Bird*/
+    	/*particles sorted to cells, shared with other interactions until particles move*/
+    	final CellIndex src_index = mat1.getCellIndex(mesh);
+    	final CellIndex tgt_index = (mat2!=mat1)?mat2.getCellIndex(mesh):src_index;
+	    
+    	final Field2D real_sum = fc_real_sum.getField(mesh);
+    	final Field2D count_sum = fc_count_sum.getField(mesh);
+    	final int nci = mesh.ni-1;
+    	final int ncj = mesh.nj-1;
 	
-    	/*source*/
-    	Iterator<Particle> src_iterator = mat1.getIterator(mesh);
-    	while (src_iterator.hasNext())
+    	int num_chunks = WorkerPool.numChunks(nci, 2);
+    	if (md.workers.length!=num_chunks)
     	{
-    		Particle part = src_iterator.next();
-    		int i=(int)part.lc[0];
-    		int j=(int)part.lc[1];
-    		if (i>=mesh.ni-1 || j>=mesh.nj-1) continue;	//boundary source can create particles on mesh edge
-    		cell_info[i][j].sp1_list.add(part);
-    	}
-
-    	/*target*/
-    	if (mat2!=mat1)
-    	{
-    		Iterator<Particle> tgt_iterator = mat2.getIterator(mesh);
-    		while (tgt_iterator.hasNext())
-    		{
-    			Particle part = tgt_iterator.next();
-    			int i=(int)part.lc[0];
-    			int j=(int)part.lc[1];
-    			if (i>=mesh.ni-1 || j>=mesh.nj-1) continue;   //boundary source can create particles on mesh edge
-    			cell_info[i][j].sp2_list.add(part);
-    		}
+    		md.workers = new Worker[num_chunks];
+    		for (int c=0;c<num_chunks;c++) md.workers[c] = new Worker();
     	}
+    	final Worker workers[] = md.workers;
 	
-    	long nc_tot=0;
-
-    	double sigma_cr_max=0;
-	    
-    	Field2D real_sum = fc_real_sum.getField(mesh);
-    	Field2D count_sum = fc_count_sum.getField(mesh);
+    	final int mesh_index = Starfish.getMeshList().indexOf(mesh);
+    	final int id = Starfish.interactions_module.getInteractionsList().indexOf(this);
 	
-    	/*loop over cells*/
-    	for (int i=0;i<mesh.ni-1;i++)
-    		for (int j=0;j<mesh.nj-1;j++)
+    	/*cells are independent, each cell is only written by the chunk that owns its column*/
+    	WorkerPool.parallelFor(nci, 2, (chunk,i_min,i_max)->{
+    		Worker w = workers[chunk];
+    		w.clear();
+    		for (int i=i_min;i<i_max;i++)
     		{
-    			double cell_cols[] = collideCell(cell_info[i][j]);	
+    			/*one stream per column so that results do not depend on the number of threads*/
+    			SplittableRandom prev = RandomStreams.bind(RandomStreams.key(id, mesh_index, i, RandomStreams.TAG_DSMC));
+    			try {
+    				for (int j=0;j<ncj;j++)
+    				{
+    					collideCell(cell_info[i][j], src_index, tgt_index, i, j, w);
 		
-    			/*start counting only at ss since dividing by time since ss*/
-				count_sum.add(i,j,cell_cols[0]);	    //cell data
-				real_sum.add(i,j,cell_cols[1]);
-    	
-				nc_tot+=cell_cols[0];
-    			if (cell_info[i][j].sig_cr_max>sigma_cr_max) sigma_cr_max=cell_info[i][j].sig_cr_max;
+    					/*start counting only at ss since dividing by time since ss*/
+    					count_sum.add(i,j,w.cell_count);	    //cell data
+    					real_sum.add(i,j,w.cell_real);
+    					w.nc_tot+=w.cell_count;
+    					if (cell_info[i][j].sig_cr_max>w.sig_cr_max) w.sig_cr_max=cell_info[i][j].sig_cr_max;
+    				}
+    			} finally {
+    				RandomStreams.unbind(prev);
+    			}
     		}
+    	});
+	
+    	long nc_tot=0;
+    	double sigma_cr_max=0;
+    	for (Worker w:workers)
+    	{
+    		nc_tot+=w.nc_tot;
+    		if (w.sig_cr_max>sigma_cr_max) sigma_cr_max=w.sig_cr_max;
+    	}
 
     	Log.log(String.format("DSMC %s-%s collision count: %d\t sig_cr_max: %.3g",mat1.getName(),mat2.getName(),nc_tot,sigma_cr_max));
     }
 
-    /**performs DSMC collisions for a single cell, uses Boyd 1996 algorithm for variable weight*/
-    double[] collideCell(CellInfo cell_info)
+    /**performs DSMC collisions for a single cell, uses Boyd 1996 algorithm for variable weight.
+     * With subcells, the collision partner is picked from the subcell of the first particle
+     * if possible (Bird 1994). The number of collisions is returned in w.cell_count and w.cell_real*/
+    void collideCell(CellInfo cell_info, CellIndex src_index, CellIndex tgt_index, int i, int j, Worker w)
     {	
     	double sig_cr_max=0;	/*used to obtain new value*/	
 	
     	double delta_t=frequency*Starfish.getDt();
-    	double sums[] = {0,0};	//[0] is integer sum of collision events, [1] is sum of specific weight
+    	w.cell_count = 0;	//integer sum of collision events
+    	w.cell_real = 0;	//sum of specific weight
 
     	/*we have just one list if both materials the same*/
-    	List<Particle>sp1_list = cell_info.sp1_list;
-    	List<Particle>sp2_list = cell_info.sp2_list;
-    	if (mat2==mat1) sp2_list = sp1_list;
+    	Particle sp1[] = src_index.parts;
+    	Particle sp2[] = tgt_index.parts;
+    	int first1 = src_index.first(i,j);
+    	int first2 = tgt_index.first(i,j);
 	
-    	double np1 = sp1_list.size();
-    	double np2 = sp2_list.size();
+    	int np1 = src_index.count(i,j);
+    	int np2 = tgt_index.count(i,j);
 	    
     	double spwt1=mat1.getSpwt0();
     	double spwt2=mat2.getSpwt0();
@@ -291,39 +363,44 @@ public class DSMC extends VolumeInteraction
 	    
     	/*make sure we have enough particles to collide*/
     	if ((mat1==mat2 && (np1<2 || np2<2)) ||	np1<1 || np2<1) {    
-    		nsel=0;
-    		return sums;
+    		return;
     	}
 	    
     	cell_info.rem=nsel_f-nsel;
 	
     	//HACK:
-    	if (nsel>(np1*np2)) 
+    	if (nsel>((double)np1*np2)) 
     	{
     		Log.debug("Not enough particles for collision pairs, need "+nsel+", have "+np1*np2);
-    		nsel=(int)(np1*np2);
+    		nsel=(int)((double)np1*np2);
     		cell_info.rem=0;
     	}
 	
-    	double cr_vec[] = new double[3];
+    	boolean use_subcells = subcells>1 && nsel>0;
+    	if (use_subcells) w.sort(sp2, first2, np2, i, j);
 
-    	for (int i=0;i<nsel;i++)
+    	for (int k=0;k<nsel;k++)
     	{
     		Particle part1,part2;
-    		int p1,p2;
+    		int p1,p2=-1;
     		p1 = (int)(Starfish.rnd()*np1);
+    		part1=sp1[first1+p1];
 		    
-    		do {p2 = (int)(Starfish.rnd()*np2);}
-    		while (mat1==mat2 && p1 == p2);
+    		if (use_subcells)
+    			p2 = w.pickPartner(part1, mat1==mat2?p1:-1, i, j);
+    		if (p2<0)
+    		{
+    			do {p2 = (int)(Starfish.rnd()*np2);}
+    			while (mat1==mat2 && p1 == p2);
+    		}
 
-    		part1=sp1_list.get(p1);
-    		part2=sp2_list.get(p2);
+    		part2=sp2[first2+p2];
 		    
     		/*relative velocity*/
-    		for (int j=0;j<3;j++)
-    			cr_vec[j] = part1.vel[j]-part2.vel[j];
-
-    		double cr_mag = mag(cr_vec);
+    		double cr_x = part1.vel[0]-part2.vel[0];
+    		double cr_y = part1.vel[1]-part2.vel[1];
+    		double cr_z = part1.vel[2]-part2.vel[2];
+    		double cr_mag = Math.sqrt(cr_x*cr_x+cr_y*cr_y+cr_z*cr_z);
 
     		double mr = part1.mass*part2.mass/(part1.mass+part2.mass);	//reduced mass
 	    
@@ -340,13 +417,12 @@ public class DSMC extends VolumeInteraction
     		{
     			model.perform(part1, part2,vss_inv);
 			
-    			sums[0]+=1.0;
-    			sums[1]+=0.5*(part1.mpw+part2.mpw);		
+    			w.cell_count+=1.0;
+    			w.cell_real+=0.5*(part1.mpw+part2.mpw);		
     		}
     	}
 
     	if (sig_cr_max>0) cell_info.sig_cr_max = sig_cr_max;
-    	return sums;
     }
   
     /**returns magnitude of a 3 component vector*/
@@ -8,19 +8,25 @@
 package starfish.collisions;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.common.Utils;
 import starfish.core.common.Vec;
+import starfish.core.common.WorkerPool;
 import starfish.core.domain.Field2D;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
+import starfish.core.materials.KineticMaterial.ParticleBlock;
+import starfish.core.materials.ParticleArray;
 import starfish.interactions.InteractionsModule;
 import starfish.interactions.Sigma;
 import starfish.interactions.VolumeInteraction;
@@ -41,6 +47,7 @@ public class MCC extends VolumeInteraction
     int frequency;
     int stop_it;
     double max_T;
+    boolean null_collision;	/*test only the expected fraction of particles*/
 
     MCC(Element element) 
     {	
@@ -69,6 +76,10 @@ public class MCC extends VolumeInteraction
 		    
 		//no limit by default
 		max_T = InputParser.getDouble("max_target_temp",element, -1);
+		
+		/*null collision sampling, particles are tested with the maximum collision
+		 * frequency of their cell and accepted with the actual/maximum ratio*/
+		null_collision = InputParser.getBoolean("null_collision", element, false);
 		    
 		/*make sure we have a kinetic source*/
 		if (!(Starfish.getMaterial(source_name) instanceof KineticMaterial))
@@ -163,69 +174,338 @@ public class MCC extends VolumeInteraction
 			target.deleteMass();
     }
 
-    /*performs collisions on a single mesh*/
+    /*performs collisions on a single mesh, particle blocks are processed in parallel*/
     void perform(Mesh mesh)
     {
-    	Iterator<Particle> iterator = source.getIterator(mesh);
-    	Field2D target_den = target.getDen(mesh);
+	MeshData md = mesh_data.get(mesh);
+	final ParticleBlock blocks[] = source.getMeshData(mesh).particle_block;
+	if (md.workers.length != blocks.length)
+	{
+	    md.workers = new Worker[blocks.length];
+	    for (int b=0;b<blocks.length;b++)
+		md.workers[b] = new Worker(mesh);
+	}
+	final Worker workers[] = md.workers;
+	for (Worker w:workers)
+	    w.clear();
 	
-    	Field2D real_sum = fc_real_sum.getField(mesh);
-    	Field2D count_sum = fc_count_sum.getField(mesh);
-    	double dt = frequency*Starfish.getDt();
+	final double dt = frequency*Starfish.getDt();
+	final double p_max = null_collision?computeNullProbability(mesh, md, blocks):1;
+	if (p_max<=0) return;	/*no collisions possible*/
 	
-		//loop over particles
-		while (iterator.hasNext())
-		{
-		    Particle part = iterator.next();
+	final int mesh_index = Starfish.getMeshList().indexOf(mesh);
+	final int id = Starfish.interactions_module.getInteractionsList().indexOf(this);
+	ArrayList<Runnable> jobs = new ArrayList<>(blocks.length);
+	for (int b=0;b<blocks.length;b++)
+	{
+	    final int block = b;
+	    jobs.add(()->{
+		SplittableRandom prev = RandomStreams.bind(RandomStreams.key(id, mesh_index, block, RandomStreams.TAG_MCC));
+		try {
+		    collide(mesh, blocks[block], workers[block], md.p_cell, p_max, dt);
+		} finally {
+		    RandomStreams.unbind(prev);
+		}
+	    });
+	}
 	
-		    double den_a = target_den.gather(part.lc);
-		    if (den_a<=0) continue;
+	/*ionization adds particles to other materials, which is not thread safe*/
+	if (model instanceof ModelIonization)
+	    for (Runnable job:jobs) job.run();
+	else
+	    WorkerPool.invokeAll(jobs);
 	
-		    /*create random target particle according to target T and stream velocity*/
-		    double target_vel[] = target.sampleVelocity(mesh, part.lc);
+	/*add per-block sums*/
+	final Field2D real_sum = fc_real_sum.getField(mesh);
+	final Field2D count_sum = fc_count_sum.getField(mesh);
+	final Field2D S = target.getS(mesh);
+	WorkerPool.parallelFor(mesh.ni, 8, (c,i_min,i_max)->{
+	    for (Worker w:workers)
+		for (int i=i_min;i<i_max;i++)
+		    for (int j=0;j<mesh.nj;j++)
+		    {
+			count_sum.data[i][j] += w.count.data[i][j];
+			real_sum.data[i][j] += w.real.data[i][j];
+			S.data[i][j] += w.S.data[i][j];
+		    }
+	});
 	
-		    double g_vec[] = new double[3];
-		    for (int i=0;i<3;i++) g_vec[i] = target_vel[i] - part.vel[i];				
-		    double g = Vec.mag3(g_vec);
+	int violations = 0;
+	for (Worker w:workers) violations += w.violations;
+	if (violations>0)
+	    Log.debug("MCC: collision probability exceeded the null collision estimate "+violations+" times");
+    }
+    
+    /**tests particles of a single block for collisions. With null collisions, the
+     * index of the next particle to test is sampled from the geometric distribution
+     * for the largest cell probability p_max, and candidates are then thinned to
+     * their cell probability, so only the expected fraction of particles is visited
+     */
+    void collide(Mesh mesh, ParticleBlock pb, Worker w, double p_cell[], double p_max, double dt)
+    {
+	ParticleArray pa = pb.particle_array;
+	if (pa!=null) pb.sync();	/*write back copies handed out by iterators*/
 	
-		    /*collision probability*/
-		    /*TODO: implement multiple interactions*/
-		    double sig = sigma.eval(g,part.mass);
-		    double P = 1-Math.exp(-sig*g*dt*den_a);
+	w.den = target.getDen(mesh);
+	w.u_ave = target.getUAve(mesh);
+	w.v_ave = target.getVAve(mesh);
+	w.w_ave = target.getWAve(mesh);
+	w.T = target.getT(mesh);
 	
-		    if (P<Starfish.rnd())
-			    continue;		/*no collision*/
+	int np = pb.size();
+	int nci = mesh.ni-1;
+	double log_q = (null_collision && p_max<1)?Math.log(1-p_max):0;
 	
-		    Particle virt_part = new Particle(part);
-		    //virt_part.vel = target_vel;
-		    virt_part.vel = target.sampleMaxwellianVelocity(mesh, part.lc, 0, max_T);
-		    virt_part.mass = target.mass;
+	int k=-1;
+	while (true)
+	{
+	    if (log_q<0)
+		k += 1 + (int)Math.min(np, Math.log(Starfish.rndEx0())/log_q);
+	    else
+		k++;
+	    if (k>=np) break;
+	    
+	    Particle part;
+	    if (pa!=null)
+	    {
+		pa.load(k, w.scratch);
+		part = w.scratch;
+	    }
+	    else part = pb.particle_list.get(k);
+	    
+	    double p_test = 1;
+	    if (null_collision)
+	    {
+		int i = (int)part.lc[0];
+		int j = (int)part.lc[1];
+		if (i<0 || j<0 || i>=nci || j>=mesh.nj-1) continue;
+		p_test = p_cell[j*nci+i];
+		if (p_test<p_max && Starfish.rnd()*p_max>=p_test) continue;
+	    }
+	    
+	    if (collide(mesh, part, w, p_test, dt) && pa!=null)
+		pa.store(k, part);
+	}
+    }
+    
+    /**performs the collision test for a particle already selected with probability p_test
+     * @return true if the particle collided*/
+    boolean collide(Mesh mesh, Particle part, Worker w, double p_test, double dt)
+    {
+	double den_a = w.den.gather(part.lc);
+	if (den_a<=0) return false;
 	
-		    /*save pre-collision energy*/
-		    double E1 = 0.5*source.mass*Vec.mag3(part.vel);
-		    /*otherwise, perform collision*/
-		    model.perform(part,virt_part, this, mesh);
-		    
-		    /*update target material energy term*/
-		    double E2 = 0.5*source.mass*Vec.mag3(part.vel);
-		    double vol = mesh.nodeVol(part.lc[0], part.lc[1]);
-		    /*compute power density rate J/m^3/s*/
-		    double dS = part.mpw*(E1-E2)/(dt*vol);	// J/s/m^3
-		    target.getS(mesh).scatter(part.lc, dS);
-		    
-		    int i = (int) part.lc[0];
-		    int j = (int) part.lc[1];
-		    count_sum.add(i,j,1);	    //cell data
-		    real_sum.add(i,j,part.mpw);
-		}	
+	/*relative velocity to the target stream velocity*/
+	double u[] = w.u;
+	u[0] = w.u_ave.gather(part.lc);
+	u[1] = w.v_ave.gather(part.lc);
+	u[2] = w.w_ave.gather(part.lc);
+	double g = Math.sqrt((u[0]-part.vel[0])*(u[0]-part.vel[0]) + (u[1]-part.vel[1])*(u[1]-part.vel[1]) +
+			     (u[2]-part.vel[2])*(u[2]-part.vel[2]));
+	
+	/*collision probability*/
+	/*TODO: implement multiple interactions*/
+	double sig = sigma.eval(g,part.mass);
+	double P = 1-Math.exp(-sig*g*dt*den_a);
+	if (P>p_test) w.violations++;
+	
+	if (P<Starfish.rnd()*p_test)
+	    return false;		/*no collision*/
+	
+	/*target particle sampled from the local Maxwellian*/
+	Particle virt_part = w.virt;
+	System.arraycopy(part.pos, 0, virt_part.pos, 0, 3);
+	virt_part.lc[0] = part.lc[0];
+	virt_part.lc[1] = part.lc[1];
+	virt_part.mpw = part.mpw;
+	virt_part.mass = target.mass;
+	
+	double T = w.T.gather(part.lc);
+	if (T<0) T=0;
+	if (max_T>0 && T>max_T) T=max_T;
+	double v_th = 1.2*Utils.computeVth(T, target.getMass());
+	for (int i=0;i<3;i++)
+	    virt_part.vel[i] = u[i] + v_th*Utils.SampleMaxw1D(1);
+	
+	/*save pre-collision energy*/
+	double E1 = 0.5*source.mass*Vec.mag3(part.vel);
+	/*otherwise, perform collision*/
+	model.perform(part,virt_part, this, mesh);
+	
+	/*update target material energy term*/
+	double E2 = 0.5*source.mass*Vec.mag3(part.vel);
+	double vol = mesh.nodeVol(part.lc[0], part.lc[1]);
+	/*compute power density rate J/m^3/s*/
+	double dS = part.mpw*(E1-E2)/(dt*vol);	// J/s/m^3
+	w.S.scatter(part.lc, dS);
+	
+	int i = (int) part.lc[0];
+	int j = (int) part.lc[1];
+	w.count.add(i,j,1);	    //cell data
+	w.real.add(i,j,part.mpw);
+	return true;
     }
     
+    /**computes the null collision probability of each cell from the largest target
+     * density on the cell nodes and the largest sigma*g for the relative speeds
+     * possible in the cell, which are bounded by the fastest source particle in the
+     * cell plus the largest target stream speed
+     * @return largest cell probability
+     */
+    double computeNullProbability(Mesh mesh, MeshData md, ParticleBlock blocks[])
+    {
+	final int nci = mesh.ni-1;
+	final int ncj = mesh.nj-1;
+	final Worker workers[] = md.workers;
+	
+	/*fastest source particle per cell, each block in parallel*/
+	ArrayList<Runnable> jobs = new ArrayList<>(blocks.length);
+	for (int b=0;b<blocks.length;b++)
+	{
+	    final int block = b;
+	    jobs.add(()->{
+		ParticleBlock pb = blocks[block];
+		double v2_max[] = workers[block].v_max;
+		Arrays.fill(v2_max, 0);
+		ParticleArray pa = pb.particle_array;
+		if (pa!=null)
+		{
+		    pb.sync();
+		    for (int p=0;p<pa.size();p++)
+		    {
+			int i = (int)pa.lc[2*p];
+			int j = (int)pa.lc[2*p+1];
+			if (i<0 || j<0 || i>=nci || j>=ncj) continue;
+			double v2 = pa.vel[3*p]*pa.vel[3*p] + pa.vel[3*p+1]*pa.vel[3*p+1] + pa.vel[3*p+2]*pa.vel[3*p+2];
+			if (v2>v2_max[j*nci+i]) v2_max[j*nci+i] = v2;
+		    }
+		}
+		else
+		    for (Particle part:pb.particle_list)
+		    {
+			int i = (int)part.lc[0];
+			int j = (int)part.lc[1];
+			if (i<0 || j<0 || i>=nci || j>=ncj) continue;
+			double v2 = Vec.dot3(part.vel, part.vel);
+			if (v2>v2_max[j*nci+i]) v2_max[j*nci+i] = v2;
+		    }
+	    });
+	}
+	WorkerPool.invokeAll(jobs);
+	
+	/*largest relative speed per cell, stored in p_cell for now*/
+	double p_cell[] = md.p_cell;
+	Field2D u = target.getUAve(mesh);
+	Field2D v = target.getVAve(mesh);
+	Field2D w = target.getWAve(mesh);
+	double g_max = 0;
+	for (int i=0;i<nci;i++)
+	    for (int j=0;j<ncj;j++)
+	    {
+		int c = j*nci+i;
+		double v2 = 0;
+		for (Worker worker:workers)
+		    v2 = Math.max(v2, worker.v_max[c]);
+		double u2 = 0;
+		for (int n=0;n<4;n++)
+		{
+		    int ii = i+n%2, jj = j+n/2;
+		    u2 = Math.max(u2, u.data[ii][jj]*u.data[ii][jj] + v.data[ii][jj]*v.data[ii][jj] + w.data[ii][jj]*w.data[ii][jj]);
+		}
+		p_cell[c] = Math.sqrt(v2) + Math.sqrt(u2);
+		g_max = Math.max(g_max, p_cell[c]);
+	    }
+	
+	/*running maximum of sigma*g on [0,g_max]*/
+	double sg[] = md.sigma_g;
+	double dg = g_max/(sg.length-1);
+	for (int k=0;k<sg.length;k++)
+	{
+	    double g = k*dg;
+	    sg[k] = (g>0)?sigma.eval(g, source.mass)*g:0;
+	    if (k>0 && sg[k-1]>sg[k]) sg[k] = sg[k-1];
+	}
+	
+	Field2D den = target.getDen(mesh);
+	double dt = frequency*Starfish.getDt();
+	double p_max = 0;
+	for (int i=0;i<nci;i++)
+	    for (int j=0;j<ncj;j++)
+	    {
+		int c = j*nci+i;
+		double den_max = Math.max(Math.max(den.data[i][j], den.data[i+1][j]),
+					  Math.max(den.data[i][j+1], den.data[i+1][j+1]));
+		if (den_max<=0 || dg==0) {p_cell[c] = 0; continue;}
+		
+		int k = Math.min(sg.length-1, (int)Math.ceil(p_cell[c]/dg));
+		double nu_max = NU_MAX_SAFETY*den_max*sg[k];
+		p_cell[c] = 1-Math.exp(-nu_max*dt);
+		p_max = Math.max(p_max, p_cell[c]);
+	    }
+	return p_max;
+    }
+    
+    /*margin for sigma*g between the tabulated relative speeds*/
+    static final double NU_MAX_SAFETY = 1.1;
+    static final int SIGMA_G_TABLE_SIZE = 256;
+    
+    /*scratch data and accumulators for one particle block, reused between calls*/
+    class Worker
+    {
+	final Field2D count;
+	final Field2D real;
+	final Field2D S;
+	final Particle virt;		/*target particle*/
+	final Particle scratch;		/*particle loaded from array storage*/
+	final double u[] = new double[3];
+	final double v_max[];		/*squared speed of the fastest source particle per cell*/
+	int violations;			/*number of collisions more likely than the null collision estimate*/
+	Field2D den, u_ave, v_ave, w_ave, T;
+	
+	Worker(Mesh mesh)
+	{
+	    count = new Field2D(mesh);
+	    real = new Field2D(mesh);
+	    S = new Field2D(mesh);
+	    virt = new Particle(source);
+	    virt.lc = new double[2];
+	    scratch = new Particle(source);
+	    scratch.lc = new double[2];
+	    v_max = new double[(mesh.ni-1)*(mesh.nj-1)];
+	}
+	
+	void clear()
+	{
+	    count.clear();
+	    real.clear();
+	    S.clear();
+	    violations = 0;
+	}
+    }
+    
+    class MeshData
+    {
+	Worker workers[] = new Worker[0];
+	double p_cell[];	/*null collision probability per cell*/
+	double sigma_g[] = new double[SIGMA_G_TABLE_SIZE];
+	
+	MeshData(Mesh mesh)
+	{
+	    p_cell = new double[(mesh.ni-1)*(mesh.nj-1)];
+	}
+    }
+    
+    HashMap<Mesh,MeshData> mesh_data = new HashMap<Mesh,MeshData>();
+    
     /**
      *
      */
     @Override
     public void init() 
     {
+	for (Mesh mesh:Starfish.getMeshList())
+	    mesh_data.put(mesh, new MeshData(mesh));
+	
     	if (model instanceof ModelIonization)
     		dn_target = this.target.getDeltaNCollection();
     }
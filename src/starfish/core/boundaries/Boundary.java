@@ -256,6 +256,7 @@ public class Boundary extends Spline {
 	 * @param source
 	 */
 	public void addSource(Source source) {
+		Starfish.source_module.registerSource(source);
 		source_list.add(source);
 	}
 
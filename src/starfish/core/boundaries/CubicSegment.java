@@ -56,8 +56,7 @@ class CubicSegment extends Segment
 	    case ZR: r_mid = pos_mid[1]; break;
 	    default: return 0;
 	}
-	area = 2*Math.PI*r_mid*length_t;
-	return area;
+	return 2*Math.PI*r_mid*length_t;
     }
 
 
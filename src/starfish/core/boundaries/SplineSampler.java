@@ -0,0 +1,179 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.boundaries;
+
+import java.util.List;
+import starfish.core.common.Starfish;
+import starfish.core.domain.DomainModule.DomainType;
+
+/**
+ * Samples parametric positions distributed uniformly in spline area. Built by
+ * Spline.computeGeometry, so it is rebuilt whenever the geometry changes, and not
+ * modified afterwards so it can be used from several threads.
+ *
+ * The segment is picked with an alias table over segment areas, and the same random
+ * number then gives the fractional area within the segment. This is inverted exactly
+ * for linear segments, including the conical frustum on RZ/ZR domains, and by a
+ * table uniform in area for cubic segments on RZ/ZR domains.
+ */
+final class SplineSampler {
+	static final int TABLE_SIZE = 64; /* intervals of the cubic segment tables */
+
+	final int n; /* number of segments */
+
+	/* alias table, column k gives segment k with probability prob[k] and alias[k] otherwise */
+	final double prob[];
+	final int alias[];
+
+	/* frustum radius at the segment start and radius change, zero on XY domains */
+	final double r1[];
+	final double dr[];
+
+	/* t at area fractions j/TABLE_SIZE for cubic segments on RZ/ZR domains, else null */
+	final double t_table[][];
+
+	SplineSampler(List<Segment> segments, double spline_area) {
+		n = segments.size();
+		prob = new double[n];
+		alias = new int[n];
+		r1 = new double[n];
+		dr = new double[n];
+		t_table = new double[n][];
+
+		DomainType type = Starfish.getDomainType();
+		boolean axisymmetric = type == DomainType.RZ || type == DomainType.ZR;
+		for (int i = 0; i < n; i++) {
+			Segment seg = segments.get(i);
+			if (!axisymmetric)
+				continue;
+			if (seg instanceof LinearSegment) {
+				int d = (type == DomainType.RZ) ? 0 : 1;
+				r1[i] = seg.x1[d];
+				dr[i] = seg.x2[d] - seg.x1[d];
+			} else if (seg.area() > 0)
+				t_table[i] = invertArea(seg);
+		}
+
+		buildAlias(segments, spline_area);
+	}
+
+	/** Vose's method, segments with zero area are never picked */
+	private void buildAlias(List<Segment> segments, double spline_area) {
+		if (n == 0)
+			return;
+		if (!(spline_area > 0)) {
+			/* no area to sample from, pick segments with equal probability */
+			for (int k = 0; k < n; k++) {
+				prob[k] = 1;
+				alias[k] = k;
+			}
+			return;
+		}
+
+		double p[] = new double[n];
+		int small[] = new int[n];
+		int large[] = new int[n];
+		int ns = 0, nl = 0;
+		for (int k = 0; k < n; k++) {
+			p[k] = n * segments.get(k).area() / spline_area;
+			if (p[k] < 1)
+				small[ns++] = k;
+			else
+				large[nl++] = k;
+		}
+
+		while (ns > 0 && nl > 0) {
+			int s = small[--ns];
+			int l = large[--nl];
+			prob[s] = p[s];
+			alias[s] = l;
+			p[l] -= 1 - p[s];
+			if (p[l] < 1)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+
+		/* remaining columns are full up to round-off */
+		while (nl > 0) {
+			int l = large[--nl];
+			prob[l] = 1;
+			alias[l] = l;
+		}
+		while (ns > 0) {
+			int s = small[--ns];
+			prob[s] = 1;
+			alias[s] = s;
+		}
+	}
+
+	/** tabulates t at uniformly spaced fractions of the segment area */
+	private static double[] invertArea(Segment seg) {
+		double area = seg.area();
+		double f[] = new double[TABLE_SIZE + 1];
+		for (int k = 1; k <= TABLE_SIZE; k++)
+			f[k] = Math.max(f[k - 1], seg.area((double) k / TABLE_SIZE) / area);
+
+		double t[] = new double[TABLE_SIZE + 1];
+		int k = 0;
+		for (int j = 1; j < TABLE_SIZE; j++) {
+			double goal = (double) j / TABLE_SIZE * f[TABLE_SIZE];
+			while (k < TABLE_SIZE - 1 && f[k + 1] < goal)
+				k++;
+			double df = f[k + 1] - f[k];
+			double w = df > 0 ? (goal - f[k]) / df : 0;
+			t[j] = (k + w) / TABLE_SIZE;
+		}
+		t[TABLE_SIZE] = 1;
+		return t;
+	}
+
+	/**
+	 * @param u uniform random number in [0,1)
+	 * @return parametric position along the spline
+	 */
+	double sample(double u) {
+		double x = u * n;
+		int k = Math.min((int) x, n - 1);
+		double r = x - k;
+
+		/* reuse the remainder as the area fraction within the segment */
+		int i;
+		double frac;
+		if (r < prob[k]) {
+			i = k;
+			frac = r / prob[k];
+		} else {
+			i = alias[k];
+			frac = (r - prob[k]) / (1 - prob[k]);
+		}
+
+		return i + segmentT(i, Math.min(frac, 1));
+	}
+
+	/** @return t within segment i enclosing the fraction frac of its area */
+	private double segmentT(int i, double frac) {
+		double table[] = t_table[i];
+		if (table != null) {
+			double x = frac * TABLE_SIZE;
+			int j = Math.min((int) x, TABLE_SIZE - 1);
+			return table[j] + (x - j) * (table[j + 1] - table[j]);
+		}
+
+		/*
+		 * frustum area up to t is proportional to t*(2*r1+dr*t), solved for t in a
+		 * form that does not cancel for small dr, also covers the XY case with dr=0
+		 */
+		double a = r1[i], b = dr[i];
+		double g = frac * (2 * a + b);
+		double disc = a * a + b * g;
+		if (a == 0 && b == 0 || disc < 0)
+			return frac;
+		double denom = a + Math.sqrt(disc);
+		return denom > 0 ? g / denom : frac;
+	}
+}
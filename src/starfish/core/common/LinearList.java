@@ -56,10 +56,11 @@ public class LinearList
     final public void insert(double x, double y)
     {
 	data.add(new XYData(x,y));
-	dirty = true;
+	lookup = null;
     }
 
-    private boolean dirty = true;
+    /** sorted table and its resampled form, rebuilt after insert*/
+    private volatile Lookup lookup;
 
     /** @return True if empty list*/
     public boolean isEmpty()
@@ -67,38 +68,189 @@ public class LinearList
 	return data.isEmpty();
     }
     /**
-     *
+     * linearly interpolates the table, values outside the table range are clamped
      * @param x
      * @return
      */
     public double eval(double x)
     {
-	    if (data.isEmpty()) return 0;
-	    if (dirty) {
-		Collections.sort(data);
-		dirty=false;
+	Lookup l = lookup;
+	if (l==null) l = compile();
+	return l.eval(x);
+    }
+
+    /**
+     * interpolates the original table directly, without the resampled grid
+     * @param x
+     * @return
+     */
+    public double evalExact(double x)
+    {
+	Lookup l = lookup;
+	if (l==null) l = compile();
+	return l.exact(x);
+    }
+
+    /** @return number of grid points of the resampled table or 0 if eval uses exact interpolation*/
+    public int gridSize()
+    {
+	Lookup l = lookup;
+	if (l==null) l = compile();
+	return (l.gy==null)?0:l.gy.length;
+    }
+
+    /** @return true if the resampled grid is log-spaced*/
+    public boolean isLogGrid()
+    {
+	Lookup l = lookup;
+	if (l==null) l = compile();
+	return l.log;
+    }
+
+    /** sorts the data and builds the lookup, called once after data changes*/
+    private synchronized Lookup compile()
+    {
+	if (lookup==null)
+	{
+	    Collections.sort(data);
+	    lookup = new Lookup(data);
+	}
+	return lookup;
+    }
+
+    /**
+     * Table in primitive arrays along with a uniform or log-spaced grid over its range.
+     * Values resampled on the grid are used directly if they reproduce the table to
+     * REL_TOL at all table points and grid midpoints. Otherwise eval falls back to exact
+     * interpolation, with the grid giving the starting table interval so that only a
+     * step or two of search remains.
+     */
+    static final class Lookup
+    {
+	static final int MIN_GRID = 64;
+	static final int MAX_GRID = 1<<16;
+	static final double REL_TOL = 1e-4;
+
+	final double x[];
+	final double y[];
+
+	final boolean log;	/*grid in ln(x)*/
+	final double g0;	/*first grid coordinate, x or ln(x)*/
+	final double inv_dg;	/*inverse grid spacing*/
+	final int seg[];	/*first table index j with x[j]>=start of the grid cell*/
+	final double gy[];	/*values at grid points, null if not accurate enough*/
+
+	Lookup(ArrayList<XYData> data)
+	{
+	    int n = data.size();
+	    x = new double[n];
+	    y = new double[n];
+	    for (int i=0;i<n;i++)
+	    {
+		x[i] = data.get(i).x;
+		y[i] = data.get(i).y;
 	    }
 
-	    int data_index = 0; /*this can be made a global if we know it will be called in sequence*/
-	    while(true)
+	    /*log spacing for positive tables spanning several decades*/
+	    log = n>1 && x[0]>0 && x[n-1]/x[0]>100;
+	    g0 = n>0?coord(x[0]):0;
+	    double range = n>1?coord(x[n-1])-g0:0;
+	    if (!(range>0))
 	    {
-		XYData current = data.get(data_index);
-		if (data_index<data.size()-1)
-		{
-		    XYData next = data.get(data_index+1);
-		    if (x>next.x)
-			data_index++;
-		    else
-		    {
-			double t = (x-current.x)/(next.x-current.x);
-			if (t<0) t=0;
-
-			/*interpolate*/
-			return current.y+t*(next.y-current.y);
-		    }			
-		}
-		else return current.y;	/*reached end of data*/
+		inv_dg = 0;
+		seg = null;
+		gy = null;
+		return;
 	    }
+
+	    /*interval index for each grid cell*/
+	    int nb = Math.min(MAX_GRID,Math.max(MIN_GRID,16*n));
+	    inv_dg = nb/range;
+	    seg = new int[nb+1];
+	    int j = 1;
+	    for (int k=0;k<=nb;k++)
+	    {
+		double v = point(g0+k/inv_dg);
+		while (j<n-1 && v>x[j]) j++;
+		seg[k] = j;
+	    }
+
+	    /*resample, doubling the grid until accurate enough*/
+	    double best[] = null;
+	    for (int ng=MIN_GRID;ng<=MAX_GRID && best==null;ng*=2)
+	    {
+		double inv = (ng-1)/range;
+		double g[] = new double[ng];
+		for (int k=0;k<ng;k++)
+		    g[k] = exact(point(g0+k/inv));
+		if (accurate(g,inv))
+		    best = g;
+	    }
+	    gy = best;
+	}
+
+	private double coord(double v) {return log?Math.log(v):v;}
+	private double point(double g) {return log?Math.exp(g):g;}
+
+	double eval(double v)
+	{
+	    if (gy==null) return exact(v);
+	    return interp(gy,(gy.length-1)/(coord(x[x.length-1])-g0),v);
+	}
+
+	/** interpolation in the original table*/
+	double exact(double v)
+	{
+	    int n = x.length;
+	    if (n==0) return 0;
+	    if (!(v>x[0])) return y[0];
+	    if (v>x[n-1]) return y[n-1];
+
+	    /*first j with v<=x[j], starting from the grid cell*/
+	    int j = 1;
+	    if (seg!=null)
+	    {
+		int k = (int)((coord(v)-g0)*inv_dg);
+		j = seg[Math.min(Math.max(k,0),seg.length-1)];
+		while (j>1 && v<=x[j-1]) j--;	/*guard against round-off in k*/
+	    }
+	    while (v>x[j]) j++;
+
+	    double t = (v-x[j-1])/(x[j]-x[j-1]);
+	    return y[j-1]+t*(y[j]-y[j-1]);
+	}
+
+	/** compares the grid against the table at table points and grid midpoints*/
+	private boolean accurate(double g[], double inv)
+	{
+	    double y_max = 0;
+	    for (double v:y) y_max = Math.max(y_max,Math.abs(v));
+	    double abs_tol = 1e-12*y_max;
+
+	    for (int i=0;i<x.length;i++)
+		if (!close(interp(g,inv,x[i]),exact(x[i]),abs_tol)) return false;
+	    for (int k=0;k<g.length-1;k++)
+	    {
+		double v = point(g0+(k+0.5)/inv);
+		if (!close(interp(g,inv,v),exact(v),abs_tol)) return false;
+	    }
+	    return true;
+	}
+
+	/** linear interpolation on grid g with inverse spacing inv*/
+	private double interp(double g[], double inv, double v)
+	{
+	    if (!(v>x[0])) return g[0];	/*also catches x<=0 for log grids*/
+	    double t = (coord(v)-g0)*inv;
+	    int k = (int)t;
+	    if (k>=g.length-1) return g[g.length-1];
+	    return g[k]+(t-k)*(g[k+1]-g[k]);
+	}
+
+	private static boolean close(double a, double b, double abs_tol)
+	{
+	    return Math.abs(a-b)<=REL_TOL*Math.abs(b)+abs_tol;
+	}
     }
 
     /**
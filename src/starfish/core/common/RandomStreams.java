@@ -0,0 +1,111 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.common;
+
+import java.util.SplittableRandom;
+
+/**
+ * Per-thread random number streams backing Starfish.rnd() and friends.
+ *
+ * The main thread draws from a single stream seeded by the simulation seed. Work
+ * running on the worker pool binds its own stream with bind(key), which is derived
+ * from the seed, the current time step, and a key identifying the work item (for
+ * instance material, mesh, and particle block). The sequence seen by each work item
+ * therefore does not depend on which thread runs it or on the timing of other
+ * threads, and results are reproducible for a given seed and thread count.
+ */
+public final class RandomStreams {
+
+	/* subsystem tags, last argument of key(), each work item type needs its own */
+	public static final int TAG_PUSH = 0;		/* particle movers, one stream per block */
+	public static final int TAG_TRANSFER = 1;	/* movers of particles transferred between meshes */
+	public static final int TAG_MCC = 2;		/* MCC collisions */
+	public static final int TAG_DSMC = 3;		/* DSMC collisions */
+	public static final int TAG_SOURCE = 4;		/* batched source sampling */
+	public static final int TAG_MERGE = 5;		/* particle merging */
+
+	private static long seed = 0;
+	private static SplittableRandom main = new SplittableRandom(0);
+	private static Thread main_thread = null;
+
+	/* stream bound by the work item currently running on this thread */
+	private static final ThreadLocal<SplittableRandom> bound = new ThreadLocal<>();
+
+	/* fallback for threads that did not bind a stream, not reproducible */
+	private static final ThreadLocal<SplittableRandom> unbound = ThreadLocal.withInitial(RandomStreams::splitUnbound);
+
+	private RandomStreams() {}
+
+	/**
+	 * resets all streams, the calling thread becomes the main thread
+	 * @param seed simulation seed
+	 */
+	public static synchronized void reset(long seed) {
+		RandomStreams.seed = seed;
+		main = new SplittableRandom(seed);
+		main_thread = Thread.currentThread();
+	}
+
+	/** @return simulation seed */
+	public static long getSeed() {
+		return seed;
+	}
+
+	/** @return stream to use on the calling thread */
+	public static SplittableRandom get() {
+		SplittableRandom rnd = bound.get();
+		if (rnd != null)
+			return rnd;
+		if (Thread.currentThread() == main_thread || main_thread == null)
+			return main;
+		return unbound.get();
+	}
+
+	/**
+	 * binds a new stream for the current time step to the calling thread
+	 * @param key identifies the work item, see key()
+	 * @return previously bound stream, to be passed to unbind
+	 */
+	public static SplittableRandom bind(long key) {
+		SplittableRandom prev = bound.get();
+		bound.set(new SplittableRandom(streamSeed(Starfish.getIt(), key)));
+		return prev;
+	}
+
+	/** restores the stream that was bound before the matching call to bind */
+	public static void unbind(SplittableRandom prev) {
+		if (prev == null)
+			bound.remove();
+		else
+			bound.set(prev);
+	}
+
+	/**
+	 * combines up to four small integers into a stream key
+	 * @param d subsystem tag, one of the TAG_ constants
+	 */
+	public static long key(int a, int b, int c, int d) {
+		return ((long) (a & 0xFFFF) << 48) | ((long) (b & 0xFFFF) << 32) | ((long) (c & 0xFFFF) << 16) | (d & 0xFFFF);
+	}
+
+	/** @return seed for the stream identified by time step and key */
+	static long streamSeed(int it, long key) {
+		long h = mix64(seed + 0x9E3779B97F4A7C15L * (it + 1));
+		return mix64(h ^ mix64(key + 0xD1B54A32D192ED03L));
+	}
+
+	/** SplitMix64 finalizer */
+	static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	private static synchronized SplittableRandom splitUnbound() {
+		return main.split();
+	}
+}
@@ -0,0 +1,79 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.zip.Checksum;
+
+/**
+ * In-memory restart snapshot. Data is appended to a list of large chunks so that
+ * the snapshot can be taken on the main thread without any file system calls and
+ * later written out on a background thread with a few large channel writes.
+ */
+final class RestartBuffer extends OutputStream {
+	static final int CHUNK_SIZE = 1 << 22; /* 4 MB */
+
+	final ArrayList<byte[]> chunks = new ArrayList<>();
+	byte chunk[];
+	int pos; /* write position in the last chunk */
+
+	RestartBuffer() {
+		newChunk();
+	}
+
+	private void newChunk() {
+		chunk = new byte[CHUNK_SIZE];
+		chunks.add(chunk);
+		pos = 0;
+	}
+
+	@Override
+	public void write(int b) {
+		if (pos == chunk.length)
+			newChunk();
+		chunk[pos++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte b[], int off, int len) {
+		while (len > 0) {
+			if (pos == chunk.length)
+				newChunk();
+			int n = Math.min(len, chunk.length - pos);
+			System.arraycopy(b, off, chunk, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** @return number of bytes written so far */
+	long size() {
+		return (long) (chunks.size() - 1) * CHUNK_SIZE + pos;
+	}
+
+	/**
+	 * writes the content to the channel, updating the checksum on the way
+	 * @param channel destination
+	 * @param checksum checksum to update, may be null
+	 */
+	void writeTo(FileChannel channel, Checksum checksum) throws IOException {
+		for (int c = 0; c < chunks.size(); c++) {
+			byte data[] = chunks.get(c);
+			int len = (c == chunks.size() - 1) ? pos : data.length;
+			if (checksum != null)
+				checksum.update(data, 0, len);
+			ByteBuffer bb = ByteBuffer.wrap(data, 0, len);
+			while (bb.hasRemaining())
+				channel.write(bb);
+		}
+	}
+}
@@ -9,28 +9,62 @@ package starfish.core.common;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
 import org.w3c.dom.Element;
 import starfish.core.common.Starfish.Log;
+import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
 import starfish.core.materials.Material;
 
 /**
+ * Saves and loads restart checkpoints. The simulation state is first copied to an
+ * in-memory snapshot on the main thread, the snapshot is then written on a
+ * background thread to a temporary file which is renamed once complete. The
+ * last <keep> checkpoints are kept as file_name, file_name.1, file_name.2, ...
+ *
+ * Checkpoints are loaded through a memory-mapped RestartReader. If the mesh sizes
+ * stored in the header differ from the simulation, particles are relocated instead
+ * of failing.
+ *
+ * File layout: header (magic, version, iteration, mesh sizes, material names),
+ * material data, and a CRC32C of all preceding bytes.
  *
  * @author Lubos Brieda
  */
 public  class RestartModule extends CommandModule
 {
+    static final int MAGIC = 0x53465253;	/*"SFRS"*/
+    static final int VERSION = 2;
+    static final int BUFFER_SIZE = 1 << 20;
+
     int it_save;
     int nt_add;
     boolean load_restart;
     boolean save_restart;
-	
+    String file_name;
+    int keep;		/*number of checkpoints to keep*/
+    boolean async;	/*write on a background thread*/
+
     int it_last_save;
     int it_last_load=-1;
-	
+
+    ExecutorService writer;
+    Future<?> pending_write;
+
     @Override
     public void init()
     {
@@ -38,13 +72,16 @@ public  class RestartModule extends CommandModule
     }
 
     @Override
-    public void process(Element element) 
+    public void process(Element element)
     {
 	it_save = InputParser.getInt("it_save",element,500);
 	nt_add = InputParser.getInt("nt_add", element,-1);
-		
+
 	load_restart = InputParser.getBoolean("load",element,false);
 	save_restart = InputParser.getBoolean("save",element,false);
+	file_name = InputParser.getValue("file_name", element, "restart.bin");
+	keep = Math.max(1, InputParser.getInt("keep", element, 1));
+	async = InputParser.getBoolean("async", element, true);
     }
 
     @Override
@@ -53,13 +90,20 @@ public  class RestartModule extends CommandModule
     }
 
     @Override
-    public void exit() 
+    public void exit()
     {
 	/*call save to capture latest data*/
 	if (it_last_save != Starfish.getIt())
 	    save(true);
+
+	waitForWrite();
+	if (writer!=null)
+	{
+	    writer.shutdown();
+	    writer = null;
+	}
     }
-	
+
     /**
      *
      */
@@ -67,7 +111,7 @@ public  class RestartModule extends CommandModule
     {
 	save(false);
     }
-	
+
     /**
      *
      * @param ignore_it
@@ -76,95 +120,298 @@ public  class RestartModule extends CommandModule
     {
 	if (!save_restart || it_last_save==Starfish.getIt())
 	    return;
-				
+
 	if (Starfish.getIt()%it_save!=0 && ignore_it==false) return;
-		
+
+	//prevent saving immediately after loading
+	if (Starfish.getIt()==it_last_load) return;
+
 	Log.message("Saving restart data");
 	it_last_save=Starfish.getIt();
-		
+
+	/*only one snapshot is kept in memory at a time*/
+	waitForWrite();
+
+	final RestartBuffer snapshot;
 	try{
-	    saveRestartData();
-	} catch (IOException e) 
+	    snapshot = saveRestartData();
+	} catch (IOException e)
 	{
-	    Log.error("Failed to save restart data to restart.bin");
+	    Log.error("Failed to save restart data to "+file_name);
+	    return;
 	}
+
+	if (!async)
+	{
+	    try {
+		writeCheckpoint(snapshot);
+	    } catch (IOException e)
+	    {
+		Log.error("Failed to save restart data to "+file_name);
+	    }
+	    return;
+	}
+
+	if (writer==null)
+	    writer = Executors.newSingleThreadExecutor(r->{
+		Thread t = new Thread(r, "starfish-restart");
+		t.setDaemon(true);
+		return t;
+	    });
+	pending_write = writer.submit(()->{writeCheckpoint(snapshot); return null;});
+    }
+
+    /** blocks until the background write completes*/
+    void waitForWrite()
+    {
+	if (pending_write==null) return;
+	try {
+	    pending_write.get();
+	} catch (InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	} catch (ExecutionException e)
+	{
+	    Log.error("Failed to save restart data to "+file_name+": "+e.getCause().getMessage());
+	}
+	pending_write = null;
     }
-	
+
     /**
      *
      */
     public void load()
     {
 	if (!load_restart) return;
-			
+
 	Log.message("Loading restart data");
+
+	/*use the newest checkpoint that passes the checksum*/
+	Path path = null;
+	for (int k=0;k<keep && path==null;k++)
+	{
+	    Path candidate = checkpointPath(k);
+	    try {
+		if (Files.exists(candidate) && verify(candidate))
+		    path = candidate;
+		else if (Files.exists(candidate))
+		    Log.warning("Checksum mismatch in "+candidate);
+	    } catch (IOException e)
+	    {
+		Log.warning("Failed to read "+candidate);
+	    }
+	}
+
+	if (path==null)
+	    Log.error("Failed to load restart data from "+file_name);
+
 	try{
-		loadRestartData();
-	    } catch (IOException e) 
+		loadRestartData(path);
+	    } catch (IOException e)
 	{
-	    Log.error("Failed to load restart data from restart.bin");
+	    Log.error("Failed to load restart data from "+path);
 	}
-		
+
 	/*update number of times steps*/
 	if (nt_add>0)
 	    Starfish.time_module.setNumIt(Starfish.getIt()+nt_add);
-	
+
 	it_last_load = Starfish.getIt();
     }
 
-    /**saves restart data
+    /** @return path of the k-th newest checkpoint*/
+    Path checkpointPath(int k)
+    {
+	String name = Starfish.options.wd+file_name;
+	return Paths.get(k==0?name:name+"."+k);
+    }
+
+    /**saves restart data to an in-memory snapshot
     * At present only saves particle positions
     * TODO: add save for fields and fluid materials
-    * @throws IOException 
+    * @return snapshot of the simulation state
+    * @throws IOException
     */
-    protected void saveRestartData() throws IOException  
+    protected RestartBuffer saveRestartData() throws IOException
     {
-	//prevent saving immediately after loading
-	if (Starfish.getIt()==it_last_load) return;
-	
-	DataOutputStream out=null;
-	out = new DataOutputStream(new FileOutputStream("restart.bin"));
-	
+	RestartBuffer buffer = new RestartBuffer();
+	DataOutputStream out = new DataOutputStream(buffer);
+
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
 	out.writeInt(Starfish.getIt());
-		
-	/*TODO: replace with a system checksum*/
-	out.writeInt(getCheckSum());	/*number of materials*/
-		
-	for (Material mat:Starfish.getMaterialsList())
+
+	List<Mesh> mesh_list = Starfish.getMeshList();
+	out.writeInt(mesh_list.size());
+	for (Mesh mesh:mesh_list)
 	{
-	    mat.saveRestartData(out);		
+	    out.writeInt(mesh.ni);
+	    out.writeInt(mesh.nj);
 	}
-	out.close();
+
+	List<Material> mat_list = Starfish.getMaterialsList();
+	out.writeInt(mat_list.size());
+	for (Material mat:mat_list)
+	    out.writeUTF(mat.getName());
+
+	for (Material mat:mat_list)
+	{
+	    mat.saveRestartData(out);
+	}
+	out.flush();
+	return buffer;
     }
-	
+
+    /** writes the snapshot and its checksum to a temporary file, then rotates the
+     * older checkpoints and renames the new one in place*/
+    void writeCheckpoint(RestartBuffer snapshot) throws IOException
+    {
+	Path path = checkpointPath(0);
+	Path tmp = Paths.get(path.toString()+".tmp");
+	if (path.getParent()!=null)
+	    Files.createDirectories(path.getParent());
+
+	try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+		StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+	{
+	    CRC32C crc = new CRC32C();
+	    snapshot.writeTo(channel, crc);
+	    ByteBuffer trailer = ByteBuffer.allocate(8).putLong(crc.getValue());
+	    trailer.flip();
+	    while (trailer.hasRemaining())
+		channel.write(trailer);
+	    channel.force(true);
+	}
+
+	/*file_name.k -> file_name.k+1, the oldest is replaced*/
+	for (int k=keep-1;k>0;k--)
+	{
+	    Path src = checkpointPath(k-1);
+	    if (Files.exists(src))
+		Files.move(src, checkpointPath(k), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	try {
+	    Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	} catch (AtomicMoveNotSupportedException e)
+	{
+	    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+    }
+
+    /** @return true if the CRC32C trailer matches the content, files without the
+     * header written by older versions cannot be verified and are accepted*/
+    static boolean verify(Path path) throws IOException
+    {
+	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+	{
+	    long size = channel.size();
+	    ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+	    if (size<4) return false;
+	    channel.read(bb);
+	    bb.flip();
+	    if (bb.getInt(0)!=MAGIC) return true;
+	    if (size<8) return false;
+
+	    CRC32C crc = new CRC32C();
+	    long remaining = size-8;
+	    while (true)
+	    {
+		int n = (int)Math.min(bb.remaining(), remaining);
+		crc.update(bb.array(), bb.position(), n);
+		remaining -= n;
+		if (remaining<=0) break;
+		bb.clear();
+		if (channel.read(bb)<0) return false;
+		bb.flip();
+	    }
+
+	    ByteBuffer trailer = ByteBuffer.allocate(8);
+	    channel.read(trailer, size-8);
+	    return trailer.getLong(0)==crc.getValue();
+	}
+    }
+
     /**loads restart data
+    * The file is memory mapped, materials may decode their data in parallel.
     * At present only loads particle positions
     * TODO: non-kinetic mats
-    * @throws IOException 
+    * @param path checkpoint to load
+    * @throws IOException
     */
-    protected void loadRestartData() throws IOException  
+    protected void loadRestartData(Path path) throws IOException
     {
-	DataInputStream in=null;
-	in = new DataInputStream(new FileInputStream("restart.bin"));
-	
-	Starfish.time_module.setIt(in.readInt());
-		
-	/*TODO: replace with a system checksum*/
-	if (in.readInt() != getCheckSum())
-		Log.error("Incompatible restart file");
-		
-	for (Material mat:Starfish.getMaterialsList())
-	{
-	    mat.loadRestartData(in);
+	long size = Files.size(path);
+	int first;
+	try (DataInputStream in = new DataInputStream(Files.newInputStream(path)))
+	{
+	    first = in.readInt();
+	}
+
+	/*files with the header end with a checksum*/
+	try (RestartReader reader = new RestartReader(path, first==MAGIC?size-8:size))
+	{
+	    DataInputStream in = reader.data();
+	    in.readInt();
+	    List<Material> mat_list = Starfish.getMaterialsList();
+	    List<Mesh> mesh_list = Starfish.getMeshList();
+
+	    if (first!=MAGIC)
+	    {
+		/*older files start with the time step and the number of materials*/
+		Starfish.time_module.setIt(first);
+		if (in.readInt() != mat_list.size())
+		    Log.error("Incompatible restart file");
+
+		/*mesh layout is not stored, assume it did not change*/
+		reader.file_ni = new int[mesh_list.size()];
+		reader.file_nj = new int[mesh_list.size()];
+		for (int m=0;m<mesh_list.size();m++)
+		{
+		    reader.file_ni[m] = mesh_list.get(m).ni;
+		    reader.file_nj[m] = mesh_list.get(m).nj;
+		}
+	    }
+	    else
+	    {
+		if (in.readInt()!=VERSION)
+		    Log.error("Unsupported restart file version in "+path);
+		Starfish.time_module.setIt(in.readInt());
+		checkHeader(reader, path);
+	    }
+
+	    for (Material mat:mat_list)
+	    {
+		mat.loadRestartData(reader);
+	    }
 	}
-	
-	in.close();
     }
 
-    /*system checksum*/
-    int getCheckSum()
+    /** reads the stored mesh layout and checks that the materials match the current
+     * simulation, particles are relocated if the meshes changed*/
+    void checkHeader(RestartReader reader, Path path) throws IOException
     {
-	/*TODO: implement a more rigorous checksum*/
-	return Starfish.getMaterialsList().size();
-    }	
+	DataInputStream in = reader.data();
+	List<Mesh> mesh_list = Starfish.getMeshList();
+	int num_meshes = in.readInt();
+	reader.file_ni = new int[num_meshes];
+	reader.file_nj = new int[num_meshes];
+	reader.mesh_match = num_meshes==mesh_list.size();
+	for (int m=0;m<num_meshes;m++)
+	{
+	    reader.file_ni[m] = in.readInt();
+	    reader.file_nj[m] = in.readInt();
+	    if (reader.mesh_match)
+		reader.mesh_match = reader.file_ni[m]==mesh_list.get(m).ni && reader.file_nj[m]==mesh_list.get(m).nj;
+	}
+	if (!reader.mesh_match)
+	    Log.warning("Mesh layout in "+path+" differs from the simulation, particles will be relocated");
+
+	List<Material> mat_list = Starfish.getMaterialsList();
+	boolean ok = in.readInt()==mat_list.size();
+	for (int m=0;ok && m<mat_list.size();m++)
+	    ok = in.readUTF().equals(mat_list.get(m).getName());
+	if (!ok)
+	    Log.error("Incompatible restart file "+path+", materials changed");
+    }
 }
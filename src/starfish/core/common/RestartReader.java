@@ -0,0 +1,117 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.common;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory-mapped restart file. Header and field data are read sequentially through
+ * data(), large particle sections can be mapped directly with map() and decoded in
+ * parallel, after which the read position is advanced with skip().
+ *
+ * Also holds the mesh layout stored in the file so that materials can detect
+ * that the mesh changed since the file was written.
+ */
+public final class RestartReader extends InputStream {
+	static final int WINDOW_SIZE = 1 << 28; /* sequential reads map 256 MB at a time */
+
+	final FileChannel channel;
+	final long size; /* end of the data, excludes the checksum */
+	long pos;
+
+	MappedByteBuffer window;
+	long window_start;
+
+	final DataInputStream data;
+
+	/** mesh sizes stored in the file, one entry per mesh */
+	public int file_ni[];
+	public int file_nj[];
+
+	/** true if the stored mesh layout matches the current simulation */
+	public boolean mesh_match = true;
+
+	/**
+	 * @param path restart file
+	 * @param size number of bytes to read, excluding any trailer
+	 */
+	RestartReader(Path path, long size) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.size = size;
+		data = new DataInputStream(this);
+	}
+
+	/** @return stream for reading primitives at the current position */
+	public DataInputStream data() {
+		return data;
+	}
+
+	/** @return current read position */
+	public long position() {
+		return pos;
+	}
+
+	/**
+	 * maps a section of the file, does not change the read position
+	 * @param offset start of the section
+	 * @param length length of the section, at most Integer.MAX_VALUE
+	 */
+	public ByteBuffer map(long offset, long length) throws IOException {
+		if (offset + length > size)
+			throw new IOException("Unexpected end of restart file");
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		if (pos + n > size)
+			throw new IOException("Unexpected end of restart file");
+		pos += n;
+		return n;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (pos >= size)
+			return -1;
+		setWindow();
+		return window.get((int) (pos++ - window_start)) & 0xff;
+	}
+
+	@Override
+	public int read(byte b[], int off, int len) throws IOException {
+		if (pos >= size)
+			return -1;
+		setWindow();
+		int n = (int) Math.min(len, window_start + window.capacity() - pos);
+		window.position((int) (pos - window_start));
+		window.get(b, off, n);
+		pos += n;
+		return n;
+	}
+
+	/** maps the window containing pos */
+	private void setWindow() throws IOException {
+		if (window != null && pos >= window_start && pos < window_start + window.capacity())
+			return;
+		window_start = pos;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW_SIZE, size - pos));
+	}
+
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+}
@@ -52,6 +52,7 @@ import starfish.core.io.LoggerModule;
 import starfish.core.io.LoggerModule.Level;
 import starfish.core.io.NoteModule;
 import starfish.core.io.OutputModule;
+import starfish.core.io.OutputQueue;
 import starfish.core.io.SetFieldModule;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.Material;
@@ -234,15 +235,14 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 		modules.put(name, module);
 	}
 
-	/* random number generator */
-	static Random random = new Random(0);
+	/* random number generator, see RandomStreams for the per-thread streams */
 
 	/**
 	 *
 	 * @return random value in [0,1)
 	 */
 	static public double rnd() {
-		return random.nextDouble();
+		return RandomStreams.get().nextDouble();
 	} // [0,1)
 
 	/**
@@ -251,7 +251,7 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	 * No idea if this is actually the correct way of doing this
 	 */
 	static public double rndInc() {
-		double val = 1.0000001*random.nextDouble();
+		double val = 1.0000001*RandomStreams.get().nextDouble();
 		if (val>1.0) val=1.0;
 		return val;		
 	} // [0,1)
@@ -274,7 +274,7 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	 * @return random value in [-1,1)
 	 */
 	static public double rnd2() {
-		return -1.0 + 2 * random.nextDouble();
+		return -1.0 + 2 * RandomStreams.get().nextDouble();
 	} // [-1,1)
 
 	/**
@@ -291,7 +291,7 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	
 	//returns integer in [0,max)
 	static public int rndi(int max) {
-		return random.nextInt(max);
+		return RandomStreams.get().nextInt(max);
 	}
 
 	/* code version */
@@ -644,8 +644,10 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 	@Override
 	public void process(Element element) {
 		/* check for parameters */
+		long seed = InputParser.getInt("seed", element, 0);
 		if (InputParser.getBoolean("randomize", element, options.randomize))
-			random = new Random(); /* without the seed, will randomize */
+			seed = System.nanoTime(); /* without the seed, will randomize */
+		RandomStreams.reset(seed);
 
 		/* read number of processors */
 		options.max_cores = InputParser.getInt("max_cores", element, options.max_cores);
@@ -653,6 +655,8 @@ public final class Starfish extends CommandModule implements UncaughtExceptionHa
 		StartModules();
 		MainLoop();
 		FinishModules();
+		OutputQueue.drain(); /* complete pending output before returning */
+		WorkerPool.shutdown();
 		status = SimStatus.READY;
 	}
 
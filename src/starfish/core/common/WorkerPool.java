@@ -0,0 +1,136 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import starfish.core.common.Starfish.Log;
+
+/**
+ * Long-lived work-stealing thread pool shared by the particle movers, sources,
+ * interactions, and solvers. The pool is sized from Starfish.getNumProcessors()
+ * and is created on first use, so that individual time steps only submit tasks
+ * instead of creating and joining new threads.
+ */
+public final class WorkerPool {
+
+	private static ForkJoinPool pool;
+
+	private WorkerPool() {}
+
+	/** work performed on the index range [i_min, i_max) */
+	public interface RangeTask {
+		/**
+		 * @param chunk chunk index, depends only on the range size and number of
+		 *              threads so it can be used to key per-chunk data
+		 * @param i_min first index
+		 * @param i_max one past the last index
+		 */
+		void run(int chunk, int i_min, int i_max);
+	}
+
+	/** @return the shared pool, creating it if needed */
+	public static synchronized ForkJoinPool get() {
+		if (pool == null || pool.isShutdown()) {
+			int np = numThreads();
+			pool = new ForkJoinPool(np);
+			Log.log("Started worker pool with " + np + " threads");
+		}
+		return pool;
+	}
+
+	/** @return number of worker threads */
+	public static int numThreads() {
+		int np = (Starfish.options != null) ? Starfish.getNumProcessors() : 1;
+		return np < 1 ? 1 : np;
+	}
+
+	/** stops the worker threads, a new pool is created on next use */
+	public static synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * runs all jobs on the pool and waits for them to finish. Exceptions thrown by
+	 * the jobs are rethrown in the calling thread.
+	 * @param jobs jobs to run
+	 */
+	public static void invokeAll(List<? extends Runnable> jobs) {
+		if (jobs.isEmpty())
+			return;
+
+		/* run single job directly */
+		if (jobs.size() == 1) {
+			jobs.get(0).run();
+			return;
+		}
+
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(jobs.size());
+		for (Runnable job : jobs)
+			tasks.add(ForkJoinTask.adapt(job));
+
+		/* nested calls from a worker thread can fork directly */
+		if (ForkJoinTask.inForkJoinPool()) {
+			ForkJoinTask.invokeAll(tasks);
+			return;
+		}
+
+		get().invoke(new RecursiveAction() {
+			@Override
+			protected void compute() {
+				ForkJoinTask.invokeAll(tasks);
+			}
+		});
+	}
+
+	/**
+	 * splits [0,n) into contiguous chunks and runs them on the pool
+	 * @param n         number of items
+	 * @param min_chunk smallest chunk worth a separate task
+	 * @param task      work to perform on each chunk
+	 * @return number of chunks used
+	 */
+	public static int parallelFor(int n, int min_chunk, RangeTask task) {
+		int num_chunks = numChunks(n, min_chunk);
+		if (num_chunks == 0)
+			return 0;
+
+		if (num_chunks == 1) {
+			task.run(0, 0, n);
+			return 1;
+		}
+
+		List<Runnable> jobs = new ArrayList<>(num_chunks);
+		for (int c = 0; c < num_chunks; c++) {
+			final int chunk = c;
+			final int i_min = (int) ((long) n * c / num_chunks);
+			final int i_max = (int) ((long) n * (c + 1) / num_chunks);
+			jobs.add(() -> task.run(chunk, i_min, i_max));
+		}
+		invokeAll(jobs);
+		return num_chunks;
+	}
+
+	/**
+	 * @return number of chunks parallelFor will use for n items, a few chunks per
+	 *         thread are used to let the pool balance uneven work
+	 */
+	public static int numChunks(int n, int min_chunk) {
+		if (n <= 0)
+			return 0;
+		if (min_chunk < 1)
+			min_chunk = 1;
+		int num_chunks = Math.min(4 * numThreads(), (n + min_chunk - 1) / min_chunk);
+		return Math.max(num_chunks, 1);
+	}
+}
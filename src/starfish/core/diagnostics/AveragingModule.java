@@ -12,9 +12,11 @@ import org.w3c.dom.Element;
 import starfish.core.common.CommandModule;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
+import starfish.core.common.WorkerPool;
 import starfish.core.diagnostics.DiagnosticsModule.Diagnostic;
 import starfish.core.domain.Field2D;
 import starfish.core.domain.FieldCollection2D;
+import starfish.core.domain.FieldManager2D;
 import starfish.core.domain.Mesh;
 import starfish.core.io.InputParser;
 
@@ -31,21 +33,25 @@ public class AveragingModule extends CommandModule
 	int counter=0;
 	int last_save=-1;
 	String var_list[];
+	boolean statistics;	/*also keep variance, min, and max*/
 		
 	ArrayList<FCPair> fc_list = new ArrayList<FCPair>();
 
-	
-
 	@Override
 	public void exit()
 	{
-	    throw new UnsupportedOperationException("Not supported yet."); //To change body of generated methods, choose Tools | Templates.
+	    /*nothing to do*/
 	}
+	
 	class FCPair
 	{
 	    String var_name;
 	    FieldCollection2D inst;
 	    FieldCollection2D ave;
+	    FieldCollection2D m2;	/*sum of squared differences from the mean, Welford's algorithm*/
+	    FieldCollection2D var;	/*sample variance*/
+	    FieldCollection2D min;
+	    FieldCollection2D max;
 	    FCPair(String var_name, FieldCollection2D inst, FieldCollection2D ave) 
 	    {this.var_name=var_name;this.inst=inst;this.ave=ave;}
 	}
@@ -55,11 +61,14 @@ public class AveragingModule extends CommandModule
 	    frequency = InputParser.getInt("frequency", element,1);
 	    start_it = InputParser.getInt("start_it", element,-1);	
 	    var_list = InputParser.getList("variables", element);
+	    statistics = InputParser.getBoolean("statistics", element, false);
 	
 	    for (String var : var_list)
 	    {
 		Log.log(" Added: " + var);
 	    }
+	    if (statistics)
+		Log.log(" Collecting variance, min, and max");
 	}
 	/**
 	*
@@ -100,19 +109,45 @@ public class AveragingModule extends CommandModule
 		continue;
 	    }
 
-	    FieldCollection2D fc_ave = new FieldCollection2D(fc_inst);
-
 	    /*set variable name*/
 	    String pieces[] = var.split("\\.");
+	    
+	    /*statistics are added next to the sampled variable so they can be used in outputs*/
+	    FieldManager2D manager = (pieces.length>1)?Starfish.getMaterial(pieces[1]).getFieldManager2d():
+				     Starfish.domain_module.getFieldManager();
+	    
+	    FieldCollection2D fc_ave = addField(manager, pieces[0], "ave", fc_inst);
 	    var = pieces[0]+"-ave";
 	    if (pieces.length>1) 
 		var+="."+pieces[1];
+	    
+	    FCPair pair = new FCPair(var, fc_inst, fc_ave);
+	    if (statistics)
+	    {
+		pair.m2 = new FieldCollection2D(fc_inst.getMeshes(), null);
+		pair.var = addField(manager, pieces[0], "var", fc_inst);
+		pair.min = addField(manager, pieces[0], "min", fc_inst);
+		pair.max = addField(manager, pieces[0], "max", fc_inst);
+	    }
 
 	    /*add to list*/
-	    fc_list.add(new FCPair(var,fc_inst,fc_ave));
+	    fc_list.add(pair);
 	}
     }
     
+    /**@return new collection for the statistic of the variable base, registered as base-stat
+     * unless the manager already has a field with this name*/
+    FieldCollection2D addField(FieldManager2D manager, String base, String stat, FieldCollection2D fc_inst)
+    {
+	String name = base+"-"+stat;
+	if (manager.hasField(name.toLowerCase()))
+	    return new FieldCollection2D(fc_inst.getMeshes(), null);
+	
+	String unit = manager.getUnits(base.toLowerCase());
+	if (unit!=null && stat.equals("var")) unit = "("+unit+")^2";
+	return manager.add(name, unit, null);
+    }
+    
     /**adds a new sample to the averaging
      @param force_sampling set to true force sampling even if not yet in steady state*/
     public void sample(boolean force) 
@@ -134,32 +169,62 @@ public class AveragingModule extends CommandModule
 	
 	if ((it-last_save)%frequency==0)
 	{
-	    for (FCPair pair:fc_list)
+	    /*split each mesh into tiles of rows, all variables are updated in the same pass*/
+	    ArrayList<Runnable> jobs = new ArrayList<>();
+	    for (Mesh mesh:Starfish.getMeshList())
 	    {
-		/*iterate over meshes*/
-		FieldCollection2D fc_inst = pair.inst;
-		FieldCollection2D fc_ave = pair.ave;
-	    			
-		for (Mesh mesh:Starfish.getMeshList())
-		    {
-			/*save average data*/
-			double ave[][] = fc_ave.getField(mesh).getData();
-			double inst[][] = fc_inst.getField(mesh).getData();
-			for (int i=0;i<mesh.ni;i++)
-			    for (int j=0;j<mesh.nj;j++)
-				ave[i][j] = (inst[i][j] + counter*ave[i][j])/(counter+1);
-		    }
+		int num_tiles = WorkerPool.numChunks(mesh.ni, 8);
+		for (int t=0;t<num_tiles;t++)
+		{
+		    final int i_min = (int)((long)mesh.ni*t/num_tiles);
+		    final int i_max = (int)((long)mesh.ni*(t+1)/num_tiles);
+		    jobs.add(()->sampleTile(mesh, i_min, i_max));
 		}
+	    }
+	    WorkerPool.invokeAll(jobs);
 		
-		Log.debug(String.format("Performed averaging at it=%d with counter=%d\n",Starfish.getIt(),counter));
-		counter++;
-		last_save = it;
-	    } /*if saving*/
-	}		
+	    Log.debug(String.format("Performed averaging at it=%d with counter=%d\n",Starfish.getIt(),counter));
+	    counter++;
+	    last_save = it;
+	} /*if saving*/
+    }
+    
+    /**adds the sample to rows [i_min,i_max) of the mesh*/
+    void sampleTile(Mesh mesh, int i_min, int i_max)
+    {
+	double n = counter+1;
+	for (FCPair pair:fc_list)
+	{
+	    double ave[][] = pair.ave.getField(mesh).getData();
+	    double inst[][] = pair.inst.getField(mesh).getData();
+	    
+	    if (!statistics)
+	    {
+		for (int i=i_min;i<i_max;i++)
+		    for (int j=0;j<mesh.nj;j++)
+			ave[i][j] += (inst[i][j] - ave[i][j])/n;
+		continue;
+	    }
+	    
+	    double m2[][] = pair.m2.getField(mesh).getData();
+	    double var[][] = pair.var.getField(mesh).getData();
+	    double min[][] = pair.min.getField(mesh).getData();
+	    double max[][] = pair.max.getField(mesh).getData();
+	    for (int i=i_min;i<i_max;i++)
+		for (int j=0;j<mesh.nj;j++)
+		{
+		    double x = inst[i][j];
+		    double delta = x - ave[i][j];
+		    ave[i][j] += delta/n;
+		    m2[i][j] += delta*(x - ave[i][j]);
+		    var[i][j] = (n>1)?m2[i][j]/(n-1):0;
+		    if (counter==0 || x<min[i][j]) min[i][j] = x;
+		    if (counter==0 || x>max[i][j]) max[i][j] = x;
+		}
+	}
+    }
     }	
 	
- 
-	
     @Override
     public void process(Element element) 
     {
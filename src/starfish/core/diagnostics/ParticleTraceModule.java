@@ -20,6 +20,7 @@ import starfish.core.io.Writer;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
+import starfish.core.materials.TagSet;
 
 /** Particle trace command, launched by particle_trace */
 public class ParticleTraceModule extends CommandModule {
@@ -70,6 +71,8 @@ public class ParticleTraceModule extends CommandModule {
 		Writer writer;
 		
 		ParticleTrace traces[];
+		TagSet tags;	// ids of the traced particles
+		Particle found[];	// particles located on the last sample
 		
 		int n_unsaved = 0;
 		
@@ -108,6 +111,8 @@ public class ParticleTraceModule extends CommandModule {
 			for (int i=0;i<ids.length;i++) {
 				traces[i] = new ParticleTrace(ids[i]);
 			}
+			tags = km.createTagSet(ids);
+			found = new Particle[ids.length];
 			
 			start_ts = InputParser.getInt("start_it", element, 0);
 			end_ts = InputParser.getInt("start_it", element, 0);
@@ -136,9 +141,11 @@ public class ParticleTraceModule extends CommandModule {
 			
 			int ts = Starfish.getIt();
 			if (force || ts>=start_ts && (end_ts<=0 || end_ts>ts) && (ts-start_ts)%skip_ts==0) {
-				for (ParticleTrace trace:traces) {
+				km.getParticles(tags, found);
+				for (int i=0;i<traces.length;i++) {
+					ParticleTrace trace = traces[i];
 					if (trace.active) {
-						Particle part = km.getParticle(trace.id);
+						Particle part = found[i];
 						if (part!=null)
 							trace.addParticle(part);
 						else if (trace.samples.size()>0)  // deactivate if already got data 
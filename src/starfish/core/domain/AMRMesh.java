@@ -104,10 +104,11 @@ public class AMRMesh extends Mesh
     }
     
    @Override 
-   public void update() {
-	   if (max_it>0 && Starfish.getIt()>max_it) return;
-	   if (Starfish.getIt()%skip!=0) return;
+   public boolean update() {
+	   if (max_it>0 && Starfish.getIt()>max_it) return false;
+	   if (Starfish.getIt()%skip!=0) return false;
 	   // TODO: implement   
+	   return false;
    }
    
    /** Creates the initial cartesian mesh*/
@@ -191,7 +192,7 @@ public class AMRMesh extends Mesh
 
     		pw.println("<VTKFile type=\"UnstructuredGrid\"" + endianess + ">");
 			pw.printf("<UnstructuredGrid>\n");
-			VTKWriter.writeFieldData(pw);
+			writer.writeFieldData(pw);
 
 			pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", nodes.size(), cells.size());
 		
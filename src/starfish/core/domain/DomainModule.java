@@ -33,6 +33,9 @@ public class DomainModule extends CommandModule {
 
 	protected FieldManager2D field_manager;
 
+	/* bin grid for point location, built once the meshes are set up */
+	MeshIndex mesh_index;
+
 	/**
 	 * returns mesh list and also performs intersection on first cal
 	 * 
@@ -95,6 +98,7 @@ public class DomainModule extends CommandModule {
 	 */
 	public void addMesh(Mesh mesh) {
 		mesh_list.add(mesh);
+		mesh_index = null;
 	}
 
 	/**
@@ -104,6 +108,9 @@ public class DomainModule extends CommandModule {
 	 * @return
 	 */
 	public Mesh getMesh(double x[]) {
+		if (mesh_index != null)
+			return mesh_index.getMesh(x);
+
 		for (Mesh mesh : mesh_list)
 			if (mesh.containsPosStrict(x))
 				return mesh;
@@ -120,9 +127,12 @@ public class DomainModule extends CommandModule {
 	 * hook to update domain definition, mostly used by AMR
 	 */
 	public void updateDomains() {
+		boolean changed = false;
 		for (Mesh mesh:mesh_list)
-			mesh.update();
-		
+			changed |= mesh.update();
+
+		if (changed)
+			mesh_index = new MeshIndex(mesh_list);
 	}
 	/**
 	 * returns the first mesh with the given name
@@ -256,6 +266,7 @@ public class DomainModule extends CommandModule {
 		 */
 
 		updateBCvalues();
+		mesh_index = new MeshIndex(mesh_list);
 
 		has_started = true;
 	}
@@ -9,6 +9,7 @@ package starfish.core.domain;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
 import starfish.core.boundaries.Boundary;
 import starfish.core.boundaries.Boundary.BoundaryType;
 import starfish.core.boundaries.Segment;
@@ -74,7 +75,9 @@ public abstract class Mesh {
 			setMeshNeighbors();
 	}
 
-	public void update() { /* do nothing */ }
+	/** hook for meshes that change during the simulation
+	 * @return true if the mesh geometry changed */
+	public boolean update() { return false; }
 	
 
 	/** returns extension with the leading dot for this mesh type*/
@@ -305,6 +308,82 @@ public abstract class Mesh {
 		return boundary_data[face.val()][index];
 	}
 
+	/**
+	 * Absorbing (Dirichlet and sink) segments near each node, flattened from the node
+	 * segment lists so that particle surface hit checks do not need to filter the lists
+	 * or collect them into sets. Each segment also has a unique index in segments[]
+	 * which lets callers skip segments already tested for a neighbor node.
+	 */
+	public static final class WallSegmentIndex {
+		public final Segment segments[]; /* unique wall segments */
+		final int node_ptr[]; /* node n=i*nj+j uses node_seg[node_ptr[n]..node_ptr[n+1]-1] */
+		final int node_seg[]; /* indexes into segments */
+		final int nj;
+
+		WallSegmentIndex(Mesh mesh) {
+			nj = mesh.nj;
+			node_ptr = new int[mesh.ni * mesh.nj + 1];
+			ArrayList<Segment> unique = new ArrayList<>();
+			HashMap<Segment, Integer> ids = new HashMap<>();
+			ArrayList<Integer> list = new ArrayList<>();
+
+			for (int i = 0; i < mesh.ni; i++)
+				for (int j = 0; j < mesh.nj; j++) {
+					ArrayList<Segment> segments = mesh.node[i][j].segments;
+					if (segments != null)
+						for (Segment seg : segments) {
+							// virtual segments skipped since 9/2019, cause particle leaks
+							if (seg.getBoundaryType() != BoundaryType.DIRICHLET
+									&& seg.getBoundaryType() != BoundaryType.SINK)
+								continue;
+							Integer id = ids.get(seg);
+							if (id == null) {
+								id = unique.size();
+								ids.put(seg, id);
+								unique.add(seg);
+							}
+							list.add(id);
+						}
+					node_ptr[i * nj + j + 1] = list.size();
+				}
+
+			segments = unique.toArray(new Segment[unique.size()]);
+			node_seg = new int[list.size()];
+			for (int k = 0; k < node_seg.length; k++)
+				node_seg[k] = list.get(k);
+		}
+
+		/** @return index of the first entry for node i,j */
+		public int first(int i, int j) {
+			return node_ptr[i * nj + j];
+		}
+
+		/** @return index one past the last entry for node i,j */
+		public int last(int i, int j) {
+			return node_ptr[i * nj + j + 1];
+		}
+
+		/** @return unique index of entry k, in segments[] */
+		public int id(int k) {
+			return node_seg[k];
+		}
+	}
+
+	private volatile WallSegmentIndex wall_index;
+
+	/** @return wall segments per node, built on first use after the boundaries are set */
+	public WallSegmentIndex getWallSegmentIndex() {
+		WallSegmentIndex index = wall_index;
+		if (index == null) {
+			synchronized (this) {
+				if (wall_index == null)
+					wall_index = new WallSegmentIndex(this);
+				index = wall_index;
+			}
+		}
+		return index;
+	}
+
 	/**
 	 *
 	 * @param i
@@ -852,6 +931,22 @@ public abstract class Mesh {
 		return XtoL(x[0], x[1]);
 	}
 
+	/**
+	 * Returns logical coordinate of point x in an existing array
+	 *
+	 * @param x  physical coordinate
+	 * @param lc previous logical coordinate of the point, used by curvilinear
+	 *           meshes as the starting cell of the search, overwritten with the
+	 *           logical coordinate of x
+	 * @return lc
+	 */
+	public double[] XtoL(double x[], double lc[]) {
+		double l[] = XtoL(x[0], x[1]);
+		lc[0] = l[0];
+		lc[1] = l[1];
+		return lc;
+	}
+
 	/* returns integral logical coordinate at spatial location d1,d2 */
 
 	/**
@@ -1203,6 +1298,7 @@ public abstract class Mesh {
 	 */
 	public void setBoundaries(ArrayList<Boundary> boundary_list) {
 		if (!boundary_list.isEmpty()) {
+			wall_index = null;
 			setNodeControlVolumes(boundary_list);
 			setInterfaceNodeLocation();
 			performFloodFill();
@@ -0,0 +1,160 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.domain;
+
+import java.util.List;
+
+/**
+ * Uniform bin grid over the mesh bounding boxes used to locate the mesh containing
+ * a point. Each bin lists, in mesh list order, the meshes whose bounding box overlaps
+ * the bin, so a lookup only calls containsPos on a few candidates and returns the same
+ * mesh as a scan over the whole mesh list.
+ */
+final class MeshIndex {
+	static final int MAX_BINS = 256; /* per dimension */
+	static final double BOX_MARGIN = 1e-6; /* relative bounding box padding */
+
+	final Mesh meshes[];
+	final double box[][]; /* [mesh][xmin, ymin, xmax, ymax] */
+
+	final double x0[] = new double[2];
+	final double dx[] = new double[2];
+	final int nb[] = new int[2];
+
+	/* bin b covers candidates[bin_start[b]:bin_start[b+1]] */
+	final int bin_start[];
+	final int candidates[];
+
+	MeshIndex(List<Mesh> mesh_list) {
+		meshes = mesh_list.toArray(new Mesh[0]);
+		box = new double[meshes.length][];
+
+		double lo[] = { Double.MAX_VALUE, Double.MAX_VALUE };
+		double hi[] = { -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int m = 0; m < meshes.length; m++) {
+			box[m] = boundingBox(meshes[m]);
+			for (int d = 0; d < 2; d++) {
+				lo[d] = Math.min(lo[d], box[m][d]);
+				hi[d] = Math.max(hi[d], box[m][d + 2]);
+			}
+		}
+
+		/* about four bins per mesh in each direction */
+		int n = Math.min(MAX_BINS, (int) Math.ceil(4 * Math.sqrt(meshes.length)));
+		for (int d = 0; d < 2; d++) {
+			nb[d] = Math.max(n, 1);
+			x0[d] = lo[d];
+			dx[d] = Math.max(hi[d] - lo[d], Double.MIN_NORMAL) / nb[d];
+		}
+
+		/* count, then fill the candidate lists */
+		int num_bins = nb[0] * nb[1];
+		bin_start = new int[num_bins + 1];
+		for (int m = 0; m < meshes.length; m++)
+			forEachBin(m, b -> bin_start[b + 1]++);
+		for (int b = 0; b < num_bins; b++)
+			bin_start[b + 1] += bin_start[b];
+
+		candidates = new int[bin_start[num_bins]];
+		int fill[] = new int[num_bins];
+		for (int m = 0; m < meshes.length; m++) {
+			final int mesh_index = m;
+			forEachBin(m, b -> candidates[bin_start[b] + fill[b]++] = mesh_index);
+		}
+	}
+
+	/**
+	 * @param x position
+	 * @return the first mesh strictly containing x, or the first one containing x on
+	 *         its boundary, or null
+	 */
+	Mesh getMesh(double x[]) {
+		int b = bin(x);
+		if (b < 0)
+			return null;
+
+		for (int c = bin_start[b]; c < bin_start[b + 1]; c++) {
+			int m = candidates[c];
+			if (inBox(m, x) && meshes[m].containsPosStrict(x))
+				return meshes[m];
+		}
+
+		/* check for particle being on the boundary */
+		for (int c = bin_start[b]; c < bin_start[b + 1]; c++) {
+			int m = candidates[c];
+			if (inBox(m, x) && meshes[m].containsPos(x))
+				return meshes[m];
+		}
+		return null;
+	}
+
+	/** @return bin containing x or -1 if outside of all meshes */
+	private int bin(double x[]) {
+		double fi = (x[0] - x0[0]) / dx[0];
+		double fj = (x[1] - x0[1]) / dx[1];
+		if (!(fi >= 0 && fj >= 0 && fi <= nb[0] && fj <= nb[1]))
+			return -1;
+		int i = Math.min((int) fi, nb[0] - 1);
+		int j = Math.min((int) fj, nb[1] - 1);
+		return j * nb[0] + i;
+	}
+
+	private boolean inBox(int m, double x[]) {
+		double b[] = box[m];
+		return x[0] >= b[0] && x[1] >= b[1] && x[0] <= b[2] && x[1] <= b[3];
+	}
+
+	private interface BinVisitor {
+		void visit(int b);
+	}
+
+	/** calls visitor for all bins overlapped by the bounding box of mesh m */
+	private void forEachBin(int m, BinVisitor visitor) {
+		double b[] = box[m];
+		int i1 = clamp((b[0] - x0[0]) / dx[0], nb[0]);
+		int j1 = clamp((b[1] - x0[1]) / dx[1], nb[1]);
+		int i2 = clamp((b[2] - x0[0]) / dx[0], nb[0]);
+		int j2 = clamp((b[3] - x0[1]) / dx[1], nb[1]);
+		for (int j = j1; j <= j2; j++)
+			for (int i = i1; i <= i2; i++)
+				visitor.visit(j * nb[0] + i);
+	}
+
+	private static int clamp(double f, int n) {
+		return Math.max(0, Math.min((int) f, n - 1));
+	}
+
+	/**
+	 * bounding box of the boundary nodes, cells have straight edges so this encloses
+	 * the whole mesh. Padded to cover the tolerance used by containsPos.
+	 */
+	static double[] boundingBox(Mesh mesh) {
+		double b[] = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		for (int i = 0; i < mesh.ni; i++) {
+			expand(b, mesh.pos(i, 0));
+			expand(b, mesh.pos(i, mesh.nj - 1));
+		}
+		for (int j = 0; j < mesh.nj; j++) {
+			expand(b, mesh.pos(0, j));
+			expand(b, mesh.pos(mesh.ni - 1, j));
+		}
+
+		double pad = BOX_MARGIN * Math.max(b[2] - b[0], b[3] - b[1]);
+		b[0] -= pad;
+		b[1] -= pad;
+		b[2] += pad;
+		b[3] += pad;
+		return b;
+	}
+
+	private static void expand(double b[], double x[]) {
+		b[0] = Math.min(b[0], x[0]);
+		b[1] = Math.min(b[1], x[1]);
+		b[2] = Math.max(b[2], x[0]);
+		b[3] = Math.max(b[3], x[1]);
+	}
+}
@@ -12,7 +12,6 @@
 package starfish.core.domain;
 import java.io.PrintWriter;
 
-import starfish.core.common.Starfish.Log;
 import starfish.core.domain.DomainModule.DomainType;
 import starfish.core.io.VTKWriter;
 
@@ -103,6 +102,8 @@ public class QuadrilateralMesh extends Mesh
 		for (int i=0;i<ni-1-0;i++)
 		    for (int j=0;j<nj-1-0;j++)
 			ComputeCoeffs(i,j);
+
+		buildCellBins();
     }
     
     /**computes alphas and betas for interpolation, see
@@ -166,10 +167,85 @@ public class QuadrilateralMesh extends Mesh
 		return x;
     }
 
-    /** array of visited notes for recursive flood fill
-     */
-    protected boolean visited[][];
-			
+    /*bin grid over cell bounding boxes, bin b lists cells
+     *cell_list[bin_start[b]:bin_start[b+1]] as i*(nj-1)+j*/
+    double bin_x0[] = new double[2];
+    double bin_dx[] = new double[2];
+    int nbins[] = new int[2];
+    int bin_start[];
+    int cell_list[];
+
+    /*maximum number of cells visited by the walk before using the bin grid*/
+    static final int MAX_WALK = 16;
+
+    /**builds the bin grid used to locate cells, about one bin per cell*/
+    protected final void buildCellBins()
+    {
+		int nc = (ni-1)*(nj-1);
+		double box[] = new double[4*nc];
+		double lo[] = {Double.MAX_VALUE,Double.MAX_VALUE};
+		double hi[] = {-Double.MAX_VALUE,-Double.MAX_VALUE};
+		for (int i=0;i<ni-1;i++)
+		    for (int j=0;j<nj-1;j++)
+		    {
+			int c = 4*(i*(nj-1)+j);
+			box[c] = Math.min(Math.min(IPOS[i][j],IPOS[i+1][j]),Math.min(IPOS[i+1][j+1],IPOS[i][j+1]));
+			box[c+1] = Math.min(Math.min(JPOS[i][j],JPOS[i+1][j]),Math.min(JPOS[i+1][j+1],JPOS[i][j+1]));
+			box[c+2] = Math.max(Math.max(IPOS[i][j],IPOS[i+1][j]),Math.max(IPOS[i+1][j+1],IPOS[i][j+1]));
+			box[c+3] = Math.max(Math.max(JPOS[i][j],JPOS[i+1][j]),Math.max(JPOS[i+1][j+1],JPOS[i][j+1]));
+			lo[0] = Math.min(lo[0],box[c]); lo[1] = Math.min(lo[1],box[c+1]);
+			hi[0] = Math.max(hi[0],box[c+2]); hi[1] = Math.max(hi[1],box[c+3]);
+		    }
+
+		/*pad boxes by the tolerance of the point test*/
+		double pad = 1e-6*Math.max(hi[0]-lo[0],hi[1]-lo[1]) + 1e-7;
+		for (int c=0;c<nc;c++)
+		{
+		    box[4*c] -= pad; box[4*c+1] -= pad;
+		    box[4*c+2] += pad; box[4*c+3] += pad;
+		}
+
+		nbins[0] = ni-1;
+		nbins[1] = nj-1;
+		for (int d=0;d<2;d++)
+		{
+		    bin_x0[d] = lo[d]-pad;
+		    bin_dx[d] = Math.max(hi[d]-lo[d]+2*pad,Double.MIN_NORMAL)/nbins[d];
+		}
+
+		/*count, then fill in cell order*/
+		bin_start = new int[nbins[0]*nbins[1]+1];
+		for (int pass=0;pass<2;pass++)
+		{
+		    int fill[] = (pass==1)?new int[nbins[0]*nbins[1]]:null;
+		    for (int c=0;c<nc;c++)
+		    {
+			int i1 = binIndex(box[4*c],0), i2 = binIndex(box[4*c+2],0);
+			int j1 = binIndex(box[4*c+1],1), j2 = binIndex(box[4*c+3],1);
+			for (int bj=j1;bj<=j2;bj++)
+			    for (int bi=i1;bi<=i2;bi++)
+			    {
+				int bin = bj*nbins[0]+bi;
+				if (pass==0) bin_start[bin+1]++;
+				else cell_list[bin_start[bin]+fill[bin]++] = c;
+			    }
+		    }
+		    if (pass==0)
+		    {
+			for (int bin=0;bin<nbins[0]*nbins[1];bin++)
+			    bin_start[bin+1] += bin_start[bin];
+			cell_list = new int[bin_start[nbins[0]*nbins[1]]];
+		    }
+		}
+    }
+
+    /*bin containing coordinate x in direction d, clamped to the grid*/
+    private int binIndex(double x, int d)
+    {
+		int b = (int)((x-bin_x0[d])/bin_dx[d]);
+		return Math.max(0,Math.min(b,nbins[d]-1));
+    }
+
     /**
      *
      * @param xi
@@ -179,67 +255,104 @@ public class QuadrilateralMesh extends Mesh
     @Override
     public double[] XtoL(double xi, double xj)
     {
-		int i = (int)(ni/2.0);
-		int j = (int)(nj/2.0);
-		return XtoL(xi,xj,i,j);
+		double lc[] = new double[2];
+		locate(xi,xj,-1,-1,lc);
+		return lc;
     }
-	
-    /**starts searching in specified cel
+
+    /**starts searching in specified cell
      * @param xi
-     * @param xjl
+     * @param xj
      * @param i
      * @param j
      * @return */
     public double[] XtoL(double xi, double xj, int i, int j)
     {
-		/*start searching in the center
-		* TODO: implement quads of bounding boxes*/
-		
-		/*allocated visited array*/
-		visited = new boolean[ni-1][nj-1];
-	
 		double lc[] = new double[2];
-		lc[0]=-1;
-		lc[1]=-1;
-			
-		/*start searching*/
-		XtoLrecursive(xi,xj,i,j,lc);
-			
-		/*TODO: Had to add this rigorous search since the code was
-		* not finding points along centerpole of CHT, fix */
-		/*do a rigorous search*/
-		
-		if (lc[0]<0)
+		locate(xi,xj,i,j,lc);
+		return lc;
+    }
+
+    /** starts the search in the cell given by lc, nothing is allocated
+     * @param x physical coordinate
+     * @param lc previous logical coordinate on input, logical coordinate of x on return
+     * @return lc */
+    @Override
+    public double[] XtoL(double x[], double lc[])
+    {
+		int i = -1, j = -1;
+		if (lc[0]>=0 && lc[1]>=0 && lc[0]<=ni-1 && lc[1]<=nj-1)
 		{
-		    for (i=0;i<ni-1;i++)
-			for (j=0;j<nj-1;j++)
-			    if (!visited[i][j])
-			    {
-				if (XtoLrecursive(xi,xj,i,j,lc))
-				    return lc;
-			    }
+		    i = Math.min((int)lc[0],ni-2);
+		    j = Math.min((int)lc[1],nj-2);
 		}
-		
+		locate(x[0],x[1],i,j,lc);
 		return lc;
     }
-	
 
-    /** recursively searches for cell containing (xi,xj)
-     * Note, algorithm still fails for some quads (matches lc for points outside the
-     * quad, added point test to make sure the l/m coordinates give the initial point
+    /** finds the cell containing (xi,xj) by walking from cell (i,j), or through
+     * the bin grid if the walk fails or no start cell is given. Uses no shared
+     * state so can be called concurrently.
+     * @param lc set to the logical coordinate, or (-1,-1) if not in the mesh
+     * @return true if found*/
+    protected boolean locate(double xi, double xj, int i, int j, double lc[])
+    {
+		/*walk towards the point, usually only a step or two from the previous cell*/
+		if (i>=0 && j>=0)
+		{
+		    for (int step=0;step<MAX_WALK;step++)
+		    {
+			if (cellLC(xi,xj,i,j,lc))
+			{
+			    lc[0]+=i;
+			    lc[1]+=j;
+			    return true;
+			}
+
+			double l=lc[0], m=lc[1];
+			int i2=i, j2=j;
+			if (m<0 && j>0) j2--;
+			else if (m>1.0 && j<nj-2) j2++;
+			else if (l<0 && i>0) i2--;
+			else if (l>1.0 && i<ni-2) i2++;
+			if (i2==i && j2==j) break;	/*at the mesh edge or lc not usable*/
+			i=i2; j=j2;
+		    }
+		}
+
+		/*test cells whose bounding box overlaps the bin*/
+		double fi = (xi-bin_x0[0])/bin_dx[0];
+		double fj = (xj-bin_x0[1])/bin_dx[1];
+		if (fi>=0 && fj>=0 && fi<=nbins[0] && fj<=nbins[1])
+		{
+		    int bin = binIndex(xj,1)*nbins[0]+binIndex(xi,0);
+		    for (int k=bin_start[bin];k<bin_start[bin+1];k++)
+		    {
+			int c = cell_list[k];
+			int ci = c/(nj-1), cj = c%(nj-1);
+			if (cellLC(xi,xj,ci,cj,lc))
+			{
+			    lc[0]+=ci;
+			    lc[1]+=cj;
+			    return true;
+			}
+		    }
+		}
+
+		lc[0]=-1;
+		lc[1]=-1;
+		return false;
+    }
+
+    /** computes the cell-local coordinates (l,m) of (xi,xj) in cell (i,j)
+     * by inverting the bilinear map. The point test guards against roots
+     * that match points outside the quad.
      *
-     * @param xi
-     * @param xj
-     * @param i
-     * @param j
-     * @param lc
-     * @return
+     * @param lm set to (l,m), only meaningful as a search direction if not inside
+     * @return true if the point is in the cell
      */
-
-    protected boolean XtoLrecursive(double xi, double xj, int i, int j, double lc[])
+    protected boolean cellLC(double xi, double xj, int i, int j, double lm[])
     {
-		visited[i][j] = true;
-			
 		double a[] = alpha[i][j];
 		double b[] = beta[i][j];
 			
@@ -254,9 +367,8 @@ public class QuadrilateralMesh extends Mesh
 		double det = bb*bb - 4*aa*cc;
 		if (det<0 && det>-1e-7) det=0;
 			
-		/*this should never happen*/
-		if (det<0)
-		    Log.error("QuadrilateralMesh: Det < TOL, "+det);
+		/*no real root, the point is not in this cell*/
+		if (det<0) {lm[0]=Double.NaN; lm[1]=Double.NaN; return false;}
 		    
 		double m;
 		/*zero aa means we have orthogonal mesh and a linear equation to solve*/
@@ -265,18 +377,6 @@ public class QuadrilateralMesh extends Mesh
 		else
 		    m = -cc/bb;
 	
-		/*is m in range?*/
-		if (m<0 && j>0 && !visited[i][j-1]) {
-		    if (XtoLrecursive(xi,xj,i,j-1,lc)) 
-			return true;
-		}
-		else if (m>1.0 && j<nj-2 && !visited[i][j+1]) {
-		    if (XtoLrecursive(xi,xj,i,j+1,lc)) 
-			return true;
-		}
-	
-		//we now have the correct m so next check if l is in rage
-		
 		/*compute l*/
 		double ln = xi-a[0]-a[2]*m;
 		double ld = a[1]+a[3]*m; 
@@ -290,13 +390,9 @@ public class QuadrilateralMesh extends Mesh
 		    bb = a[3]*b[0]-a[0]*b[3] + a[2]*b[1]-a[1]*b[2] - a[3]*xj  + b[3]*xi;
 		    cc = a[2]*b[0]-a[0]*b[2]-a[2]*xj+b[2]*xi;
 	
-		    /*compute m = (-b+sqrt(b^2-4ac))/(2a)*/
 		    det = bb*bb - 4*aa*cc;
 		    if (det<0 && det>-1e-7) det=0;
-	
-		    /*this should never happen*/
-		    if (det<0)
-			Log.error("QuadrilateralMesh: Det < TOL, "+det);
+		    if (det<0) {lm[0]=Double.NaN; lm[1]=Double.NaN; return false;}
 	
 		    /*check for linear case*/
 		    if (Math.abs(aa)>1e-12)
@@ -308,26 +404,10 @@ public class QuadrilateralMesh extends Mesh
 		    ln = xi-a[0]-a[1]*l;
 		    ld = a[2]+a[3]*l; 
 		    m=ln/ld;
-				
-		    /*is m in range?*/
-		    if (m<0 && j>0 && !visited[i][j-1]) {
-			if (XtoLrecursive(xi,xj,i,j-1,lc)) 
-			    return true;
-		    }
-		    else if (m>1.0 && j<nj-2 && !visited[i][j+1]) {
-			if (XtoLrecursive(xi,xj,i,j+1,lc)) 
-			    return true;
-		    }
-		}
-				
-		if (l<0 && i>0 && !visited[i-1][j]) {
-		    if (XtoLrecursive(xi,xj,i-1,j,lc)) 
-			return true;
-		}
-		else if (l>1.0 && i<ni-2 && !visited[i+1][j]) {
-		    if (XtoLrecursive(xi,xj,i+1,j,lc)) 
-			return true;
 		}
+
+		lm[0]=l;
+		lm[1]=m;
 		
 		if (l>=0 && m>=0 && l<=1.0000001 && m<=1.0000001)
 		{
@@ -336,18 +416,9 @@ public class QuadrilateralMesh extends Mesh
 		    double xj1 = b[0]+b[1]*l+b[2]*m+b[3]*l*m;
 		    double di = xi1-xi;
 		    double dj = xj1-xj;
-		    if (Math.sqrt(di*di + dj*dj)>1e-7)
-			return false;
-		    /*found*/
-		    lc[0]=i+l;
-		    lc[1]=j+m;
-		    return true;
-		}
-		else
-		{
-		    /*not found*/
-		    return false;
+		    return Math.sqrt(di*di + dj*dj)<=1e-7;
 		}
+		return false;
     }
 
     @Override
@@ -377,7 +448,7 @@ public class QuadrilateralMesh extends Mesh
 
     		pw.println("<VTKFile type=\"StructuredGrid\"" + endianess + ">");
 			pw.printf("<StructuredGrid WholeExtent=\"0 %d 0 %d 0 0\">\n", ni - 1, nj - 1);
-			VTKWriter.writeFieldData(pw);
+			writer.writeFieldData(pw);
 			pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", ni - 1, nj - 1);
 
     		
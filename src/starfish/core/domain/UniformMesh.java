@@ -160,6 +160,14 @@ public class UniformMesh extends Mesh
 	return lc;
     }
 
+    @Override
+    public double[] XtoL(double x[], double lc[])
+    {
+	lc[0] = (x[0]-x0[0])/dh[0];
+	lc[1] = (x[1]-x0[1])/dh[1];
+	return lc;
+    }
+
     @Override
     public boolean containsPosStrict(double x[]) 
     {
@@ -201,7 +209,7 @@ public class UniformMesh extends Mesh
 			pw.printf("Spacing=\"%g %g 0\" ",dh[0], dh[1]);
 			pw.printf("WholeExtent=\"0 %d 0 %d 0 0\">\n", ni - 1, nj - 1);
 			
-			VTKWriter.writeFieldData(pw);
+			writer.writeFieldData(pw);
 
 			pw.printf("<Piece Extent=\"0 %d 0 %d 0 0\">\n", ni - 1, nj - 1);
 			
@@ -0,0 +1,134 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * In-memory output file made of pooled chunks. Files are assembled in memory and
+ * written out with a single gathering channel write, after which the chunks are
+ * returned to the pool for the next file. Content of another buffer can be moved
+ * over with append() without copying, this is used for the VTK appended section.
+ */
+public final class OutputBuffer extends OutputStream {
+	static final int CHUNK_SIZE = 1 << 20; /* 1 MB */
+	static final int MAX_POOLED = 64; /* chunks kept around between files */
+
+	static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+
+	final ArrayList<ByteBuffer> sealed = new ArrayList<>();
+	long sealed_size;
+	byte chunk[];
+	int pos; /* write position in chunk */
+
+	@Override
+	public void write(int b) {
+		if (chunk == null || pos == chunk.length)
+			nextChunk();
+		chunk[pos++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte b[], int off, int len) {
+		while (len > 0) {
+			if (chunk == null || pos == chunk.length)
+				nextChunk();
+			int n = Math.min(len, chunk.length - pos);
+			System.arraycopy(b, off, chunk, pos, n);
+			pos += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	/** @return number of bytes written so far */
+	public long size() {
+		return sealed_size + (chunk == null ? 0 : pos);
+	}
+
+	/** moves the content of other to the end of this buffer, other is left empty */
+	public void append(OutputBuffer other) {
+		seal();
+		other.seal();
+		sealed.addAll(other.sealed);
+		sealed_size += other.sealed_size;
+		other.sealed.clear();
+		other.sealed_size = 0;
+	}
+
+	/**
+	 * writes the content to a file, creating any missing directories
+	 * @param path destination, overwritten if it exists
+	 */
+	public void save(Path path) throws IOException {
+		seal();
+		FileChannel channel;
+		try {
+			channel = open(path);
+		} catch (NoSuchFileException e) {
+			Files.createDirectories(path.toAbsolutePath().getParent());
+			channel = open(path);
+		}
+
+		try (FileChannel ch = channel) {
+			ByteBuffer bufs[] = sealed.toArray(new ByteBuffer[0]);
+			long remaining = sealed_size;
+			while (remaining > 0)
+				remaining -= ch.write(bufs);
+		}
+	}
+
+	/** returns all chunks to the pool, the buffer can be reused afterwards */
+	public void release() {
+		for (ByteBuffer bb : sealed)
+			recycle(bb.array());
+		sealed.clear();
+		sealed_size = 0;
+		if (chunk != null)
+			recycle(chunk);
+		chunk = null;
+	}
+
+	private static FileChannel open(Path path) throws IOException {
+		return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/** closes the current chunk so that its bytes become part of the sealed list */
+	private void seal() {
+		if (chunk == null)
+			return;
+		if (pos > 0) {
+			sealed.add(ByteBuffer.wrap(chunk, 0, pos));
+			sealed_size += pos;
+		} else
+			recycle(chunk);
+		chunk = null;
+	}
+
+	private void nextChunk() {
+		seal();
+		chunk = pool.poll();
+		if (chunk == null)
+			chunk = new byte[CHUNK_SIZE];
+		pos = 0;
+	}
+
+	private static void recycle(byte c[]) {
+		if (pool.size() < MAX_POOLED)
+			pool.offer(c);
+	}
+}
@@ -0,0 +1,88 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.io;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import starfish.core.common.Starfish.Log;
+
+/**
+ * Background output thread shared by all writers. Jobs run in submission order on
+ * a single thread. At most MAX_PENDING jobs are queued, submit() blocks once the
+ * writer falls behind so that snapshots do not pile up in memory.
+ *
+ * Also keeps a pool of double arrays used for the snapshots.
+ */
+public final class OutputQueue {
+	static final int MAX_PENDING = 4;
+
+	static final Semaphore slots = new Semaphore(MAX_PENDING);
+	static ExecutorService thread;
+	static volatile String failure;
+
+	static final ConcurrentHashMap<Integer, ConcurrentLinkedQueue<double[]>> pool = new ConcurrentHashMap<>();
+
+	private OutputQueue() {
+	}
+
+	/** queues a job, blocks while MAX_PENDING jobs are already waiting */
+	public static void submit(Runnable job) {
+		checkFailure();
+		slots.acquireUninterruptibly();
+		executor().execute(() -> {
+			try {
+				job.run();
+			} catch (RuntimeException e) {
+				failure = e.toString();
+			} finally {
+				slots.release();
+			}
+		});
+	}
+
+	/** blocks until all queued jobs completed */
+	public static void drain() {
+		slots.acquireUninterruptibly(MAX_PENDING);
+		slots.release(MAX_PENDING);
+		checkFailure();
+	}
+
+	/** @return array of length n from the pool, content is undefined */
+	public static double[] acquire(int n) {
+		ConcurrentLinkedQueue<double[]> q = pool.get(n);
+		double a[] = (q == null) ? null : q.poll();
+		return (a != null) ? a : new double[n];
+	}
+
+	/** returns an array obtained with acquire() to the pool */
+	public static void release(double a[]) {
+		ConcurrentLinkedQueue<double[]> q = pool.computeIfAbsent(a.length, k -> new ConcurrentLinkedQueue<>());
+		if (q.size() < 16 * MAX_PENDING)
+			q.offer(a);
+	}
+
+	private static synchronized ExecutorService executor() {
+		if (thread == null)
+			thread = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "starfish-output");
+				t.setDaemon(true);
+				return t;
+			});
+		return thread;
+	}
+
+	private static void checkFailure() {
+		String message = failure;
+		if (message != null) {
+			failure = null;
+			Log.error("Output failed: " + message);
+		}
+	}
+}
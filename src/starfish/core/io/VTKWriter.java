@@ -8,14 +8,16 @@
 
 package starfish.core.io;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Iterator;
+import java.util.zip.Deflater;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.common.Starfish;
@@ -26,7 +28,12 @@ import starfish.core.domain.Mesh;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
 
-/** writer for ASCII VTK files */
+/** writer for ASCII and binary VTK files
+ *
+ * Files are assembled in pooled in-memory buffers and saved with a single channel write.
+ * With async enabled, 2D, 3D, and particle output copies the data on the main thread
+ * and formats and writes the file on the output thread, see OutputQueue.
+ */
 public class VTKWriter extends Writer {
 
 	ByteOrder byte_order = ByteOrder.LITTLE_ENDIAN;
@@ -35,10 +42,23 @@ public class VTKWriter extends Writer {
 		ASCII, BINARY, APPENDED
 	};
 
+	static final int BLOCK_SIZE = 1 << 15; /* uncompressed size of zlib blocks */
+
 	OutputFormat output_format;
-	ByteArrayOutputStream appendedData;
+	boolean async; // format and write on the output thread
+	boolean compress; // zlib compression of binary data
 	String endianess; // for .xml header
 
+	/* state of the file being written, only touched by one thread at a time */
+	OutputBuffer file;
+	OutputBuffer appendedData;
+	int frame_it;
+	double frame_time;
+	byte raw[] = new byte[0]; // 4 byte header followed by array data
+	byte cdata[] = new byte[0]; // compressed blocks
+	ByteBuffer cheader; // header of compressed data
+	Deflater deflater;
+
 	public VTKWriter(Element element) {
 		super(element);
 		String output_type_name = InputParser.getValue("output_format", element, "binary");
@@ -48,28 +68,153 @@ public class VTKWriter extends Writer {
 			Log.error("Unrecognized <output_type>, expecting [ASCII,BINARY,APPENDED]");
 
 		}
-
-		endianess = "";
-		if (output_format == OutputFormat.BINARY) {
-			endianess = " byte_order=\"";
-			if (byte_order == ByteOrder.BIG_ENDIAN)
-				endianess += "BigEndian";
-			else
-				endianess += "LittleEndian";
-			endianess += "\"";
-		}
+		async = InputParser.getBoolean("async", element, true);
+		compress = InputParser.getBoolean("compress", element, false);
+		setHeader();
 	}
 	public VTKWriter(String file_path, OutputFormat output_format) {
 		super(file_path);
-		endianess = "";
 		this.output_format = output_format;
-		if (output_format == OutputFormat.BINARY) {
-			endianess = " byte_order=\"";
-			if (byte_order == ByteOrder.BIG_ENDIAN)
-				endianess += "BigEndian";
-			else
-				endianess += "LittleEndian";
-			endianess += "\"";
+		setHeader();
+	}
+
+	/** sets the attributes added to the VTKFile tag */
+	private void setHeader() {
+		endianess = "";
+		if (output_format == OutputFormat.ASCII)
+			return;
+
+		endianess = " byte_order=\"";
+		if (byte_order == ByteOrder.BIG_ENDIAN)
+			endianess += "BigEndian";
+		else
+			endianess += "LittleEndian";
+		endianess += "\"";
+		if (compress)
+			endianess += " compressor=\"vtkZLibDataCompressor\"";
+	}
+
+	/** runs the job on the output thread or right away if not async */
+	void submit(Runnable job) {
+		if (async)
+			OutputQueue.submit(job);
+		else
+			job.run();
+	}
+
+	/** waits for pending output and releases the compressor */
+	@Override
+	public void close() {
+		if (async)
+			OutputQueue.drain();
+		if (deflater != null)
+			deflater.end();
+		deflater = null;
+	}
+
+	/** starts a new in-memory file for the current time step */
+	PrintWriter openFile() {
+		return openFile(Starfish.getIt(), Starfish.getTime());
+	}
+
+	/**
+	 * starts a new in-memory file
+	 * @param it time step stored in the file
+	 * @param time simulation time stored in the file
+	 */
+	PrintWriter openFile(int it, double time) {
+		frame_it = it;
+		frame_time = time;
+		file = new OutputBuffer();
+		appendedData = new OutputBuffer();
+		return new PrintWriter(file);
+	}
+
+	/** writes the file started with openFile to disk */
+	void closeFile(PrintWriter pw, String path) {
+		pw.flush();
+		try {
+			file.save(Paths.get(path));
+		} catch (IOException e) {
+			Log.warning("error writing file " + path);
+		} finally {
+			file.release();
+			appendedData.release();
+		}
+	}
+
+	/** copy of the output variables on a single mesh, node data is stored with i varying fastest */
+	class FieldSnapshot {
+		final Mesh mesh;
+		final String path;
+		final int it;
+		final double time;
+		final double cells[][];
+		final int type[];
+		final double nodes[][];
+		final double vecs[][]; // 3 components per node
+
+		/** copies the current data, called on the main thread */
+		FieldSnapshot(Mesh mesh, String path) {
+			this.mesh = mesh;
+			this.path = path;
+			it = Starfish.getIt();
+			time = Starfish.getTime();
+			int ni = mesh.ni;
+			int nj = mesh.nj;
+
+			cells = new double[cell_data.length][];
+			for (int v = 0; v < cell_data.length; v++) {
+				double data[][] = Starfish.domain_module.getField(mesh, cell_data[v]).getData();
+				double c[] = OutputQueue.acquire((ni - 1) * (nj - 1));
+				int a = 0;
+				for (int j = 0; j < nj - 1; j++)
+					for (int i = 0; i < ni - 1; i++)
+						c[a++] = data[i][j];
+				cells[v] = c;
+			}
+
+			type = new int[ni * nj];
+			int a = 0;
+			for (int j = 0; j < nj; j++)
+				for (int i = 0; i < ni; i++)
+					type[a++] = mesh.getNode(i, j).type.value();
+
+			nodes = new double[scalars.length][];
+			for (int v = 0; v < scalars.length; v++) {
+				double data[][] = Starfish.domain_module.getField(mesh, scalars[v]).getData();
+				double d[] = OutputQueue.acquire(ni * nj);
+				a = 0;
+				for (int j = 0; j < nj; j++)
+					for (int i = 0; i < ni; i++)
+						d[a++] = data[i][j];
+				nodes[v] = d;
+			}
+
+			vecs = new double[vectors.size()][];
+			for (int v = 0; v < vectors.size(); v++) {
+				double data1[][] = Starfish.domain_module.getField(mesh, vectors.get(v)[0]).getData();
+				double data2[][] = Starfish.domain_module.getField(mesh, vectors.get(v)[1]).getData();
+				double vec[] = OutputQueue.acquire(ni * nj * 3);
+				a = 0;
+				for (int j = 0; j < nj; j++)
+					for (int i = 0; i < ni; i++) {
+						vec[a++] = data1[i][j];
+						vec[a++] = data2[i][j];
+						vec[a++] = 0;
+					}
+				vecs[v] = vec;
+			}
+		}
+
+		/** returns the arrays to the pool */
+		void release() {
+			for (double c[] : cells)
+				OutputQueue.release(c);
+			for (double d[] : nodes)
+				OutputQueue.release(d);
+			for (double v[] : vecs)
+				OutputQueue.release(v);
 		}
 	}
 
@@ -79,175 +224,161 @@ public class VTKWriter extends Writer {
 		if (Starfish.getDomainType() == DomainType.XY)
 			Log.warning("Write3D is not (yet) supported for DomainType XY");
 
-		String format_name = output_type.name().toLowerCase();
-
-		int part = 0;
+		ArrayList<FieldSnapshot> frame = new ArrayList<>();
 		for (Mesh mesh : Starfish.getMeshList()) {
 			// split out extension from the file name
-
 			String substr[] = splitFileName(fileName);
 			String name = substr[0] + "_" + mesh.getName();
 			if (animation)
 				name += String.format("_%06d", Starfish.getIt());
 			name += substr[1];
+			frame.add(new FieldSnapshot(mesh, Starfish.options.wd + name));
+		}
 
-			// add to collection but remove path since relative to pvd file
-			if (!animation) collection.clear();
-			substr = splitFileName(name);
-			// collection.add(new CollectionData(time_step,part,substr[3]+substr[1]));
-			collection.add(new CollectionData(Starfish.getIt(), part, substr[3] + substr[1]));
-
-			PrintWriter pw = open(name);
-			appendedData = new ByteArrayOutputStream();
-
-			pw.println("<?xml version=\"1.0\"?>");
-
-			pw.println("<VTKFile type=\"UnstructuredGrid\"" + endianess + ">");
-			pw.println("<UnstructuredGrid>");
-			pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", mesh.n_nodes * (theta_sections),
-					mesh.n_cells * (theta_sections - 1));
-
-			pw.println("<Points>");
-
-			double pos[] = new double[mesh.ni * mesh.nj * theta_sections];
-			int a = 0;
-
-			for (int k = 0; k < theta_sections; k++) {
-				// first and last slice is duplicated to simplify cell writing, hopefully
-				// Paraview can deal with this fine
-				double theta = k * 2 * Math.PI / (theta_sections - 1);
-				for (int i = 0; i < mesh.ni; i++)
-					for (int j = 0; j < mesh.nj; j++) {
-						double x[] = mesh.pos(i, j);
-						if (Starfish.getDomainType() == DomainType.RZ) {
-							pos[a++] = Math.cos(theta) * x[0];
-							pos[a++] = x[1];
-							pos[a++] = Math.sin(theta) * x[0];
-						} else {
-							pos[a++] = x[0];
-							pos[a++] = Math.cos(theta) * x[1];
-							pos[a++] = Math.sin(theta) * x[1];
-						}
-						pw.println();
-					}
+		submit(() -> {
+			if (!animation)
+				collection.clear();
+			int part = 0;
+			for (FieldSnapshot snap : frame) {
+				write3D(snap);
+
+				// add to collection but remove path since relative to pvd file
+				String substr[] = splitFileName(snap.path);
+				collection.add(new CollectionData(snap.it, part, substr[3] + substr[1]));
+				snap.release();
+				part++;
 			}
-			outputDataArrayVec(pw, "pos", pos);
-
-			// these get written out as ASCII for now
-			pw.println("<Cells>");
 
-			int con[] = new int[8 * (mesh.ni - 1) * (mesh.nj - 1) * (theta_sections - 1)];
-			a = 0;
-			for (int m = 0; m < theta_sections - 1; m++) {
-				for (int j = 0; j < mesh.nj - 1; j++)
-					for (int i = 0; i < mesh.ni - 1; i++) {
-						int d1 = m * mesh.n_nodes;
-						int d2 = (m + 1) * mesh.n_nodes;
-						con[a++] = d1 + mesh.IJtoN(i, j);
-						con[a++] = d1 + mesh.IJtoN(i + 1, j);
-						con[a++] = d1 + mesh.IJtoN(i + 1, j + 1);
-						con[a++] = d1 + mesh.IJtoN(i, j + 1);
-						con[a++] = d2 + mesh.IJtoN(i, j);
-						con[a++] = d2 + mesh.IJtoN(i + 1, j);
-						con[a++] = d2 + mesh.IJtoN(i + 1, j + 1);
-						con[a++] = d2 + mesh.IJtoN(i, j + 1);
-					}
-			}
-			outputDataArrayScalar(pw, "connectivity", con);
+			/* write the collection file */
+			writeCollection(animation);
+		});
+	}
 
-			int offsets[] = new int[(theta_sections - 1) * mesh.n_cells];
-			for (int c = 0; c < (theta_sections - 1) * mesh.n_cells; c++)
-				offsets[c] = (c + 1) * 8;
-			outputDataArrayScalar(pw, "offsets", offsets);
+	/** writes a single mesh revolved around the axis */
+	void write3D(FieldSnapshot snap) {
+		Mesh mesh = snap.mesh;
+		PrintWriter pw = openFile(snap.it, snap.time);
 
-			int types[] = new int[(theta_sections - 1) * mesh.n_cells];
-			for (int c = 0; c < (theta_sections - 1) * mesh.n_cells; c++)
-				types[c] = 12; // VTK_HEXAHEDRON
-			outputDataArrayScalar(pw, "types", types);
+		pw.println("<?xml version=\"1.0\"?>");
 
-			pw.println("</Cells>");
+		pw.println("<VTKFile type=\"UnstructuredGrid\"" + endianess + ">");
+		pw.println("<UnstructuredGrid>");
+		writeFieldData(pw);
+		pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfCells=\"%d\">\n", mesh.n_nodes * (theta_sections),
+				mesh.n_cells * (theta_sections - 1));
 
-			/*
-			 * hard coded for now until I get some more robust way to output cell and vector
-			 * data
-			 */
-			pw.println("<CellData>");
+		pw.println("<Points>");
 
-			for (String var : cell_data) {
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
+		double pos[] = OutputQueue.acquire(mesh.n_nodes * theta_sections * 3);
+		int a = 0;
 
-				double data3c[] = new double[(theta_sections - 1) * (mesh.nj - 1) * (mesh.ni - 1)];
+		for (int k = 0; k < theta_sections; k++) {
+			// first and last slice is duplicated to simplify cell writing, hopefully
+			// Paraview can deal with this fine
+			double theta = k * 2 * Math.PI / (theta_sections - 1);
+			for (int j = 0; j < mesh.nj; j++)
+				for (int i = 0; i < mesh.ni; i++) {
+					double x[] = mesh.pos(i, j);
+					if (Starfish.getDomainType() == DomainType.RZ) {
+						pos[a++] = Math.cos(theta) * x[0];
+						pos[a++] = x[1];
+						pos[a++] = Math.sin(theta) * x[0];
+					} else {
+						pos[a++] = x[0];
+						pos[a++] = Math.cos(theta) * x[1];
+						pos[a++] = Math.sin(theta) * x[1];
+					}
+				}
+		}
+		outputDataArrayVec(pw, "pos", pos);
+		OutputQueue.release(pos);
+		pw.println("</Points>");
 
-				for (int m = 0; m < theta_sections - 1; m++)
-					for (int j = 0; j < mesh.nj - 1; j++)
-						for (int i = 0; i < mesh.ni - 1; i++)
-							data3c[a++] = data[i][j];
+		// these get written out as ASCII for now
+		pw.println("<Cells>");
 
-				outputDataArrayScalar(pw, var, data3c);
-			}
-			pw.println("</CellData>");
+		int con[] = new int[8 * (mesh.ni - 1) * (mesh.nj - 1) * (theta_sections - 1)];
+		a = 0;
+		for (int m = 0; m < theta_sections - 1; m++) {
+			for (int j = 0; j < mesh.nj - 1; j++)
+				for (int i = 0; i < mesh.ni - 1; i++) {
+					int d1 = m * mesh.n_nodes;
+					int d2 = (m + 1) * mesh.n_nodes;
+					con[a++] = d1 + mesh.IJtoN(i, j);
+					con[a++] = d1 + mesh.IJtoN(i + 1, j);
+					con[a++] = d1 + mesh.IJtoN(i + 1, j + 1);
+					con[a++] = d1 + mesh.IJtoN(i, j + 1);
+					con[a++] = d2 + mesh.IJtoN(i, j);
+					con[a++] = d2 + mesh.IJtoN(i + 1, j);
+					con[a++] = d2 + mesh.IJtoN(i + 1, j + 1);
+					con[a++] = d2 + mesh.IJtoN(i, j + 1);
+				}
+		}
+		outputDataArrayScalar(pw, "connectivity", con);
 
-			// ***********
-			pw.println("<PointData>");
+		int offsets[] = new int[(theta_sections - 1) * mesh.n_cells];
+		for (int c = 0; c < (theta_sections - 1) * mesh.n_cells; c++)
+			offsets[c] = (c + 1) * 8;
+		outputDataArrayScalar(pw, "offsets", offsets);
 
-			int data3i[] = new int[mesh.ni * mesh.nj * theta_sections];
-			a = 0;
-			for (int m = 0; m < theta_sections; m++)
-				for (int j = 0; j < mesh.nj; j++)
-					for (int i = 0; i < mesh.ni; i++)
-						data3i[a++] = mesh.getNode(i, j).type.value();
-			outputDataArrayScalar(pw, "type", data3i);
-
-			for (String var : scalars) {
-				/* make sure we have this variable */
-				// if (!Starfish.output_module.validateVar(var)) continue;
-				double data[][] = Starfish.domain_module.getField(mesh, var).getData();
-
-				double data3[] = new double[mesh.ni * mesh.nj * theta_sections];
-				a = 0;
+		int types[] = new int[(theta_sections - 1) * mesh.n_cells];
+		for (int c = 0; c < (theta_sections - 1) * mesh.n_cells; c++)
+			types[c] = 12; // VTK_HEXAHEDRON
+		outputDataArrayScalar(pw, "types", types);
 
-				for (int m = 0; m < theta_sections; m++)
-					for (int j = 0; j < mesh.nj; j++)
-						for (int i = 0; i < mesh.ni; i++)
-							data3[a++] = data[i][j];
+		pw.println("</Cells>");
 
-				outputDataArrayScalar(pw, var, data3);
-			}
+		/*
+		 * hard coded for now until I get some more robust way to output cell and vector
+		 * data
+		 */
+		pw.println("<CellData>");
+		for (int v = 0; v < cell_data.length; v++) {
+			double data3c[] = OutputQueue.acquire((theta_sections - 1) * snap.cells[v].length);
+			repeat(snap.cells[v], data3c, theta_sections - 1);
+			outputDataArrayScalar(pw, cell_data[v], data3c);
+			OutputQueue.release(data3c);
+		}
+		pw.println("</CellData>");
 
-			for (String[] vars : vectors) {
-				/* make sure we have this variable */
-				// if (!Starfish.output_module.validateVar(var)) continue;
-				double data1[][] = Starfish.domain_module.getField(mesh, vars[0]).getData();
-				double data2[][] = Starfish.domain_module.getField(mesh, vars[1]).getData();
-				double vec3[] = new double[mesh.ni * mesh.nj * theta_sections * 3];
-				a = 0;
+		// ***********
+		pw.println("<PointData>");
 
-				for (int m = 0; m < theta_sections; m++)
-					for (int j = 0; j < mesh.nj; j++)
-						for (int i = 0; i < mesh.ni; i++) {
-							vec3[a++] = data1[i][j];
-							vec3[a++] = data2[i][j];
-							vec3[a++] = 0;
-						}
-				outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec3);
-			}
+		int data3i[] = new int[snap.type.length * theta_sections];
+		for (int m = 0; m < theta_sections; m++)
+			System.arraycopy(snap.type, 0, data3i, m * snap.type.length, snap.type.length);
+		outputDataArrayScalar(pw, "type", data3i);
 
-			pw.println("</PointData>");
+		for (int v = 0; v < scalars.length; v++) {
+			double data3[] = OutputQueue.acquire(theta_sections * snap.nodes[v].length);
+			repeat(snap.nodes[v], data3, theta_sections);
+			outputDataArrayScalar(pw, scalars[v], data3);
+			OutputQueue.release(data3);
+		}
 
-			pw.println("</Piece>");
+		for (int v = 0; v < vectors.size(); v++) {
+			String vars[] = vectors.get(v);
+			double vec3[] = OutputQueue.acquire(theta_sections * snap.vecs[v].length);
+			repeat(snap.vecs[v], vec3, theta_sections);
+			outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec3);
+			OutputQueue.release(vec3);
+		}
 
-			pw.println("</UnstructuredGrid>");
-			outputAppendedData(pw, appendedData);
-			pw.println("</VTKFile>");
-			/* save output file */
-			pw.close();
+		pw.println("</PointData>");
 
-			part++;
-		}
+		pw.println("</Piece>");
 
-		/* write the collection file */
-		writeCollection(animation);
+		pw.println("</UnstructuredGrid>");
+		outputAppendedData(pw);
+		pw.println("</VTKFile>");
+		/* save output file */
+		closeFile(pw, snap.path);
+	}
 
+	/** fills dst with copies of src */
+	static void repeat(double src[], double dst[], int copies) {
+		for (int m = 0; m < copies; m++)
+			System.arraycopy(src, 0, dst, m * src.length, src.length);
 	}
 
 	public enum VTK_Type {
@@ -261,117 +392,81 @@ public class VTKWriter extends Writer {
 	 */
 	@Override
 	public void write2D(boolean animation) {
-		int part = 0;
 		String substr[] = splitFileName(fileName);  // split out the extension
-		
-		
+
+		ArrayList<FieldSnapshot> frame = new ArrayList<>();
 		for (Mesh mesh : Starfish.getMeshList()) {
 			// split out extension from the file name
 			String name = substr[0] + "_" + mesh.getName();
 			if (animation)
 				name += String.format("_%06d", Starfish.getIt());
 
-			appendedData = new ByteArrayOutputStream();
-
-    		String file_name = Starfish.options.wd + name + mesh.getVTKExtension();
-    		PrintWriter pw = openAbsolutePath(file_name);
-
-			// open file
-			mesh.startVTKFile(pw, endianess,this);
-
-			// write out variables
-			writeData(pw,mesh);
-			
-			mesh.endVTKFile(pw);
-			outputAppendedData(pw, appendedData);
-			pw.println("</VTKFile>");
-			/* save output file */
-			pw.close();
-			
-			// add to collection but remove path since relative to pvd file
-			if (!animation) collection.clear();			
-			substr = splitFileName(file_name);
-			// collection.add(new CollectionData(time_step,part,substr[3]+substr[1]));
-			collection.add(new CollectionData(Starfish.getIt(), part, substr[3] + substr[1]));
-
-			part++;
+			frame.add(new FieldSnapshot(mesh, Starfish.options.wd + name + mesh.getVTKExtension()));
 		}
 
-		/* write the collection file */
-		writeCollection(animation);
+		submit(() -> {
+			if (!animation)
+				collection.clear();
+			int part = 0;
+			for (FieldSnapshot snap : frame) {
+				PrintWriter pw = openFile(snap.it, snap.time);
+
+				// open file
+				snap.mesh.startVTKFile(pw, endianess, this);
+
+				// write out variables
+				writeData(pw, snap);
+
+				snap.mesh.endVTKFile(pw);
+				outputAppendedData(pw);
+				pw.println("</VTKFile>");
+				/* save output file */
+				closeFile(pw, snap.path);
+
+				// add to collection but remove path since relative to pvd file
+				String s[] = splitFileName(snap.path);
+				collection.add(new CollectionData(snap.it, part, s[3] + s[1]));
+				snap.release();
+				part++;
+			}
+
+			/* write the collection file */
+			writeCollection(animation);
+		});
 	}
 
-	/** writes common field data */
-	public static void writeFieldData(PrintWriter pw) {
+	/** writes common field data for the file being written */
+	public void writeFieldData(PrintWriter pw) {
 		pw.println("<FieldData>");
 		pw.printf("<DataArray type=\"Int32\" Name=\"ts\" NumberOfTuples=\"1\" format=\"ascii\">\n");
-		pw.printf("%d\n",Starfish.getIt());
+		pw.printf("%d\n", frame_it);
 		pw.printf("</DataArray>\n");
 		
 		pw.printf("<DataArray type=\"Float32\" Name=\"time\" NumberOfTuples=\"1\" format=\"ascii\">\n");
-		pw.printf("%g\n",Starfish.getTime());
+		pw.printf("%g\n", frame_time);
 		pw.printf("</DataArray>\n");
 		pw.println("</FieldData>");
 	}
 	
 	/** Writes out CellData and PointData variables 
 	 * @param pw PrintWriter associated with the output file
-	 * @param mesh the associated mesh
+	 * @param snap data copied from the mesh
 	 * **/
-	protected void writeData(PrintWriter pw, Mesh mesh) {
-		int a;
+	protected void writeData(PrintWriter pw, FieldSnapshot snap) {
 		pw.println("<CellData>");
-
-		for (String var : cell_data) {
-			double data[][] = Starfish.domain_module.getField(mesh, var).getData();
-			double data_c[] = new double[(mesh.nj - 1) * (mesh.ni - 1)];
-			a = 0;
-			for (int j = 0; j < mesh.nj - 1; j++) {
-				for (int i = 0; i < mesh.ni - 1; i++) {
-					data_c[a++] = data[i][j];
-				}
-			}
-			outputDataArrayScalar(pw, var, data_c);
-		}
+		for (int v = 0; v < cell_data.length; v++)
+			outputDataArrayScalar(pw, cell_data[v], snap.cells[v]);
 		pw.println("</CellData>");
 
 		pw.println("<PointData>");
-		int type[] = new int[mesh.ni * mesh.nj];
-		a = 0;
-		for (int j = 0; j < mesh.nj; j++) {
-			for (int i = 0; i < mesh.ni; i++) {
-				type[a++] = mesh.getNode(i, j).type.value();
-			}
-		}
-		outputDataArrayScalar(pw, "type", type);
+		outputDataArrayScalar(pw, "type", snap.type);
 
-		for (String var : scalars) {
-			/* make sure we have this variable */
-			double data3[] = new double[mesh.ni * mesh.nj];
-			a = 0;
-			double data[][] = Starfish.domain_module.getField(mesh, var).getData();
-			for (int j = 0; j < mesh.nj; j++) {
-				for (int i = 0; i < mesh.ni; i++) {
-					data3[a++] = data[i][j];
-				}
-			}
-			outputDataArrayScalar(pw, var, data3);
-		}
+		for (int v = 0; v < scalars.length; v++)
+			outputDataArrayScalar(pw, scalars[v], snap.nodes[v]);
 
-		for (String[] vars : vectors) {
-			double data1[][] = Starfish.domain_module.getField(mesh, vars[0]).getData();
-			double data2[][] = Starfish.domain_module.getField(mesh, vars[1]).getData();
-			double vec[] = new double[mesh.ni * mesh.nj * 3];
-			a = 0;
-			for (int j = 0; j < mesh.nj; j++) {
-				for (int i = 0; i < mesh.ni; i++) {
-					vec[a++] = data1[i][j];
-					vec[a++] = data2[i][j];
-					vec[a++] = 0;
-				}
-			}
-
-			outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", vec);
+		for (int v = 0; v < vectors.size(); v++) {
+			String vars[] = vectors.get(v);
+			outputDataArrayVec(pw, "" + vars[0] + "_" + vars[1] + "", snap.vecs[v]);
 		}
 
 		pw.println("</PointData>");
@@ -383,8 +478,7 @@ public class VTKWriter extends Writer {
 	 * @param vtk_type
 	 */
 	public void write2DToFile(Mesh mesh, String outputFilePath, VTK_Type vtk_type) {
-		PrintWriter pw = openAbsolutePath(outputFilePath);
-		appendedData = new ByteArrayOutputStream();
+		PrintWriter pw = openFile();
 
 		pw.println("<?xml version=\"1.0\"?>");
 
@@ -449,11 +543,11 @@ public class VTKWriter extends Writer {
 
 		pw.println(close_tag);
 
-		outputAppendedData(pw, appendedData);
+		outputAppendedData(pw);
 
 		pw.println("</VTKFile>");
 		/* save output file */
-		pw.close();
+		closeFile(pw, outputFilePath);
 	}
 
 
@@ -484,7 +578,7 @@ public class VTKWriter extends Writer {
 			pvd_name += "_anim";
 		pvd_name += ".pvd";
 
-		PrintWriter pw = open(pvd_name);
+		PrintWriter pw = openFile(frame_it, frame_time);
 
 		pw.println("<?xml version=\"1.0\"?>");
 		pw.println("<VTKFile type=\"Collection\" version=\"0.1\">");
@@ -496,7 +590,7 @@ public class VTKWriter extends Writer {
 		}
 		pw.println("</Collection>");
 		pw.println("</VTKFile>");
-		pw.close();
+		closeFile(pw, Starfish.options.wd + pvd_name);
 	}
 
 	private String file_name_1d;
@@ -534,8 +628,7 @@ public class VTKWriter extends Writer {
 		 */
 		if (!animation || (animation && (time_data_current_line % time_data_write_skip == 0
 				|| time_data_current_line == time_data_lines - 1))) {
-			PrintWriter pw = open(file_name_1d);
-			appendedData = new ByteArrayOutputStream();
+			PrintWriter pw = openFile();
 
 			Mesh mesh = output_mesh;
 
@@ -644,10 +737,10 @@ public class VTKWriter extends Writer {
 
 			pw.println("</PointData>");
 			pw.println("</StructuredGrid>");
-			outputAppendedData(pw, appendedData);
+			outputAppendedData(pw);
 			pw.println("</VTKFile>");
 			/* save output file */
-			pw.close();
+			closeFile(pw, Starfish.options.wd + file_name_1d);
 		}
 
 		/* rewind - needs to be here since above loop checking current line */
@@ -814,8 +907,7 @@ public class VTKWriter extends Writer {
 		
 		DomainType dt = Starfish.getDomainType();
 
-		PrintWriter pw = open(fileName);
-	    appendedData = new ByteArrayOutputStream();
+		PrintWriter pw = openFile();
 
 		pw.println("<?xml version=\"1.0\"?>");
 		pw.println("<VTKFile type=\"PolyData\"" + endianess + ">");
@@ -996,11 +1088,11 @@ public class VTKWriter extends Writer {
 
 		pw.println("</Piece>");
 		pw.println("</PolyData>");
-		outputAppendedData(pw, appendedData);
+		outputAppendedData(pw);
 		pw.println("</VTKFile>");
 
 		/* save output file */
-		pw.flush();
+		closeFile(pw, Starfish.options.wd + fileName);
 	}
 
 	/**
@@ -1030,76 +1122,76 @@ public class VTKWriter extends Writer {
 		if (animation)
 			name += String.format("_%06d", Starfish.getIt());
 		name += substr[1];
-		PrintWriter pw = open(name);
-		appendedData = new ByteArrayOutputStream();
-
-		pw.println("<?xml version=\"1.0\"?>");
-		pw.println("<VTKFile type=\"PolyData\"" + endianess + ">");
-		pw.println("<PolyData>");
-		pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfVerts=\"0\" "
-				+ "NumberOfLines=\"0\" NumberOfStrips=\"0\" NumberOfPolys=\"0\">\n", parts.size());
+		String path = Starfish.options.wd + name;
 
-		pw.println("<Points>");
-		double vec[] = new double[parts.size() * 3];
+		/* copy the sampled particles, iterators may return the same object */
+		int np = parts.size();
+		double pos[] = OutputQueue.acquire(np * 3);
+		double vel[] = OutputQueue.acquire(np * 3);
+		double radius[] = OutputQueue.acquire(np);
 		int a = 0;
 
-		for (int i = 0; i < parts.size(); i++) {
+		for (int i = 0; i < np; i++) {
 			Particle part = parts.get(i);
-			double pos[] = { part.pos[0], part.pos[1], 0 };
+			pos[a] = part.pos[0];
+			pos[a + 1] = part.pos[1];
+			pos[a + 2] = 0;
 
 			if (rotate) {
 				switch (Starfish.getDomainType()) {
 				case RZ:
-					pos[0] = part.pos[0] * Math.cos(part.pos[2]);
-					pos[1] = part.pos[1];
-					pos[2] = part.pos[0] * Math.sin(part.pos[2]);
+					pos[a] = part.pos[0] * Math.cos(part.pos[2]);
+					pos[a + 1] = part.pos[1];
+					pos[a + 2] = part.pos[0] * Math.sin(part.pos[2]);
 					break;
 				case ZR:
-					pos[0] = part.pos[0];
-					pos[1] = part.pos[1] * Math.cos(part.pos[2]);
-					pos[2] = part.pos[1] * Math.sin(part.pos[2]);
+					pos[a] = part.pos[0];
+					pos[a + 1] = part.pos[1] * Math.cos(part.pos[2]);
+					pos[a + 2] = part.pos[1] * Math.sin(part.pos[2]);
 					break;
 				default:
 					break;
 				}
 			}
-			vec[a++] = pos[0];
-			vec[a++] = pos[1];
-			vec[a++] = pos[2];
+			vel[a] = part.vel[0];
+			vel[a + 1] = part.vel[1];
+			vel[a + 2] = part.vel[2];
+			radius[i] = part.radius;
+			a += 3;
 		}
-		outputDataArrayVec(pw, "pos", vec);
 
-		pw.println("</Points>");
+		int it = Starfish.getIt();
+		double time = Starfish.getTime();
+		submit(() -> {
+			PrintWriter pw = openFile(it, time);
 
-		/* data */
-		pw.println("<PointData>");
-		a = 0;
-		/* save particle velocities */
-		for (int i = 0; i < parts.size(); i++) {
-			Particle part = parts.get(i);
-			vec[a++] = part.vel[0];
-			vec[a++] = part.vel[1];
-			vec[a++] = part.vel[2];
-		}
-		outputDataArrayVec(pw, "velocity", vec);
+			pw.println("<?xml version=\"1.0\"?>");
+			pw.println("<VTKFile type=\"PolyData\"" + endianess + ">");
+			pw.println("<PolyData>");
+			pw.printf("<Piece NumberOfPoints=\"%d\" NumberOfVerts=\"0\" "
+					+ "NumberOfLines=\"0\" NumberOfStrips=\"0\" NumberOfPolys=\"0\">\n", np);
 
-		double s[] = new double[parts.size()];
-		a = 0;
-		for (int i = 0; i < parts.size(); i++) {
-			Particle part = parts.get(i);
-			s[a++] = part.radius;
-		}
-		outputDataArrayScalar(pw, "radius", s);
+			pw.println("<Points>");
+			outputDataArrayVec(pw, "pos", pos);
+			pw.println("</Points>");
 
-		pw.println("</PointData>");
+			/* data */
+			pw.println("<PointData>");
+			outputDataArrayVec(pw, "velocity", vel);
+			outputDataArrayScalar(pw, "radius", radius);
+			pw.println("</PointData>");
 
-		pw.println("</Piece>");
-		pw.println("</PolyData>");
-		outputAppendedData(pw,appendedData);
-		pw.println("</VTKFile>");
+			pw.println("</Piece>");
+			pw.println("</PolyData>");
+			outputAppendedData(pw);
+			pw.println("</VTKFile>");
 
-		/* save output file */
-		pw.flush();
+			/* save output file */
+			closeFile(pw, path);
+			OutputQueue.release(pos);
+			OutputQueue.release(vel);
+			OutputQueue.release(radius);
+		});
 	}
 
 	/**
@@ -1118,8 +1210,7 @@ public class VTKWriter extends Writer {
 		for (ParticleTrace trace:traces) 
 			num_points+=trace.samples.size();
 		
-		PrintWriter pw = open(fileName);
-		appendedData = new ByteArrayOutputStream();
+		PrintWriter pw = openFile();
 
 		pw.println("<?xml version=\"1.0\"?>");
 		pw.println("<VTKFile type=\"PolyData\"" + endianess + ">");
@@ -1207,11 +1298,11 @@ public class VTKWriter extends Writer {
 
 		pw.println("</Piece>");
 		pw.println("</PolyData>");
-		outputAppendedData(pw, appendedData);
+		outputAppendedData(pw);
 		pw.println("</VTKFile>");
 
 		/* save output file */
-		pw.flush();
+		closeFile(pw, Starfish.options.wd + fileName);
 	}
 
 	/***** DATA WRITERS ****************/
@@ -1222,29 +1313,8 @@ public class VTKWriter extends Writer {
 
 		if (output_format == OutputFormat.BINARY || output_format == OutputFormat.APPENDED) {
 			int num_bytes = Double.BYTES * ni;
-			ByteBuffer bb = ByteBuffer.allocate(num_bytes + Long.BYTES);
-			bb.order(byte_order);
-			bb.putInt(num_bytes);
-			for (int i = 0; i < ni; i++)
-				bb.putDouble(data[i]);
-
-			if (output_format == OutputFormat.BINARY) {
-				String encoded = Base64.getEncoder().encodeToString(bb.array());
-				pw.println(
-						"<DataArray Name=\"" + var_name + "\" type=\"Float64\" " + nc_string + " format=\"binary\">");
-				pw.println(encoded);
-				pw.println("</DataArray>");
-			} else { // save raw bites in appended section
-				pw.println("<DataArray Name=\"" + var_name + "\" type=\"Float64\" " + nc_string
-						+ " format=\"appeneded\" offset=\"" + appendedData.size() + "\">");
-
-				try {
-					appendedData.write(bb.array());
-				} catch (IOException ex) {
-					Log.error("Error in appended data write");
-				}
-				pw.println("</DataArray>");
-			}
+			rawBuffer(num_bytes).asDoubleBuffer().put(data);
+			outputBinary(pw, "<DataArray Name=\"" + var_name + "\" type=\"Float64\" " + nc_string, num_bytes);
 		} else if (output_format == OutputFormat.ASCII) {
 			pw.println("<DataArray Name=\"" + var_name + "\" type=\"Float64\" " + nc_string + " format=\"ascii\">");
 			for (int i = 0; i < ni; i++)
@@ -1260,28 +1330,8 @@ public class VTKWriter extends Writer {
 
 		if (output_format == OutputFormat.BINARY || output_format == OutputFormat.APPENDED) {
 			int num_bytes = Integer.BYTES * ni;
-			ByteBuffer bb = ByteBuffer.allocate(num_bytes + Long.BYTES);
-			bb.order(byte_order);
-			bb.putInt(num_bytes);
-			for (int i = 0; i < ni; i++)
-				bb.putInt(data[i]);
-
-			if (output_format == OutputFormat.BINARY) {
-				String encoded = Base64.getEncoder().encodeToString(bb.array());
-				pw.println("<DataArray Name=\"" + var_name + "\" type=\"Int32\" " + nc_string + " format=\"binary\">");
-				pw.println(encoded);
-				pw.println("</DataArray>");
-			} else { // save raw bites in appended section
-				pw.println("<DataArray Name=\"" + var_name + "\" type=\"Int32\" " + nc_string
-						+ " format=\"appeneded\" offset=\"" + appendedData.size() + "\">");
-
-				try {
-					appendedData.write(bb.array());
-				} catch (IOException ex) {
-					Log.error("Error in appended data write");
-				}
-				pw.println("</DataArray>");
-			}
+			rawBuffer(num_bytes).asIntBuffer().put(data);
+			outputBinary(pw, "<DataArray Name=\"" + var_name + "\" type=\"Int32\" " + nc_string, num_bytes);
 		} else if (output_format == OutputFormat.ASCII) {
 			pw.println("<DataArray Name=\"" + var_name + "\" type=\"Int32\" " + nc_string + " format=\"ascii\">");
 			for (int i = 0; i < ni; i++)
@@ -1290,6 +1340,84 @@ public class VTKWriter extends Writer {
 		}
 	}
 
+	/** @return view of the scratch array past the 4 byte header, with room for num_bytes */
+	ByteBuffer rawBuffer(int num_bytes) {
+		if (raw.length < num_bytes + Integer.BYTES)
+			raw = new byte[num_bytes + Integer.BYTES];
+		return ByteBuffer.wrap(raw, Integer.BYTES, num_bytes).order(byte_order);
+	}
+
+	/**
+	 * writes the array stored in raw as base64 or into the appended section
+	 * @param tag opening DataArray tag without the format
+	 * @param num_bytes number of data bytes following the header in raw
+	 */
+	void outputBinary(PrintWriter pw, String tag, int num_bytes) {
+		int clen = 0;
+		if (compress)
+			clen = compress(num_bytes);
+		else
+			ByteBuffer.wrap(raw).order(byte_order).putInt(num_bytes);
+
+		if (output_format == OutputFormat.BINARY) {
+			pw.println(tag + " format=\"binary\">");
+			pw.flush();
+			Base64.Encoder encoder = Base64.getEncoder();
+			if (compress) {
+				/* header and data are encoded separately */
+				writeBytes(file, encoder.encode(ByteBuffer.wrap(cheader.array(), 0, cheader.position())));
+				writeBytes(file, encoder.encode(ByteBuffer.wrap(cdata, 0, clen)));
+			} else
+				writeBytes(file, encoder.encode(ByteBuffer.wrap(raw, 0, num_bytes + Integer.BYTES)));
+			pw.println();
+			pw.println("</DataArray>");
+		} else { // save raw bytes in appended section
+			pw.println(tag + " format=\"appended\" offset=\"" + appendedData.size() + "\">");
+			pw.println("</DataArray>");
+			if (compress) {
+				appendedData.write(cheader.array(), 0, cheader.position());
+				appendedData.write(cdata, 0, clen);
+			} else
+				appendedData.write(raw, 0, num_bytes + Integer.BYTES);
+		}
+	}
+
+	private static void writeBytes(OutputBuffer out, ByteBuffer bb) {
+		out.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+	}
+
+	/**
+	 * compresses the data in raw into BLOCK_SIZE zlib blocks stored in cdata and
+	 * sets cheader to the VTK block header [num blocks, block size, last block size, compressed sizes]
+	 * @return total compressed size
+	 */
+	int compress(int num_bytes) {
+		if (deflater == null)
+			deflater = new Deflater(Deflater.BEST_SPEED);
+
+		int num_blocks = (num_bytes + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		cheader = ByteBuffer.allocate(Integer.BYTES * (3 + num_blocks)).order(byte_order);
+		cheader.putInt(num_blocks);
+		cheader.putInt(BLOCK_SIZE);
+		cheader.putInt(num_blocks > 0 ? num_bytes - (num_blocks - 1) * BLOCK_SIZE : 0);
+
+		int clen = 0;
+		for (int b = 0; b < num_blocks; b++) {
+			int off = b * BLOCK_SIZE;
+			deflater.reset();
+			deflater.setInput(raw, Integer.BYTES + off, Math.min(BLOCK_SIZE, num_bytes - off));
+			deflater.finish();
+			int start = clen;
+			while (!deflater.finished()) {
+				if (cdata.length - clen < 1024)
+					cdata = Arrays.copyOf(cdata, Math.max(2 * cdata.length, 2 * BLOCK_SIZE));
+				clen += deflater.deflate(cdata, clen, cdata.length - clen);
+			}
+			cheader.putInt(clen - start);
+		}
+		return clen;
+	}
+
 	/* convenience functions */
 	void outputDataArrayScalar(PrintWriter pw, String var_name, double data[]) {
 		outputDataArray(pw, var_name, data, 1);
@@ -1308,17 +1436,13 @@ public class VTKWriter extends Writer {
 	}
 
 	/* writes out the binary appended data */
-	void outputAppendedData(PrintWriter pw, ByteArrayOutputStream appendedData) {
+	void outputAppendedData(PrintWriter pw) {
 		if (output_format == OutputFormat.APPENDED) {
-			try {
-				pw.println("<AppendedData encoding=\"raw\">");
-				pw.flush(); // write out the file;
-				output_stream.write('_');
-				output_stream.write(appendedData.toByteArray());
-				pw.println("\n</AppendedData>");
-			} catch (IOException ex) {
-				Log.warning("Error writing binary data to the output file");
-			}
+			pw.println("<AppendedData encoding=\"raw\">");
+			pw.print('_');
+			pw.flush(); // move text to the file buffer before the raw bytes
+			file.append(appendedData);
+			pw.println("\n</AppendedData>");
 		}
 	}
 
@@ -9,11 +9,14 @@ package starfish.core.materials;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.boundaries.Boundary.BoundaryType;
@@ -25,19 +28,27 @@ import starfish.core.domain.Field2D;
 import starfish.core.domain.Mesh;
 import starfish.core.domain.Mesh.MeshBoundaryData;
 import starfish.core.domain.Mesh.Face;
-import starfish.core.domain.Mesh.Node;
+import starfish.core.domain.Mesh.WallSegmentIndex;
 import starfish.core.domain.UniformMesh;
 import starfish.core.io.InputParser;
 import starfish.core.materials.MaterialsModule.MaterialParser;
 import starfish.core.common.Vec;
+import starfish.core.common.RandomStreams;
+import starfish.core.common.RestartReader;
+import starfish.core.common.WorkerPool;
 import starfish.core.domain.Mesh.DomainBoundaryType;
+import starfish.core.domain.DomainModule.DomainType;
+import starfish.core.source.ParticleListSource;
+import starfish.core.source.ParticleListSource.ProductQueue;
 
 /** definition of particle-based material */
 public class KineticMaterial extends Material {
 
 	int particle_merge_skip; // number of time steps between particle merges, on -1 to disable
+	int particle_merge_ppc; // if >0, only cells with more particles than this are merged
 	int vel_grid_dims[]; // number of velocity bins in (u,v,w) spanning the min/max of each
-	int last_sort_to_cell_it; // time step of the last sort to cells
+	boolean array_storage; // store particles in flat primitive arrays instead of Particle objects
+	int sort_interval; // number of time steps between sorting particle blocks by cell, 0 to disable
 
 	public KineticMaterial(String name, Element element) {
 		super(name, element);
@@ -45,8 +56,22 @@ public class KineticMaterial extends Material {
 		/* kinetic material also need spwt */
 		spwt0 = InputParser.getDouble("spwt", element, 1.0);
 
+		/* particle storage, "objects" (default) or structure-of-arrays "arrays" */
+		String storage = InputParser.getValue("particle_storage", element, "objects");
+		if (storage.equalsIgnoreCase("arrays"))
+			array_storage = true;
+		else if (!storage.equalsIgnoreCase("objects"))
+			Log.error("Unknown particle_storage " + storage + ", expecting objects or arrays");
+
+		/* keep particles in each block ordered by cell for memory locality */
+		sort_interval = InputParser.getInt("sort_interval", element, 1);
+
 		/* support for particle merging */
 		particle_merge_skip = InputParser.getInt("particle_merge_skip", element, -1);
+		particle_merge_ppc = InputParser.getInt("particle_merge_ppc", element, -1);
+		/* with a target count, cells are checked every time step unless a skip is given */
+		if (particle_merge_ppc > 0 && particle_merge_skip <= 0)
+			particle_merge_skip = 1;
 		if (particle_merge_skip > 0) {
 			vel_grid_dims = InputParser.getIntList("vel_grid_dims", element);
 			if (vel_grid_dims.length != 3)
@@ -58,6 +83,10 @@ public class KineticMaterial extends Material {
 		Log.log("> charge   = " + charge);
 		Log.log("> mass = " + String.format("%.4g (kg)", mass));
 		Log.log("> spwt = " + spwt0);
+		if (array_storage)
+			Log.log("> particle storage = arrays");
+		if (sort_interval != 1)
+			Log.log("> sort interval = " + sort_interval);
 
 	}
 	/* specific weight */
@@ -79,6 +108,9 @@ public class KineticMaterial extends Material {
 
 	protected int part_id_counter = 0;		//counter for assigning consecutive particle ids, unique for each material
 
+	/* tag sets created by diagnostics, replaced rather than modified so blocks can read it while pushing */
+	volatile TagSet tag_sets[] = new TagSet[0];
+
 	@Override
 	public void init() {
 		/* call up */
@@ -123,13 +155,13 @@ public class KineticMaterial extends Material {
 		}
 
 		/* first loop through all particles */
-		moveParticles(false);
+		moveParticles(false, 0);
 
 		/* now move transferred particle */
 		// some number of loops so we don't run forever
 		int count = 0;
 		for (int loop = 0; loop < 10; loop++) {
-			moveParticles(true);
+			moveParticles(true, loop);
 
 			// count number of remaining particles waiting to transfer, ideally none
 			count = 0;
@@ -143,9 +175,10 @@ public class KineticMaterial extends Material {
 
 		/* merge particles if needed, this also sorts particles to cells */
 		if (particle_merge_skip > 0 && Starfish.getIt() % particle_merge_skip == 0) {
-			Log.log("Performing particle merge on material " + name);
-			for (MeshData md : mesh_data)
-				mergeParticles(md);
+			if (particle_merge_ppc <= 0)
+				Log.log("Performing particle merge on material " + name);
+			for (int m = 0; m < mesh_data.length; m++)
+				mergeParticles(mesh_data[m], m);
 		}
 
 		/* update densities and velocities */
@@ -171,21 +204,37 @@ public class KineticMaterial extends Material {
 		Field2D V = getV(md.mesh);
 		Field2D W = getW(md.mesh);
 
-		/* clear all fields */
-		Den.clear();
-		U.clear();
-		V.clear();
-		W.clear();
-
-		Iterator<Particle> iterator = md.getIterator();
-		while (iterator.hasNext()) {
-			Particle part = iterator.next();
-
-			Den.scatter(part.lc, part.mpw);
-			U.scatter(part.lc, part.vel[0] * part.mpw);
-			V.scatter(part.lc, part.vel[1] * part.mpw);
-			W.scatter(part.lc, part.vel[2] * part.mpw);
-		}
+		/* the movers deposit during the push, redo blocks changed since then by transfers or merges */
+		ArrayList<Runnable> jobs = new ArrayList<>();
+		for (ParticleBlock pb : md.particle_block)
+			if (pb.moments == null || pb.moments_mod_count != pb.mod_count)
+				jobs.add(() -> depositBlock(md, pb));
+		WorkerPool.invokeAll(jobs);
+
+		/* reduce the per-block buffers */
+		double den[][] = Den.getData();
+		double u[][] = U.getData();
+		double v[][] = V.getData();
+		double w[][] = W.getData();
+		int nj = md.mesh.nj;
+		WorkerPool.parallelFor(md.mesh.ni * nj, 4096, (chunk, n_min, n_max) -> {
+			for (int n = n_min; n < n_max; n++) {
+				double sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+				for (ParticleBlock pb : md.particle_block) {
+					double data[] = pb.moments.data;
+					sum0 += data[4 * n];
+					sum1 += data[4 * n + 1];
+					sum2 += data[4 * n + 2];
+					sum3 += data[4 * n + 3];
+				}
+				int i = n / nj;
+				int j = n % nj;
+				den[i][j] = sum0;
+				u[i][j] = sum1;
+				v[i][j] = sum2;
+				w[i][j] = sum3;
+			}
+		});
 
 		/* first get average velocities */
 		U.divideByField(Den);
@@ -196,54 +245,130 @@ public class KineticMaterial extends Material {
 		Den.scaleByVol();
 	}
 
-	/* updates field on a single mesh */
-	void moveParticles(boolean particle_transfer) {
+	/** rebuilds the moment buffer of a single block from the current particles */
+	void depositBlock(MeshData md, ParticleBlock pb) {
+		MomentBuffer moments = pb.getMoments(md.mesh);
+		moments.clear();
+
+		ParticleArray pa = pb.particle_array;
+		if (pa != null) {
+			/* stream through the flat arrays directly */
+			pb.sync();
+			for (int p = 0; p < pa.np; p++)
+				moments.deposit(pa.lc[2 * p], pa.lc[2 * p + 1], pa.mpw[p], pa.vel[3 * p], pa.vel[3 * p + 1],
+						pa.vel[3 * p + 2]);
+		} else {
+			for (Particle part : pb.particle_list)
+				moments.deposit(part.lc[0], part.lc[1], part.mpw, part.vel[0], part.vel[1], part.vel[2]);
+		}
+		pb.moments_mod_count = pb.mod_count;
+	}
+
+	/**
+	 * Block-private accumulator for the density and the three mass flux components.
+	 * Each mover deposits into the buffer of its own block so no synchronization is
+	 * needed, the buffers are summed in updateFields. Node values are interleaved so
+	 * that a particle touches one contiguous region.
+	 */
+	class MomentBuffer {
+		final Mesh mesh;
+		final double data[]; /* [4*(i*nj+j)+c], c = density, u, v, w */
+
+		MomentBuffer(Mesh mesh) {
+			this.mesh = mesh;
+			data = new double[4 * mesh.ni * mesh.nj];
+		}
+
+		void clear() {
+			Arrays.fill(data, 0);
+		}
+
+		/** scatters the particle weight and flux using the same weights as Field2D.scatter */
+		void deposit(double fi, double fj, double mpw, double u, double v, double w) {
+			int i = (int) fi;
+			int j = (int) fj;
+			if (i < 0 || j < 0 || i >= mesh.ni - 1 || j >= mesh.nj - 1)
+				return;
+
+			double di = fi - i;
+			double dj = fj - j;
+
+			/* equation 4.2 in Ruyten (93) */
+			if (Starfish.getDomainType() == DomainType.RZ) {
+				double rp = mesh.R(i + 1, fj);
+				double rm = mesh.R(i, fj);
+				double r = mesh.R(fi, fj);
+				di = 1 - (0.5 * (rp - r) * (2 * rp + 3 * rm - r) / (rp * rp - rm * rm));
+			} else if (Starfish.getDomainType() == DomainType.ZR) {
+				double rp = mesh.R(fi, j + 1);
+				double rm = mesh.R(fi, j);
+				double r = mesh.R(fi, fj);
+				dj = 1 - (0.5 * (rp - r) * (2 * rp + 3 * rm - r) / (rp * rp - rm * rm));
+			}
+
+			int n = i * mesh.nj + j;
+			add(n, (1 - di) * (1 - dj) * mpw, u, v, w);
+			add(n + mesh.nj, di * (1 - dj) * mpw, u, v, w);
+			add(n + mesh.nj + 1, di * dj * mpw, u, v, w);
+			add(n + 1, (1 - di) * dj * mpw, u, v, w);
+		}
+
+		private void add(int n, double m, double u, double v, double w) {
+			int k = 4 * n;
+			data[k] += m;
+			data[k + 1] += m * u;
+			data[k + 2] += m * v;
+			data[k + 3] += m * w;
+		}
+	}
+
+	/* updates field on a single mesh, pass separates the random streams of repeated transfer passes */
+	void moveParticles(boolean particle_transfer, int pass) {
 		/* allocate iterators */
 		ArrayList<ParticleMover> movers = new ArrayList<>();
 
 		if (!particle_transfer)
 		{
-			for (MeshData md : mesh_data) 
+			for (int m = 0; m < mesh_data.length; m++) {
+				MeshData md = mesh_data[m];
 				for (int block = 0; block < md.particle_block.length; block++) {
-					Iterator<Particle> iterator = md.getIterator(block);
-				
 					/* don't bother adding empty blocks */
-					if (iterator.hasNext()) {
-						
-						ParticleMover mover = new ParticleMover(md, this,  iterator, particle_transfer, "PartMover" + block);
+					if (md.particle_block[block].size() > 0) {
+						ParticleMover mover = new ParticleMover(md, this, md.particle_block[block]);
+						mover.rng_key = RandomStreams.key(mat_index, m, block, RandomStreams.TAG_PUSH);
 						movers.add(mover);
 					}
 				} //block
+			}
 		}
 		else  //particle transfer
 		{
-			for (MeshData md : mesh_data) 
+			for (int m = 0; m < mesh_data.length; m++)
 			{
+				MeshData md = mesh_data[m];
 				if (md.transfer_particles.isEmpty()) continue;
 				
 				//make a local copy so that we can add particles as needed without invalidating iterator
 				ArrayList<Particle> tp_copy = new ArrayList<>(md.transfer_particles);				
 				md.transfer_particles.clear();	//clear out the original list (this does not touch tp_copy - checked				
-				ParticleMover mover = new ParticleMover(md, this, tp_copy.iterator(), particle_transfer, "PartMover_tp" );
+				ParticleMover mover = new ParticleMover(md, this, tp_copy.iterator(), particle_transfer);
+				mover.rng_key = RandomStreams.key(mat_index, m, pass, RandomStreams.TAG_TRANSFER);
 				movers.add(mover);				
 			}
 			
 		}
 
 
-		/* move particles */
-		for (ParticleMover mover : movers)
-			mover.start();
+		/* move particles on the shared worker pool and wait to finish */
+		WorkerPool.invokeAll(movers);
 
-		/* wait to finish */
-		try {
-			for (ParticleMover mover : movers)
-				mover.join();
-		} catch (InterruptedException ex) {
-			Log.warning("Particle Mover thread interruption");
+		/* merge surface data and product particles in mover order */
+		for (ParticleMover mover : movers) {
+			addSurfaceTally(mover.tally);
+			mover.products.flush();
 		}
-				
-		/* add up totals */
+
+		/* add up totals, each mover already holds the sums for its block */
 		if (!particle_transfer) {
 			mass_sum = 0;
 			Vec.set(momentum_sum, 0);
@@ -272,20 +397,39 @@ public class KineticMaterial extends Material {
 		return getMeshData(mesh).getIterator();
 	}
 
-	/* updates particles on a single block */
-	class ParticleMover extends Thread {
+	/* updates particles on a single block, executed as a task on the worker pool */
+	class ParticleMover implements Runnable {
 
 		protected MeshData md;
+		protected ParticleBlock block; // block to push, null when moving transferred particles
 		protected Iterator<Particle> iterator;
 		protected boolean particle_transfer;
 		double N_sum; // total number of physical particles
 		double P_sum[] = new double[3]; // total momentum
 		double E_sum; // total energy
 		protected KineticMaterial km;	// the associated km
+		long rng_key;	// identifies the random stream used by this mover
+
+		/* scratch data reused by all particles pushed by this mover */
+		final double old[] = new double[2]; /* old physical coordinate */
+		final double old_lc[] = new double[2]; /* old logical coordinate */
+		final double ef[] = new double[3];
+		final double bf[] = new double[3];
+		double dt;
+		MomentBuffer moments; /* deposit target of the block being pushed */
+		final SegmentVisits visits = new SegmentVisits();
+
+		/* surface data and product particles, added to shared storage after all movers finish */
+		final SurfaceTally tally = new SurfaceTally();
+		final ProductQueue products = new ProductQueue();
+
+		/** mover for the particles stored in a block */
+		private ParticleMover(MeshData md, KineticMaterial km, ParticleBlock block) {
+			this(md, km, (Iterator<Particle>) null, false);
+			this.block = block;
+		}
 
-		private ParticleMover(MeshData md, KineticMaterial km, Iterator<Particle> iterator, boolean particle_transfer, String thread_name) {
-			super(thread_name);
-
+		private ParticleMover(MeshData md, KineticMaterial km, Iterator<Particle> iterator, boolean particle_transfer) {
 			this.md = md;
 			this.iterator = iterator;
 			this.particle_transfer = particle_transfer;
@@ -297,23 +441,39 @@ public class KineticMaterial extends Material {
 
 		@Override
 		public void run() {
-			final int max_bounces = 10; /* maximum number of surface bounces per step */
-			double old[] = new double[2]; /* old physical coordinate */
-			double old_lc[] = new double[2]; /* old logical coordinate */
-			double ef[] = new double[3];
-			double bf[] = new double[3];
+			dt = Starfish.getDt();
+
+			/* draw random numbers from a stream that does not depend on the thread */
+			SplittableRandom prev = RandomStreams.bind(rng_key);
+			ProductQueue prev_products = ParticleListSource.stage(products);
+			try {
+				if (block != null) {
+					moments = block.getMoments(md.mesh);
+					moments.clear();
+				}
 
-			Mesh mesh = md.mesh;
-			Field2D Efi = md.Efi;
-			Field2D Efj = md.Efj;
+				if (block != null && block.particle_array != null)
+					moveArray(block);
+				else {
+					if (block != null)
+						iterator = block.iterator();
+					moveIterator();
+				}
 
-			Field2D Bfi = md.Bfi;
-			Field2D Bfj = md.Bfj;
-			
-			double time = Starfish.getTime();  // for possible b-field scaling
-			double dt = Starfish.getDt();
-			
-			int p=0;
+				if (block != null) {
+					block.mod_count++;	/* cells changed */
+					if (sort_interval > 0 && Starfish.getIt() % sort_interval == 0)
+						block.sortByCell(md.mesh.ni - 1, md.mesh.nj - 1);
+					block.moments_mod_count = block.mod_count;
+				}
+			} finally {
+				ParticleListSource.unstage(prev_products);
+				RandomStreams.unbind(prev);
+			}
+		}
+
+		/** pushes particles held in Particle objects */
+		void moveIterator() {
 			while (iterator.hasNext()) {
 
 				Particle part = iterator.next();
@@ -323,102 +483,143 @@ public class KineticMaterial extends Material {
 					iterator.remove();
 					continue;
 				}
-					
-				//periodically yield to prevent lock up
-				if (++p%10000==0) Thread.yield();
-				
 				
-				/* increment particle time and velocity */
-				if (!particle_transfer) {
-					part.dt += dt; 
-
-					/* update velocity */
-					ef[0] = Efi.gather(part.lc);
-					ef[1] = Efj.gather(part.lc);
-
-					/* update velocity */
-					bf[0] = Bfi.gather(part.lc);
-					bf[1] = Bfj.gather(part.lc);
-
-					/* update velocity */
-					if (bf[0] == 0 && bf[1] == 0) {
-						part.vel[0] += q_over_m * ef[0] * part.dt;
-						part.vel[1] += q_over_m * ef[1] * part.dt;
-					} else {
-						//double factor = Math.min(time/(2000*1e-12),1.0);
-						double factor = 1;
-						bf[0]*=factor;
-						bf[1]*=factor;
-						UpdateVelocityBoris(part, ef, bf);
-					}
+				boolean alive = push(part);
+				if (!alive) {
+					iterator.remove();
+					continue;
 				}
 
-				int bounces = 0;
-				boolean alive = true;
-
-				/* iterate while we have time remaining */
-				while (part.dt > 0 && bounces++ < max_bounces) {
-					/* save old position */
-					old[0] = part.pos[0];
-					old[1] = part.pos[1];
-
-					old_lc[0] = part.lc[0];
-					old_lc[1] = part.lc[1];
-
-					/* update position */
-					part.pos[0] += part.vel[0] * part.dt;
-					part.pos[1] += part.vel[1] * part.dt;
-
-					switch (Starfish.getDomainType()) {
-					case RZ:
-						rotateToRZ(part);
-						break;
-					case ZR:
-						rotateToZR(part);
-						break;
-					default:
-						part.pos[2] += part.vel[2] * part.dt;
-						break;
-					}
+				//add the particle to the main population if it is in the particle_transfer list
+				if (particle_transfer) {
+					md.addParticle(part);
+				}
+				else if (moments != null)
+					moments.deposit(part.lc[0], part.lc[1], part.mpw, part.vel[0], part.vel[1], part.vel[2]);
 
-					part.lc = mesh.XtoL(part.pos);
+			} /* end of particle loop */
+		}
 
-					/* check if particle hit anything or left the domain */
-					alive = ProcessBoundary(part, mesh, old, old_lc);
+		/**
+		 * pushes particles stored in flat arrays, each particle is loaded into a scratch
+		 * object, pushed, and copied back so no per-particle objects are created
+		 */
+		void moveArray(ParticleBlock block) {
+			ParticleArray pa = block.particle_array;
+			block.sync();	/* write back any particles handed out by iterators */
 
-					/* add post push/surface impact position to trace */
-					//if (part.has_trace)
-					//	Starfish.particle_trace_module.addTrace(km, part);
+			Particle part = new Particle(km);
+			part.lc = new double[2];
 
-					if (!alive) {
-						iterator.remove();
-						break;
-					}
-					
-				} /* dt */
-
-				/*
-				 * compute total mass, momentum, energy for this block of particles note, here I
-				 * am also including particles eventually going to the transfer bin. If we ever
-				 * need particle counts on a mesh-by-mesh basis, we may need to perform this
-				 * calculation post-transfer.
-				 */
-				if (alive) {
-					/* save momentum for diagnostics, will be multiplied by mass in updatefields */
-					N_sum += part.mpw;
-					P_sum[0] += part.mpw * part.vel[0];
-					P_sum[1] += part.mpw * part.vel[1];
-					P_sum[2] += part.mpw * part.vel[2];
-					E_sum += part.mpw * Vec.mag3(part.vel);
+			int p = 0;
+			while (p < pa.np) {
+				// first check for zero weight particles from merge or chemistry ops
+				if (pa.mpw[p] <= 0) {
+					pa.remove(p);	/* last particle moved to p, process it next */
+					continue;
 				}
 
-				//add the particle to the main population if it is in the particle_transfer list
-				if (alive && particle_transfer) {
-					md.addParticle(part);
+				pa.load(p, part);
+				if (push(part)) {
+					pa.store(p, part);
+					moments.deposit(part.lc[0], part.lc[1], part.mpw, part.vel[0], part.vel[1], part.vel[2]);
+					p++;
 				}
+				else
+					pa.remove(p);
+			}
+		}
 
-			} /* end of particle loop */
+		/**
+		 * advances a single particle through the time step, including surface bounces and
+		 * domain exits, and adds its contribution to the mass, momentum, and energy sums
+		 * @return false if the particle was removed
+		 */
+		boolean push(Particle part) {
+			final int max_bounces = 10; /* maximum number of surface bounces per step */
 
+			Mesh mesh = md.mesh;
+
+			/* increment particle time and velocity */
+			if (!particle_transfer) {
+				part.dt += dt; 
+
+				/* update velocity */
+				ef[0] = md.Efi.gather(part.lc);
+				ef[1] = md.Efj.gather(part.lc);
+
+				/* update velocity */
+				bf[0] = md.Bfi.gather(part.lc);
+				bf[1] = md.Bfj.gather(part.lc);
+
+				/* update velocity */
+				if (bf[0] == 0 && bf[1] == 0) {
+					part.vel[0] += q_over_m * ef[0] * part.dt;
+					part.vel[1] += q_over_m * ef[1] * part.dt;
+				} else {
+					//double factor = Math.min(time/(2000*1e-12),1.0);
+					double factor = 1;
+					bf[0]*=factor;
+					bf[1]*=factor;
+					UpdateVelocityBoris(part, ef, bf);
+				}
+			}
+
+			int bounces = 0;
+
+			/* iterate while we have time remaining */
+			while (part.dt > 0 && bounces++ < max_bounces) {
+				/* save old position */
+				old[0] = part.pos[0];
+				old[1] = part.pos[1];
+
+				old_lc[0] = part.lc[0];
+				old_lc[1] = part.lc[1];
+
+				/* update position */
+				part.pos[0] += part.vel[0] * part.dt;
+				part.pos[1] += part.vel[1] * part.dt;
+
+				switch (Starfish.getDomainType()) {
+				case RZ:
+					rotateToRZ(part);
+					break;
+				case ZR:
+					rotateToZR(part);
+					break;
+				default:
+					part.pos[2] += part.vel[2] * part.dt;
+					break;
+				}
+
+				mesh.XtoL(part.pos, part.lc);
+
+				/* check if particle hit anything or left the domain */
+				boolean alive = ProcessBoundary(part, mesh, old, old_lc, visits, tally);
+
+				/* add post push/surface impact position to trace */
+				//if (part.has_trace)
+				//	Starfish.particle_trace_module.addTrace(km, part);
+
+				if (!alive)
+					return false;
+				
+			} /* dt */
+
+			/*
+			 * compute total mass, momentum, energy for this block of particles note, here I
+			 * am also including particles eventually going to the transfer bin. If we ever
+			 * need particle counts on a mesh-by-mesh basis, we may need to perform this
+			 * calculation post-transfer.
+			 */
+			/* save momentum for diagnostics, will be multiplied by mass in updatefields */
+			N_sum += part.mpw;
+			P_sum[0] += part.mpw * part.vel[0];
+			P_sum[1] += part.mpw * part.vel[1];
+			P_sum[2] += part.mpw * part.vel[2];
+			E_sum += part.mpw * Vec.mag3(part.vel);
+
+			return true;
 		}
 
 		private void rotateToRZ(Particle part) {
@@ -462,13 +663,39 @@ public class KineticMaterial extends Material {
 		}
 	}
 
+	/** marks wall segments already tested by ProcessBoundary, reused by a mover for all its particles */
+	static class SegmentVisits {
+		int stamp[] = new int[0];
+		int pass = 0;
+
+		/** starts a new search over num_segments segments */
+		void begin(int num_segments) {
+			if (stamp.length < num_segments) {
+				stamp = new int[num_segments];
+				pass = 0;
+			}
+			if (++pass == Integer.MAX_VALUE) {
+				Arrays.fill(stamp, 0);
+				pass = 1;
+			}
+		}
+
+		/** @return true the first time segment k is seen in the current search */
+		boolean visit(int k) {
+			if (stamp[k] == pass)
+				return false;
+			stamp[k] = pass;
+			return true;
+		}
+	}
+
 	/**
 	 * checks for particle surface hits and/or domain escape
 	 *
 	 * @param id return value, contains info about impact location
 	 * @return remaining dt, or -1 if absorbed
 	 */
-	boolean ProcessBoundary(Particle part, Mesh mesh, double old[], double lc_old[]) {
+	boolean ProcessBoundary(Particle part, Mesh mesh, double old[], double lc_old[], SegmentVisits visits, SurfaceTally tally) {
 		Face exit_face;
 		boolean alive = true;
 
@@ -479,17 +706,10 @@ public class KineticMaterial extends Material {
 		 * capture bounding box of particle motion and particle position before pushing
 		 * particle into domain
 		 */
-		double lc_min[] = new double[2];
-		double lc_max[] = new double[2];
-		lc_min[0] = Math.min(part.lc[0], lc_old[0]);
-		lc_min[1] = Math.min(part.lc[1], lc_old[1]);
-		lc_max[0] = Math.max(part.lc[0], lc_old[0]);
-		lc_max[1] = Math.max(part.lc[1], lc_old[1]);
-
-		int i_min = (int) lc_min[0];
-		int i_max = (int) lc_max[0];
-		int j_min = (int) lc_min[1];
-		int j_max = (int) lc_max[1];
+		int i_min = (int) Math.min(part.lc[0], lc_old[0]);
+		int i_max = (int) Math.max(part.lc[0], lc_old[0]);
+		int j_min = (int) Math.min(part.lc[1], lc_old[1]);
+		int j_max = (int) Math.max(part.lc[1], lc_old[1]);
 
 		/* verify above min/max are in range */
 		if (i_min < 0)
@@ -501,56 +721,54 @@ public class KineticMaterial extends Material {
 		if (j_max >= mesh.nj)
 			j_max = mesh.nj - 1;
 
-		/* assemble a list of segments in this block, using a set to avoid duplicates */
-		Set<Segment> segments = new HashSet();
-
-		/* make a set of all segments in the bounding box */
-		for (int i = i_min; i <= i_max; i++)
-			for (int j = j_min; j <= j_max; j++) {
-				Node node = mesh.getNode(i, j);
-
-				for (Segment seg : node.segments)
-					if (seg.getBoundaryType() == BoundaryType.DIRICHLET ||
-					// seg.getBoundaryType() == BoundaryType.VIRTUAL || /*9/2019 disabled virtual
-					// here, not sure why being added, causes particle leaks
-							seg.getBoundaryType() == BoundaryType.SINK)
-						segments.add(seg);
-			}
+		/* iterate over the wall segments near the nodes in the bounding box and find the first one to be hit */
+		WallSegmentIndex walls = mesh.getWallSegmentIndex();
+		boolean single_node = (i_min == i_max && j_min == j_max);
+		if (!single_node)
+			visits.begin(walls.segments.length);
 
-		/* iterate over the segments and find the first one to be hit */
 		double tp_min = 2.0, tsurf_min = 0;
 		Segment seg_min = null;
-		for (Segment seg : segments) {
-			/*
-			 * t[0] is the location along the surface, t[1] is location along particle
-			 * vector
-			 */
-			double t[] = seg.intersect(old, part.pos);
-			double t_part = t[1];
-
-			/* do we have an intersection, excluding starting point? */
-			/*
-			 * todo: need to consider velocity direction, only makes sense if moving away
-			 * from surface
-			 */
-			if (t_part > 0) {
-				/*
-				 * skip over particles that collide with surface at the beginning of their time
-				 * step, as long as they are moving away from the surface
-				 */
-				double acos = Vec.dot2(seg.normal(t[0]), part.vel) / Vec.mag2(part.vel);
-				if (t_part < Constants.FLT_EPS && // ignore direction for virtual walls since particles can pass through
-						(acos > 0 || seg.getBoundaryType() == BoundaryType.VIRTUAL))
-					continue;
-
-				/* is this a new minimum? */
-				if (t_part < tp_min) {
-					tp_min = t_part;
-					tsurf_min = t[0];
-					seg_min = seg;
+		for (int i = i_min; i <= i_max; i++)
+			for (int j = j_min; j <= j_max; j++) {
+				int last = walls.last(i, j);
+				for (int k = walls.first(i, j); k < last; k++) {
+					/* a segment can be listed by several nodes, test it only once */
+					if (!single_node && !visits.visit(walls.id(k)))
+						continue;
+					Segment seg = walls.segments[walls.id(k)];
+
+					/*
+					 * t[0] is the location along the surface, t[1] is location along particle
+					 * vector
+					 */
+					double t[] = seg.intersect(old, part.pos);
+					double t_part = t[1];
+
+					/* do we have an intersection, excluding starting point? */
+					/*
+					 * todo: need to consider velocity direction, only makes sense if moving away
+					 * from surface
+					 */
+					if (t_part > 0) {
+						/*
+						 * skip over particles that collide with surface at the beginning of their time
+						 * step, as long as they are moving away from the surface
+						 */
+						double acos = Vec.dot2(seg.normal(t[0]), part.vel) / Vec.mag2(part.vel);
+						if (t_part < Constants.FLT_EPS && // ignore direction for virtual walls since particles can pass through
+								(acos > 0 || seg.getBoundaryType() == BoundaryType.VIRTUAL))
+							continue;
+
+						/* is this a new minimum? */
+						if (t_part < tp_min) {
+							tp_min = t_part;
+							tsurf_min = t[0];
+							seg_min = seg;
+						}
+					}
 				}
 			}
-		}
 
 		/* TODO: 11/2018: why is virtual being added in the first place? */
 		if (seg_min != null && seg_min.getBoundaryType() == BoundaryType.VIRTUAL)
@@ -564,7 +782,7 @@ public class KineticMaterial extends Material {
 			/* move to surface (almost) */
 			part.pos[0] = old[0] + tp_min * (part.pos[0] - old[0]);
 			part.pos[1] = old[1] + tp_min * (part.pos[1] - old[1]);
-			part.lc = mesh.XtoL(part.pos);
+			mesh.XtoL(part.pos, part.lc);
 
 			/* set dt_rem */
 			part.dt = dt0 * (1 - tp_min);
@@ -593,11 +811,11 @@ public class KineticMaterial extends Material {
 				alive = false;
 
 			/* deposit flux and deposit, if stuck */
-			addSurfaceMomentum(boundary_hit, boundary_t, part.vel, part.mpw);
+			addSurfaceMomentum(tally, boundary_hit, boundary_t, part.vel, part.mpw);
 
 			if (!alive) {
 				/* we will multiply by mass in "finish" */
-				addSurfaceMassDeposit(boundary_hit, boundary_t, part.mpw);
+				addSurfaceMassDeposit(tally, boundary_hit, boundary_t, part.mpw);
 				return alive;
 			}
 		}
@@ -712,12 +930,17 @@ public class KineticMaterial extends Material {
 				else
 					index = (int) part.lc[0];
 				MeshBoundaryData bc = mesh.boundaryData(exit_face, index);
-				for (int m = 0; m < 2; m++) {
-					if (bc.neighbor[m] != null && bc.neighbor[m].containsPos(part.pos)) {
-						Mesh next = bc.neighbor[m];
-						part.lc = next.XtoL(part.pos);
-						getMeshData(next).addTransferParticle(part);
-					}
+				Mesh next = null;
+				for (int m = 0; m < 2 && next == null; m++) {
+					if (bc.neighbor[m] != null && bc.neighbor[m].containsPos(part.pos))
+						next = bc.neighbor[m];
+				}
+				/* particle crossed into a mesh that is not a direct neighbor, such as across a corner */
+				if (next == null)
+					next = Starfish.domain_module.getMesh(part.pos);
+				if (next != null && next != mesh) {
+					part.lc = next.XtoL(part.pos);
+					getMeshData(next).addTransferParticle(part);
 				}
 				return false;
 			case CIRCUIT: // energy boundary for electrons
@@ -757,11 +980,21 @@ public class KineticMaterial extends Material {
 	 * @return
 	 */
 	public boolean addParticle(MeshData md, Particle part) {
+		prepareParticle(md, part);
+		part.id = part_id_counter++;
+
+		md.addParticle(part);
+		return true;
+	}
+
+	/**
+	 * sets logical coordinates of a new particle and rewinds its velocity by half a time
+	 * step, only reads the material so it can be called from worker threads
+	 */
+	void prepareParticle(MeshData md, Particle part) {
 		if (part.lc == null) {
 			Mesh mesh = md.mesh;
 			part.lc = mesh.XtoL(part.pos);
-			
-			
 
 			/*
 			 * particles could be added on the plus edge by a source, make sure LC is in
@@ -794,11 +1027,82 @@ public class KineticMaterial extends Material {
 		}
 
 		part.dt = 0;
-		part.id = part_id_counter++;
+	}
+
+	/**
+	 * Particles created by one task of a source sampled on the worker pool, see
+	 * Source.sampleKinetic. add() locates and prepares a particle without changing the
+	 * material, addBatches then appends the particles of all batches in order.
+	 */
+	public class ParticleBatch {
+		final ArrayList<Particle> parts = new ArrayList<>();
+		final ArrayList<MeshData> part_md = new ArrayList<>(); /* mesh data of each particle */
+		double mpw_sum = 0;
+
+		/** @return false if the particle is outside the domain */
+		public boolean add(Particle part) {
+			Mesh mesh = Starfish.domain_module.getMesh(part.pos);
+			if (mesh == null)
+				return false;
 
+			MeshData md = getMeshData(mesh);
+			prepareParticle(md, part);
+			if (!Vec.isFinite(part.vel)) {
+				Log.warning("Infinite vel");
+				return false;
+			}
+			parts.add(part);
+			part_md.add(md);
+			mpw_sum += part.mpw;
+			return true;
+		}
 
-		md.addParticle(part);
-		return true;
+		/** @return number of particles in the batch */
+		public int size() {
+			return parts.size();
+		}
+
+		/** @return total macroparticle weight of the batch */
+		public double getMpwSum() {
+			return mpw_sum;
+		}
+	}
+
+	/** @return new empty batch */
+	public ParticleBatch newBatch() {
+		return new ParticleBatch();
+	}
+
+	/**
+	 * adds particles of the batches in order, ids and blocks are assigned as by
+	 * addParticle but without scanning the blocks for every particle
+	 */
+	public void addBatches(ParticleBatch batches[]) {
+		IdentityHashMap<MeshData, int[]> block_sizes = new IdentityHashMap<>();
+		for (ParticleBatch batch : batches) {
+			for (int k = 0; k < batch.parts.size(); k++) {
+				Particle part = batch.parts.get(k);
+				MeshData md = batch.part_md.get(k);
+
+				int size[] = block_sizes.get(md);
+				if (size == null) {
+					size = new int[md.particle_block.length];
+					for (int i = 0; i < size.length; i++)
+						size[i] = md.particle_block[i].size();
+					block_sizes.put(md, size);
+				}
+
+				/* block with fewest particles */
+				int block = 0;
+				for (int i = 1; i < size.length; i++)
+					if (size[i] < size[block])
+						block = i;
+
+				part.id = part_id_counter++;
+				md.particle_block[block].add(part);
+				size[block]++;
+			}
+		}
 	}
 
 	/**
@@ -904,26 +1208,27 @@ public class KineticMaterial extends Material {
 	public void saveRestartData(DataOutputStream out) throws IOException {
 		out.writeInt(num_samples);
 
+		ByteBuffer record = ByteBuffer.allocate(RESTART_RECORD_SIZE);
 		for (Mesh mesh : Starfish.getMeshList()) {
 			/* save particles */
-			Iterator<KineticMaterial.Particle> iter = getIterator(mesh);
-			out.writeLong(getMeshData(mesh).getNp());
-
-			while (iter.hasNext()) {
-				Particle part = iter.next();
-				for (int i = 0; i < 3; i++) {
-					out.writeDouble(part.pos[i]);
-					out.writeDouble(part.vel[i]);
+			MeshData md = getMeshData(mesh);
+			md.sync();
+			out.writeLong(md.getNp());
+
+			Particle scratch = new Particle(this);
+			scratch.lc = new double[2];
+			for (ParticleBlock pb : md.particle_block) {
+				ParticleArray pa = pb.particle_array;
+				if (pa != null) {
+					/* load into a scratch particle instead of creating iterator copies */
+					for (int p = 0; p < pa.np; p++) {
+						pa.load(p, scratch);
+						writeParticle(out, record, scratch);
+					}
 				}
-
-				for (int i = 0; i < 2; i++)
-					out.writeDouble(part.lc[i]);
-
-				out.writeDouble(part.dt);
-				out.writeDouble(part.mpw);
-				out.writeDouble(part.mass);
-				out.writeInt(part.born_it);
-				out.writeInt(part.id);
+				else
+					for (Particle part : pb.particle_list)
+						writeParticle(out, record, part);
 			}
 
 			/* next save fields */
@@ -940,6 +1245,48 @@ public class KineticMaterial extends Material {
 		}
 	}
 
+	/** size of a particle record in the restart file: pos, vel, lc, dt, mpw, mass, born_it, id */
+	public static final int RESTART_RECORD_SIZE = 11 * 8 + 2 * 4;
+
+	/** writes a single particle record to the restart file, the record is packed first
+	 * so that it is written with a single call */
+	private void writeParticle(DataOutputStream out, ByteBuffer record, Particle part) throws IOException {
+		record.clear();
+		for (int i = 0; i < 3; i++) {
+			record.putDouble(part.pos[i]);
+			record.putDouble(part.vel[i]);
+		}
+
+		for (int i = 0; i < 2; i++)
+			record.putDouble(part.lc[i]);
+
+		record.putDouble(part.dt);
+		record.putDouble(part.mpw);
+		record.putDouble(part.mass);
+		record.putInt(part.born_it);
+		record.putInt(part.id);
+		out.write(record.array(), 0, RESTART_RECORD_SIZE);
+	}
+
+	/** reads a single particle record written by writeParticle starting at offset */
+	private static void readParticle(ByteBuffer bb, int offset, Particle part) {
+		for (int i = 0; i < 3; i++) {
+			part.pos[i] = bb.getDouble(offset + 16 * i);
+			part.vel[i] = bb.getDouble(offset + 16 * i + 8);
+		}
+
+		if (part.lc == null)
+			part.lc = new double[2];
+		for (int i = 0; i < 2; i++)
+			part.lc[i] = bb.getDouble(offset + 48 + 8 * i);
+
+		part.dt = bb.getDouble(offset + 64);
+		part.mpw = bb.getDouble(offset + 72);
+		part.mass = bb.getDouble(offset + 80);
+		part.born_it = bb.getInt(offset + 88);
+		part.id = bb.getInt(offset + 92);
+	}
+
 	/* saves restart data */
 
 	/**
@@ -953,6 +1300,7 @@ public class KineticMaterial extends Material {
 	public void loadRestartData(DataInputStream in) throws IOException {
 		num_samples = in.readInt();
 
+		ByteBuffer record = ByteBuffer.allocate(RESTART_RECORD_SIZE);
 		/* load in particles */
 		for (Mesh mesh : Starfish.getMeshList()) {
 			long np = in.readLong();
@@ -960,21 +1308,8 @@ public class KineticMaterial extends Material {
 
 			for (long p = 0; p < np; p++) {
 				Particle part = new Particle(this);
-				for (int i = 0; i < 3; i++) {
-					part.pos[i] = in.readDouble();
-					part.vel[i] = in.readDouble();
-				}
-
-				part.lc = new double[2];
-				for (int i = 0; i < 2; i++)
-					part.lc[i] = in.readDouble();
-
-				part.dt = in.readDouble();
-				part.mpw = in.readDouble();
-				part.mass = in.readDouble();
-				part.born_it = in.readInt();
-				part.id = in.readInt();
-
+				in.readFully(record.array(), 0, RESTART_RECORD_SIZE);
+				readParticle(record, 0, part);
 				addParticle(md, part);
 			}
 
@@ -999,192 +1334,417 @@ public class KineticMaterial extends Material {
 		}
 	}
 
+	/* number of particle records mapped at once when loading restart data */
+	static final int RESTART_MAP_RECORDS = Integer.MAX_VALUE / RESTART_RECORD_SIZE;
+
 	/**
-	 * uses the algorithm from Justin Fox' dissertation to merge particles
-	 * 
-	 * @param md mesh to apply the merge to
+	 * reads data from a memory-mapped restart file. Particle records are decoded in
+	 * parallel directly into the particle blocks. If the mesh layout changed since
+	 * the file was written, particles are relocated to the mesh containing them and
+	 * the stored fields are skipped, they are recomputed on the next update.
 	 * 
+	 * @param in
+	 * @throws IOException
 	 */
-	void mergeParticles(MeshData md) {
-		/* first sort particles to physical cells */
-		sortParticlesToCells(md);
-		for (int i = 0; i < md.mesh.ni; i++)
-			for (int j = 0; j < md.mesh.nj; j++) {
-				/* don't sort if less than 10 particles */
-				if (md.cell_data[i][j].parts_in_cell.size() >= 10)
-					mergeParticlesInCell(md, i, j);
+	@Override
+	public void loadRestartData(RestartReader in) throws IOException {
+		DataInputStream data = in.data();
+		num_samples = data.readInt();
+		if (!in.mesh_match)
+			num_samples = 0; /* stored averages are not used */
+
+		long lost = 0;
+		for (int m = 0; m < in.file_ni.length; m++) {
+			long np = data.readLong();
+			Mesh mesh = in.mesh_match ? Starfish.getMeshList().get(m) : null;
+			lost += loadParticles(in, in.position(), np, mesh);
+			in.skip(np * RESTART_RECORD_SIZE);
+
+			if (mesh == null) {
+				in.skip(9L * in.file_ni[m] * in.file_nj[m] * 8);
+				continue;
 			}
 
-		// invalidate sort since now have new particles
-		last_sort_to_cell_it = -1;
+			/* next load fields */
+			getDen(mesh).binaryRead(data);
+			getDenAve(mesh).binaryRead(data);
+			getT(mesh).binaryRead(data);
+			getU(mesh).binaryRead(data);
+			getV(mesh).binaryRead(data);
+			getW(mesh).binaryRead(data);
+			getUAve(mesh).binaryRead(data);
+			getVAve(mesh).binaryRead(data);
+			getWAve(mesh).binaryRead(data);
+
+			/* set pressure */
+			Field2D p = getP(mesh);
+			Field2D nd_ave = getDenAve(mesh);
+			Field2D T = getT(mesh);
+			for (int i = 0; i < mesh.ni; i++)
+				for (int j = 0; j < mesh.nj; j++)
+					p.data[i][j] = nd_ave.at(i, j) * Constants.K * T.at(i, j);
+		}
 
+		if (lost > 0)
+			Log.warning(String.format("%d %s particles from the restart file are outside the domain", lost, name));
 	}
 
 	/**
-	 * performs the actual merge in a single physical cell, 
-	 * based on Eq 2.80 in Justin M. Fox PhD dissertation
+	 * decodes np particle records starting at offset in parallel
 	 * 
-	 * @param md mesh to apply the merge to
-	 * @param i  cell i-index
-	 * @param j  cell j-index
+	 * @param mesh mesh to add the particles to, one task fills each block, if null
+	 *             particles are added to the mesh containing them with lc recomputed
+	 * @return number of particles not contained by any mesh
 	 */
-	void mergeParticlesInCell(MeshData md, int i, int j) {
-		/* create velocity grid */
-		Mesh mesh = md.mesh;
-
-		/* don't do anything if we have fewer than 10 particles */
-		LinkedList<Particle> parts_in_cell = md.cell_data[i][j].parts_in_cell;
+	long loadParticles(RestartReader in, long offset, long np, Mesh mesh) throws IOException {
+		if (np == 0)
+			return 0;
 
-		double vel_min[] = new double[3];
-		double vel_max[] = new double[3];
-
-		/* initialize limits to first particle */
-		Particle part0 = parts_in_cell.get(0);
-		for (int d = 0; d < 3; d++) {
-			vel_min[d] = part0.vel[d];
-			vel_max[d] = part0.vel[d];
+		ArrayList<Mesh> mesh_list = Starfish.getMeshList();
+		final int num_tasks = (mesh != null) ? getMeshData(mesh).particle_block.length
+				: WorkerPool.numChunks((int) Math.min(np, Integer.MAX_VALUE), 10000);
+
+		/* relocated particles, per task and mesh */
+		final ArrayList<ArrayList<ArrayList<Particle>>> relocated = new ArrayList<>(num_tasks);
+		for (int t = 0; t < num_tasks; t++) {
+			ArrayList<ArrayList<Particle>> per_mesh = new ArrayList<>(mesh_list.size());
+			for (int m = 0; m < mesh_list.size(); m++)
+				per_mesh.add(new ArrayList<>());
+			relocated.add(per_mesh);
+		}
+		final long lost[] = new long[num_tasks];
+		final int max_id[] = new int[num_tasks];
+
+		ArrayList<Runnable> jobs = new ArrayList<>(num_tasks);
+		for (int t = 0; t < num_tasks; t++) {
+			final int task = t;
+			final long p_min = np * t / num_tasks;
+			final long p_max = np * (t + 1) / num_tasks;
+			jobs.add(() -> {
+				ParticleBlock pb = (mesh != null) ? getMeshData(mesh).particle_block[task] : null;
+				Particle scratch = new Particle(this); /* copied by array storage blocks */
+				max_id[task] = -1;
+				try {
+					for (long p0 = p_min; p0 < p_max; p0 += RESTART_MAP_RECORDS) {
+						int n = (int) Math.min(RESTART_MAP_RECORDS, p_max - p0);
+						ByteBuffer bb = in.map(offset + p0 * RESTART_RECORD_SIZE, (long) n * RESTART_RECORD_SIZE);
+						for (int p = 0; p < n; p++) {
+							Particle part = (pb != null && pb.particle_array != null) ? scratch : new Particle(this);
+							readParticle(bb, p * RESTART_RECORD_SIZE, part);
+							if (part.id > max_id[task])
+								max_id[task] = part.id;
+
+							if (pb != null) {
+								pb.add(part);
+								continue;
+							}
+
+							Mesh target = Starfish.domain_module.getMesh(part.pos);
+							if (target == null) {
+								lost[task]++;
+								continue;
+							}
+							part.lc = target.XtoL(part.pos);
+							if (part.lc[0] >= target.ni)
+								part.lc[0] = target.ni - 1;
+							if (part.lc[1] >= target.nj)
+								part.lc[1] = target.nj - 1;
+
+							int m = mesh_list.indexOf(target);
+							relocated.get(task).get(m).add(part);
+						}
+					}
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
 		}
 
-		/* allocate velocity grid */
-		int nu = vel_grid_dims[0]; // to save on typing
-		int nv = vel_grid_dims[1];
-		int nw = vel_grid_dims[2];
+		try {
+			WorkerPool.invokeAll(jobs);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 
-		CellData vel_cell_data[][][] = new CellData[nu][nv][nw];
-		for (int iu = 0; iu < nu; iu++)
-			for (int iv = 0; iv < nv; iv++)
-				for (int iw = 0; iw < nw; iw++) {
-					vel_cell_data[iu][iv][iw] = new CellData();
+		/* spread relocated particles over the blocks, one job per block */
+		if (mesh == null) {
+			jobs.clear();
+			for (int m = 0; m < mesh_list.size(); m++) {
+				final int mesh_index = m;
+				final ParticleBlock blocks[] = getMeshData(mesh_list.get(m)).particle_block;
+				for (int b = 0; b < blocks.length; b++) {
+					final int block = b;
+					jobs.add(() -> {
+						for (int t = block; t < num_tasks; t += blocks.length)
+							for (Particle part : relocated.get(t).get(mesh_index))
+								blocks[block].add(part);
+					});
 				}
-
-		/* get velocity limits */
-		for (Particle part : parts_in_cell) {
-			for (int d = 0; d < 3; d++) {
-				if (part.vel[d] < vel_min[d])
-					vel_min[d] = part.vel[d];
-				if (part.vel[d] > vel_max[d])
-					vel_max[d] = part.vel[d];
 			}
+			WorkerPool.invokeAll(jobs);
 		}
-		double du[] = new double[3];
-		for (int d = 0; d < 3; d++)
-			du[d] = (vel_max[d] - vel_min[d]) / vel_grid_dims[d];
 
-		/* sort particles to velocity grid */
-		for (Particle part : parts_in_cell) {
-			if (part.mpw<=0) continue;		// skip deleted particles
-			
-			int ui[] = new int[3];
-			for (int d = 0; d < 3; d++) {
-				ui[d] = (int) ((part.vel[d] - vel_min[d]) / du[d]);
-				if (ui[d] < 0)
-					ui[d] = 0;
-				if (ui[d] >= vel_grid_dims[d])
-					ui[d] = vel_grid_dims[d] - 1;
-			}
+		/* restored particles keep their ids */
+		for (int id : max_id)
+			if (id >= part_id_counter)
+				part_id_counter = id + 1;
 
-			vel_cell_data[ui[0]][ui[1]][ui[2]].parts_in_cell.add(part);
-		}
-
-		/* now loop through velocity grid, replacing particles */
-		for (int iu = 0; iu < nu; iu++)
-			for (int iv = 0; iv < nv; iv++)
-				for (int iw = 0; iw < nw; iw++) {
-					LinkedList<Particle> vel_parts_in_cell = vel_cell_data[iu][iv][iw].parts_in_cell;
-					if (vel_parts_in_cell.size() <= 2)
-						continue; // need at least two particles
-
-					/* compute total weight, average velocity, and variance per Fox' disseration */
-					double n0 = 0; // total weight;
-					double p0[] = new double[3]; // average velocity
-					double t0[] = new double[3]; // variance
-					double x0[] = new double[3]; // average position
-
-					/* first compute n0 and accumulate data for p0 and t0 */
-					for (Particle part : vel_parts_in_cell) {
-						n0 += part.mpw;
-						for (int d = 0; d < 3; d++) {
-							p0[d] += part.mpw * part.vel[d];
-							t0[d] += part.mpw * part.vel[d] * part.vel[d];
-							x0[d] += part.mpw * part.pos[d];
-						}
-					}
+		long count = 0;
+		for (long l : lost)
+			count += l;
+		return count;
+	}
 
-					/* finish computations, based on my AdvPIC Lesson 2 slides */
-					for (int d = 0; d < 3; d++) {
-						p0[d] /= n0; // average velocity
-						t0[d] = t0[d] / n0 - p0[d] * p0[d];
-						if (t0[d] < 0)
-							t0[d] = 0;
-						x0[d] /= n0; // average position;
-					}
+	/**
+	 * uses the algorithm from Justin Fox' dissertation to merge particles. Columns
+	 * of cells are merged in parallel, the new particles are added afterwards
+	 * 
+	 * @param md mesh to apply the merge to
+	 * @param m  mesh index, used to select the random streams
+	 * 
+	 */
+	void mergeParticles(MeshData md, int m) {
+		/* no cell can exceed the target */
+		if (particle_merge_ppc > 0 && md.getNp() <= particle_merge_ppc)
+			return;
 
-					/* add two new particles corresponding to the vel cell population */
-					double w = 0.5 * n0; // each particle gets half weight;
-					double vel1[] = new double[3];
-					double vel2[] = new double[3];
-					for (int d = 0; d < 3; d++) {
-						// assign random sign to each dimension
-						int sign = (Starfish.rnd() < 0.5) ? 1 : -1;
-						vel1[d] = p0[d] + sign * Math.sqrt(t0[d]);
-						vel2[d] = p0[d] - sign * Math.sqrt(t0[d]);
-					}
-					Particle part1 = new Particle(x0, vel1, w, this);
-					Particle part2 = new Particle(x0, vel2, w, this);
+		/* first sort particles to physical cells */
+		CellIndex index = md.getCellIndex();
+
+		/* don't merge cells with fewer particles than the target, or 10 by default */
+		int min_count = particle_merge_ppc > 0 ? particle_merge_ppc + 1 : 10;
 
-					this.addParticle(part1);
-					this.addParticle(part2);
+		int num_chunks = WorkerPool.numChunks(index.nci, 2);
+		if (mergers.length < num_chunks) {
+			mergers = Arrays.copyOf(mergers, num_chunks);
+			for (int c = 0; c < num_chunks; c++)
+				if (mergers[c] == null)
+					mergers[c] = new Merger();
+		}
 
-					/* destroy old particles in the vel cell */
-					for (Particle part : vel_parts_in_cell)
-						removeParticle(part);
+		WorkerPool.parallelFor(index.nci, 2, (chunk, i_min, i_max) -> {
+			Merger merger = mergers[chunk];
+			merger.n_out = 0;
+			for (int i = i_min; i < i_max; i++) {
+				/* one stream per column so that results do not depend on the number of threads */
+				SplittableRandom prev = RandomStreams.bind(RandomStreams.key(mat_index, m, i, RandomStreams.TAG_MERGE));
+				try {
+					for (int j = 0; j < index.ncj; j++)
+						if (index.count(i, j) >= min_count)
+							merger.mergeCell(index, i, j);
+				} finally {
+					RandomStreams.unbind(prev);
 				}
+			}
+		});
+
+		/* add the new particles, in chunk order to keep ids reproducible */
+		long merged = 0;
+		for (int c = 0; c < num_chunks; c++) {
+			Merger merger = mergers[c];
+			merged += merger.n_out;
+			for (int k = 0; k < merger.n_out; k++) {
+				double out[] = merger.out;
+				int o = Merger.OUT_SIZE * k;
+				double pos[] = { out[o], out[o + 1], out[o + 2] };
+				double vel[] = { out[o + 3], out[o + 4], out[o + 5] };
+				addParticle(md, new Particle(pos, vel, out[o + 9], this));
+				vel[0] = out[o + 6];
+				vel[1] = out[o + 7];
+				vel[2] = out[o + 8];
+				addParticle(md, new Particle(pos, vel, out[o + 9], this));
+			}
+		}
+		if (particle_merge_ppc > 0 && merged > 0)
+			Log.log("Merged " + merged + " velocity bins of " + name + " in cells above " + particle_merge_ppc + " particles");
 
+		/* merged particles are zeroed in place, deposit all blocks again */
+		for (ParticleBlock pb : md.particle_block)
+			pb.moments_mod_count = -1;
 	}
 
+	/* scratch data of a merge chunk, reused between merges */
+	Merger mergers[] = new Merger[0];
+
 	/**
-	 * sorts particles to cell
-	 * 
-	 * @param md mesh to apply to
+	 * merges particles of a single physical cell grouped by velocity bins, 
+	 * based on Eq 2.80 in Justin M. Fox PhD dissertation. Bins are assigned with a
+	 * counting sort into primitive arrays, and the new particle pairs are written to
+	 * the output buffer to be added once all cells are processed
 	 */
-	public void sortParticlesToCells(MeshData md) {
-		Mesh mesh = md.mesh;
-		last_sort_to_cell_it = Starfish.getIt();
+	class Merger {
+		static final int OUT_SIZE = 10; /* pos, vel1, vel2, weight */
 
-		/* allocate data structure on first call */
-		if (md.cell_data == null) {
-			md.cell_data = new CellData[mesh.ni][mesh.nj];
-			for (int i = 0; i < mesh.ni; i++)
-				for (int j = 0; j < mesh.nj; j++)
-					md.cell_data[i][j] = new CellData();
-		}
+		int bin[] = new int[0]; /* velocity bin of each particle in the cell */
+		int order[] = new int[0]; /* particles sorted by bin */
+		int bin_offset[] = new int[vel_grid_dims[0] * vel_grid_dims[1] * vel_grid_dims[2] + 1];
+
+		double out[] = new double[0];
+		int n_out; /* number of particle pairs in out */
 
-		/* cleanup */
-		for (int i = 0; i < md.mesh.ni - 1; i++)
-			for (int j = 0; j < mesh.nj - 1; j++) {
-				md.cell_data[i][j].parts_in_cell.clear();
+		final double vel_min[] = new double[3];
+		final double vel_max[] = new double[3];
+		final double du[] = new double[3];
+
+		/**
+		 * @param index particles sorted to cells
+		 * @param i  cell i-index
+		 * @param j  cell j-index
+		 */
+		void mergeCell(CellIndex index, int i, int j) {
+			int first = index.first(i, j);
+			int np = index.count(i, j);
+			Particle parts[] = index.parts;
+
+			if (bin.length < np) {
+				bin = new int[np + np / 4];
+				order = new int[bin.length];
 			}
 
-		/* sort particles into cell */
-		Iterator<Particle> src_iterator = getIterator(mesh);
-		while (src_iterator.hasNext()) {
-			Particle part = src_iterator.next();
-			int i = (int) part.lc[0];
-			int j = (int) part.lc[1];
-			if (i >= mesh.ni - 1 || j >= mesh.nj - 1)
-				continue; // boundary source can create particles on mesh edge
-			md.cell_data[i][j].parts_in_cell.add(part);
+			int nu = vel_grid_dims[0]; // to save on typing
+			int nv = vel_grid_dims[1];
+			int nw = vel_grid_dims[2];
+
+			/* get velocity limits */
+			Particle part0 = parts[first];
+			for (int d = 0; d < 3; d++) {
+				vel_min[d] = part0.vel[d];
+				vel_max[d] = part0.vel[d];
+			}
+			for (int k = 1; k < np; k++) {
+				Particle part = parts[first + k];
+				for (int d = 0; d < 3; d++) {
+					if (part.vel[d] < vel_min[d])
+						vel_min[d] = part.vel[d];
+					if (part.vel[d] > vel_max[d])
+						vel_max[d] = part.vel[d];
+				}
+			}
+			for (int d = 0; d < 3; d++)
+				du[d] = (vel_max[d] - vel_min[d]) / vel_grid_dims[d];
+
+			/* sort particles to velocity grid, deleted particles go to an extra bin */
+			int nb = nu * nv * nw;
+			Arrays.fill(bin_offset, 0);
+			for (int k = 0; k < np; k++) {
+				Particle part = parts[first + k];
+				if (part.mpw <= 0) { // skip deleted particles
+					bin[k] = -1;
+					continue;
+				}
+				int iu = velBin(part.vel[0], 0);
+				int iv = velBin(part.vel[1], 1);
+				int iw = velBin(part.vel[2], 2);
+				bin[k] = (iu * nv + iv) * nw + iw;
+				bin_offset[bin[k] + 1]++;
+			}
+			for (int b = 0; b < nb; b++)
+				bin_offset[b + 1] += bin_offset[b];
+			for (int k = 0; k < np; k++)
+				if (bin[k] >= 0)
+					order[bin_offset[bin[k]]++] = first + k;
+			for (int b = nb; b > 0; b--)
+				bin_offset[b] = bin_offset[b - 1];
+			bin_offset[0] = 0;
+
+			/* now loop through velocity grid, replacing particles */
+			for (int b = 0; b < nb; b++) {
+				int b_first = bin_offset[b];
+				int b_last = bin_offset[b + 1];
+				if (b_last - b_first <= 2)
+					continue; // need at least two particles
+
+				/* compute total weight, average velocity, and variance per Fox' disseration */
+				double n0 = 0; // total weight;
+				double p0x = 0, p0y = 0, p0z = 0; // average velocity
+				double t0x = 0, t0y = 0, t0z = 0; // variance
+				double x0x = 0, x0y = 0, x0z = 0; // average position
+
+				/* first compute n0 and accumulate data for p0 and t0 */
+				for (int k = b_first; k < b_last; k++) {
+					Particle part = parts[order[k]];
+					double mpw = part.mpw;
+					n0 += mpw;
+					p0x += mpw * part.vel[0];
+					p0y += mpw * part.vel[1];
+					p0z += mpw * part.vel[2];
+					t0x += mpw * part.vel[0] * part.vel[0];
+					t0y += mpw * part.vel[1] * part.vel[1];
+					t0z += mpw * part.vel[2] * part.vel[2];
+					x0x += mpw * part.pos[0];
+					x0y += mpw * part.pos[1];
+					x0z += mpw * part.pos[2];
+				}
+
+				/* finish computations, based on my AdvPIC Lesson 2 slides */
+				p0x /= n0;
+				p0y /= n0;
+				p0z /= n0;
+				double sx = Math.sqrt(Math.max(t0x / n0 - p0x * p0x, 0));
+				double sy = Math.sqrt(Math.max(t0y / n0 - p0y * p0y, 0));
+				double sz = Math.sqrt(Math.max(t0z / n0 - p0z * p0z, 0));
+
+				// assign random sign to each dimension
+				if (Starfish.rnd() < 0.5) sx = -sx;
+				if (Starfish.rnd() < 0.5) sy = -sy;
+				if (Starfish.rnd() < 0.5) sz = -sz;
+
+				/* store two new particles corresponding to the vel cell population */
+				if (out.length < OUT_SIZE * (n_out + 1))
+					out = Arrays.copyOf(out, Math.max(OUT_SIZE * 64, 2 * out.length));
+				int o = OUT_SIZE * n_out++;
+				out[o] = x0x / n0;
+				out[o + 1] = x0y / n0;
+				out[o + 2] = x0z / n0;
+				out[o + 3] = p0x + sx;
+				out[o + 4] = p0y + sy;
+				out[o + 5] = p0z + sz;
+				out[o + 6] = p0x - sx;
+				out[o + 7] = p0y - sy;
+				out[o + 8] = p0z - sz;
+				out[o + 9] = 0.5 * n0; // each particle gets half weight
+
+				/* destroy old particles in the vel cell */
+				for (int k = b_first; k < b_last; k++)
+					removeParticle(parts[order[k]]);
+			}
+		}
 
+		/** @return velocity bin index in direction d */
+		private int velBin(double vel, int d) {
+			int ui = (int) ((vel - vel_min[d]) / du[d]);
+			if (ui < 0)
+				ui = 0;
+			if (ui >= vel_grid_dims[d])
+				ui = vel_grid_dims[d] - 1;
+			return ui;
 		}
 	}
 
 	/**
-	 * returns particle with i
+	 * sorts particles to cells
+	 * 
+	 * @param mesh mesh to apply to
+	 * @return particles grouped by cell, shared with other users until the particles change
+	 */
+	public CellIndex getCellIndex(Mesh mesh) {
+		return getMeshData(mesh).getCellIndex();
+	}
+
+	/**
+	 * returns particle with i, tagged particles are found through their tag set and
+	 * others by searching all blocks
 	 * 
 	 * @param id
 	 * @return d
 	 */
 	public Particle getParticle(long id) {
+		for (TagSet set : tag_sets) {
+			int k = set.indexOf(id);
+			if (k >= 0)
+				return locate(set, k);
+		}
+
 		for (MeshData md : mesh_data)
 			for (int block = 0; block < md.particle_block.length; block++) {
 
@@ -1198,6 +1758,124 @@ public class KineticMaterial extends Material {
 		return null;
 	}
 
+	/**
+	 * Tags particles so that they can be found without searching, for diagnostics
+	 * following many particles. Ids of particles not yet created can be included,
+	 * these are picked up once the particle is added.
+	 * 
+	 * @param ids particle ids to follow
+	 * @return tag set to pass to getParticles
+	 */
+	public synchronized TagSet createTagSet(int ids[]) {
+		TagSet set = new TagSet(ids);
+
+		/* locate particles that already exist */
+		if (mesh_data != null && set.size() > 0)
+			for (MeshData md : mesh_data)
+				for (ParticleBlock pb : md.particle_block)
+					scanBlock(pb, set, false);
+
+		TagSet sets[] = Arrays.copyOf(tag_sets, tag_sets.length + 1);
+		sets[sets.length - 1] = set;
+		tag_sets = sets;
+		return set;
+	}
+
+	/**
+	 * finds all particles of a tag set, blocks are only searched for particles that
+	 * moved within their block since the last lookup
+	 * 
+	 * @param set tag set created by createTagSet
+	 * @param parts filled with the particle for each id in the set, or null if the
+	 *              particle does not exist. With array storage these are copies
+	 *              and modifications are not written back
+	 * @return number of particles found
+	 */
+	public int getParticles(TagSet set, Particle parts[]) {
+		/* verify slots, collect blocks with stale entries */
+		ArrayList<ParticleBlock> stale = null;
+		for (int k = 0; k < set.size(); k++) {
+			ParticleBlock pb = set.block[k];
+			if (pb == null || inSlot(pb, set.slot[k], set.ids[k]))
+				continue;
+			if (stale == null)
+				stale = new ArrayList<>();
+			if (!stale.contains(pb))
+				stale.add(pb);
+		}
+
+		/* single pass over each of these blocks for all of its tagged particles */
+		if (stale != null)
+			for (ParticleBlock pb : stale)
+				scanBlock(pb, set, true);
+
+		int found = 0;
+		for (int k = 0; k < set.size(); k++) {
+			int c = set.indexOf(set.ids[k]); /* first entry for duplicate ids */
+			parts[k] = (set.block[c] == null) ? null : particleInSlot(set.block[c], set.slot[c]);
+			if (parts[k] != null)
+				found++;
+		}
+		return found;
+	}
+
+	/** @return particle k of the tag set, or null if it does not exist */
+	Particle locate(TagSet set, int k) {
+		ParticleBlock pb = set.block[k];
+		if (pb == null)
+			return null;
+		if (!inSlot(pb, set.slot[k], set.ids[k]))
+			scanBlock(pb, set, true);
+		return (set.block[k] == null) ? null : particleInSlot(pb, set.slot[k]);
+	}
+
+	/** @return true if a live particle with the given id is in slot s of the block */
+	private boolean inSlot(ParticleBlock pb, int s, int id) {
+		if (pb.particle_array != null) {
+			ParticleArray pa = pb.particle_array;
+			return s < pa.size() && pa.id[s] == id && pa.mpw[s] > 0;
+		}
+		return s < pb.particle_list.size() && pb.particle_list.get(s).id == id;
+	}
+
+	private Particle particleInSlot(ParticleBlock pb, int s) {
+		if (pb.particle_array == null)
+			return pb.particle_list.get(s);
+		Particle part = new Particle(this);
+		pb.particle_array.load(s, part);
+		return part;
+	}
+
+	/**
+	 * updates slots of the tagged particles found in the block
+	 * 
+	 * @param pb block to search
+	 * @param set tag set to update
+	 * @param forget clear entries pointing to this block that were not found
+	 */
+	private void scanBlock(ParticleBlock pb, TagSet set, boolean forget) {
+		/* write back copies handed out by iterators, these may have been removed */
+		if (pb.particle_array != null && !pb.checked_out.isEmpty())
+			pb.sync();
+
+		if (forget)
+			for (int k = 0; k < set.size(); k++)
+				if (set.block[k] == pb)
+					set.block[k] = null;
+
+		int np = pb.size();
+		for (int p = 0; p < np; p++) {
+			int id;
+			if (pb.particle_array != null) {
+				if (pb.particle_array.mpw[p] <= 0)
+					continue;
+				id = pb.particle_array.id[p];
+			} else
+				id = pb.particle_list.get(p).id;
+			set.added(pb, id, p);
+		}
+	}
+
 	/* particle definition */
 
 	/**
@@ -1215,6 +1893,7 @@ public class KineticMaterial extends Material {
 		public int id = -1; 	// particle id for plotting
 		public int born_it = -1;	// time step born for possible diagnostics
 		public boolean attached = false; // temporary, used by grain particles on surface layer
+		int slot = -1;	// slot in the ParticleArray this particle was loaded from, if any
 
 		/**
 		 * copy constructor
@@ -1302,10 +1981,81 @@ public class KineticMaterial extends Material {
 		return np;
 	}
 
-	/* list of particles in each cell */
-	public class CellData // class to avoid generic array creation
-	{
-		LinkedList<Particle> parts_in_cell = new LinkedList<Particle>();
+	/**
+	 * Particles of a single mesh grouped by cell with a counting sort. The index is
+	 * built on first request and reused by DSMC, merging, and other per-cell operations
+	 * until particles are added, removed, or moved. With array storage the entries are
+	 * iterator copies that are written back on the next block sync, which also
+	 * invalidates the index.
+	 */
+	public class CellIndex {
+		public final int nci, ncj; /* number of cells */
+		int offset[]; /* particles in cell c=j*nci+i are parts[offset[c]] to parts[offset[c+1]-1] */
+		public Particle parts[] = new Particle[0];
+		Particle buffer[] = new Particle[0];
+		int key[] = new int[0];
+		long mod_count = -1; /* modification count of the mesh data at build time */
+
+		CellIndex(int nci, int ncj) {
+			this.nci = nci;
+			this.ncj = ncj;
+			offset = new int[nci * ncj + 1];
+		}
+
+		/** @return number of particles in cell i,j */
+		public int count(int i, int j) {
+			int c = j * nci + i;
+			return offset[c + 1] - offset[c];
+		}
+
+		/** @return index of the first particle of cell i,j in parts */
+		public int first(int i, int j) {
+			return offset[j * nci + i];
+		}
+
+		/** @return k-th particle in cell i,j */
+		public Particle get(int i, int j, int k) {
+			return parts[offset[j * nci + i] + k];
+		}
+
+		/** sorts all particles of the mesh into cells */
+		void build(MeshData md) {
+			int np = (int) md.getNp();
+			if (buffer.length < np) {
+				buffer = new Particle[np + np / 4];
+				parts = new Particle[buffer.length];
+				key = new int[buffer.length];
+			}
+
+			/* collect particles and count them per cell */
+			int nc = nci * ncj;
+			Arrays.fill(offset, 0);
+			int n = 0;
+			Iterator<Particle> iterator = md.getIterator();
+			while (iterator.hasNext()) {
+				Particle part = iterator.next();
+				int i = (int) part.lc[0];
+				int j = (int) part.lc[1];
+				if (i < 0 || j < 0 || i >= nci || j >= ncj)
+					continue; // boundary source can create particles on mesh edge
+				key[n] = j * nci + i;
+				buffer[n++] = part;
+				offset[key[n - 1] + 1]++;
+			}
+
+			for (int c = 0; c < nc; c++)
+				offset[c + 1] += offset[c];
+
+			/* scatter to cells, offset is shifted by one cell and restored below */
+			for (int k = 0; k < n; k++)
+				parts[offset[key[k]]++] = buffer[k];
+			for (int c = nc; c > 0; c--)
+				offset[c] = offset[c - 1];
+			offset[0] = 0;
+
+			Arrays.fill(buffer, 0, n, null);
+			Arrays.fill(parts, n, parts.length, null);
+		}
 	}
 
 	/**
@@ -1340,7 +2090,7 @@ public class KineticMaterial extends Material {
 		public Field2D Efi, Efj;
 		public Field2D Bfi, Bfj;
 
-		public CellData[][] cell_data;
+		CellIndex cell_index; /* particles sorted to cells, see getCellIndex */
 
 		public ParticleBlock particle_block[];
 		public ArrayList<Particle> transfer_particles; /*
@@ -1362,15 +2112,15 @@ public class KineticMaterial extends Material {
 
 			/* find particle block with fewest particles */
 			int block = 0;
-			int min_count = particle_block[block].particle_list.size();
+			int min_count = particle_block[block].size();
 
 			for (int i = 1; i < particle_block.length; i++)
-				if (particle_block[i].particle_list.size() < min_count) {
-					min_count = particle_block[i].particle_list.size();
+				if (particle_block[i].size() < min_count) {
+					min_count = particle_block[i].size();
 					block = i;
 				}
 
-			particle_block[block].particle_list.add(part);
+			particle_block[block].add(part);
 		}
 
 		/** add particle to the transfers list, attempting to keep block sizes equal */
@@ -1385,7 +2135,7 @@ public class KineticMaterial extends Material {
 		public long getNp() {
 			long count = 0;
 			for (int i = 0; i < particle_block.length; i++)
-				count += particle_block[i].particle_list.size();
+				count += particle_block[i].size();
 			return count;
 		}
 
@@ -1403,7 +2153,7 @@ public class KineticMaterial extends Material {
 		 * @return
 		 */
 		public Iterator<Particle> getIterator(int block) {
-			return particle_block[block].particle_list.iterator();
+			return particle_block[block].iterator();
 		}
 
 		/**
@@ -1424,6 +2174,31 @@ public class KineticMaterial extends Material {
 		public Iterator<Particle> getTransferIterator() {
 			return transfer_particles.iterator();
 		}
+
+		/** writes back particles handed out by iterators in array storage blocks */
+		public void sync() {
+			for (ParticleBlock pb : particle_block)
+				pb.sync();
+		}
+
+		/** @return number of changes made to the particle blocks, used to detect stale cell indexes */
+		long getModCount() {
+			long count = 0;
+			for (ParticleBlock pb : particle_block)
+				count += pb.mod_count;
+			return count;
+		}
+
+		/** @return particles grouped by cell, rebuilt only if particles changed since the last call */
+		public CellIndex getCellIndex() {
+			if (cell_index == null)
+				cell_index = new CellIndex(mesh.ni - 1, mesh.nj - 1);
+			if (cell_index.mod_count != getModCount()) {
+				cell_index.build(this);
+				cell_index.mod_count = getModCount();
+			}
+			return cell_index;
+		}
 	}
 
 	/**
@@ -1432,11 +2207,206 @@ public class KineticMaterial extends Material {
 	public MeshData mesh_data[];
 
 	/**
-	 * Particles are stored in linked-list array blocks	 *
+	 * Particles are stored in linked-list array blocks, or in flat primitive
+	 * arrays if particle_storage is set to arrays
 	 */
 	public class ParticleBlock {
 
 		public ArrayList<Particle> particle_list = new ArrayList<Particle>();
+
+		/* structure-of-arrays storage, used instead of particle_list with array storage */
+		public ParticleArray particle_array;
+
+		/*
+		 * particles handed out by iterators over particle_array, these are copied back
+		 * to the arrays on the next sync so that modifications made by collision
+		 * handlers and other users of the iterators are not lost
+		 */
+		ArrayList<Particle> checked_out;
+
+		/* incremented whenever particles are added, removed, moved, or reordered */
+		long mod_count = 0;
+
+		/* density and flux deposited by the particles in this block, valid if moments_mod_count == mod_count */
+		MomentBuffer moments;
+		long moments_mod_count = -1;
+
+		/* buffers reused by sortByCell with object storage */
+		Particle sort_buffer[] = new Particle[0];
+		int sort_key[] = new int[0];
+		int sort_count[] = new int[0];
+
+		/** @return moment buffer for this block, allocated on first use */
+		MomentBuffer getMoments(Mesh mesh) {
+			if (moments == null)
+				moments = new MomentBuffer(mesh);
+			return moments;
+		}
+
+		public ParticleBlock() {
+			if (array_storage) {
+				particle_array = new ParticleArray();
+				checked_out = new ArrayList<>();
+			}
+		}
+
+		/** @return number of particles in this block */
+		public int size() {
+			if (particle_array != null)
+				return particle_array.size();
+			return particle_list.size();
+		}
+
+		/** adds the particle, with array storage only the particle data is copied */
+		public void add(Particle part) {
+			mod_count++;
+			if (particle_array != null)
+				particle_array.add(part);
+			else
+				particle_list.add(part);
+
+			for (TagSet set : tag_sets)
+				set.added(this, part.id, size() - 1);
+		}
+
+		/**
+		 * @return iterator over particles in this block, with array storage the returned
+		 *         particles are copies that are written back on the next sync
+		 */
+		public Iterator<Particle> iterator() {
+			if (particle_array == null) {
+				final Iterator<Particle> iterator = particle_list.iterator();
+				return new Iterator<Particle>() {
+					@Override
+					public boolean hasNext() {
+						return iterator.hasNext();
+					}
+
+					@Override
+					public Particle next() {
+						return iterator.next();
+					}
+
+					@Override
+					public void remove() {
+						iterator.remove();
+						mod_count++;
+					}
+				};
+			}
+			sync();
+			return new ArrayIterator(this);
+		}
+
+		/**
+		 * copies particles handed out by iterators back to the arrays and removes the
+		 * deleted ones, does nothing for object storage
+		 */
+		public void sync() {
+			if (particle_array == null)
+				return;
+			if (!checked_out.isEmpty()) {
+				for (Particle part : checked_out)
+					particle_array.store(part.slot, part);
+				checked_out.clear();
+				mod_count++;	/* copies held by a cell index are no longer written back */
+			}
+			if (particle_array.compact() > 0)
+				mod_count++;
+		}
+
+		/**
+		 * orders particles by cell with a counting sort, nothing is moved if the
+		 * block is already sorted
+		 * @param nci number of cells in i
+		 * @param ncj number of cells in j
+		 */
+		public void sortByCell(int nci, int ncj) {
+			if (particle_array != null) {
+				sync();
+				if (particle_array.sortByCell(nci, ncj))
+					mod_count++;
+				return;
+			}
+
+			int np = particle_list.size();
+			int nc = nci * ncj;
+			if (sort_key.length < np) {
+				sort_key = new int[np + np / 4];
+				sort_buffer = new Particle[sort_key.length];
+			}
+			if (sort_count.length < nc + 2)
+				sort_count = new int[nc + 2];
+			Arrays.fill(sort_count, 0);
+
+			boolean sorted = true;
+			for (int p = 0; p < np; p++) {
+				Particle part = particle_list.get(p);
+				int i = (int) part.lc[0];
+				int j = (int) part.lc[1];
+				int key = (i >= 0 && j >= 0 && i < nci && j < ncj) ? j * nci + i : nc;
+				sort_key[p] = key;
+				if (p > 0 && key < sort_key[p - 1])
+					sorted = false;
+				sort_count[key + 1]++;
+			}
+			if (sorted)
+				return;
+
+			for (int c = 0; c <= nc; c++)
+				sort_count[c + 1] += sort_count[c];
+			for (int p = 0; p < np; p++)
+				sort_buffer[sort_count[sort_key[p]]++] = particle_list.get(p);
+			for (int p = 0; p < np; p++)
+				particle_list.set(p, sort_buffer[p]);
+			Arrays.fill(sort_buffer, 0, np, null);
+			mod_count++;
+		}
+	}
+
+	/**
+	 * Iterator over array storage, each particle is copied to a new Particle object
+	 * which is remembered by the block until the next sync. Removal only zeroes the
+	 * weight so that slots of particles already handed out remain valid.
+	 */
+	class ArrayIterator implements Iterator<Particle> {
+		final ParticleBlock block;
+		final ParticleArray pa;
+		final int np;	// particles added during iteration are not visited
+		int p = 0;
+		Particle last;
+
+		ArrayIterator(ParticleBlock block) {
+			this.block = block;
+			this.pa = block.particle_array;
+			this.np = pa.size();
+		}
+
+		@Override
+		public boolean hasNext() {
+			return p < np;
+		}
+
+		@Override
+		public Particle next() {
+			if (p >= np)
+				throw new NoSuchElementException();
+			Particle part = new Particle(KineticMaterial.this);
+			pa.load(p, part);
+			part.slot = p++;
+			block.checked_out.add(part);
+			last = part;
+			return part;
+		}
+
+		@Override
+		public void remove() {
+			if (last == null)
+				throw new IllegalStateException();
+			last.mpw = 0;
+			pa.mpw[last.slot] = 0;
+			last = null;
+		}
 	}
 
 	/**
@@ -1456,7 +2426,7 @@ public class KineticMaterial extends Material {
 		BlockIterator(ParticleBlock blocks[]) {
 			this.blocks = blocks;
 			num_blocks = blocks.length;
-			iterator = blocks[b].particle_list.iterator();
+			iterator = blocks[b].iterator();
 		}
 
 		@Override
@@ -1467,7 +2437,7 @@ public class KineticMaterial extends Material {
 			/* any more blocks? */
 			while (b < num_blocks - 1) {
 				b++;
-				iterator = blocks[b].particle_list.iterator();
+				iterator = blocks[b].iterator();
 				if (iterator.hasNext())
 					return true;
 			}
@@ -1577,20 +2547,44 @@ public class KineticMaterial extends Material {
 		Field2D ww_sum = this.field_manager2d.get(md.mesh, "ww-sum");
 		Field2D mpc_sum = this.field_manager2d.get(md.mesh, "mpc-sum");
 
-		Iterator<Particle> iterator = md.getIterator();
-		while (iterator.hasNext()) {
-			Particle part = iterator.next();
-
-			u_sum.scatter(part.lc, part.mpw * part.vel[0]);
-			v_sum.scatter(part.lc, part.mpw * part.vel[1]);
-			w_sum.scatter(part.lc, part.mpw * part.vel[2]);
-			uu_sum.scatter(part.lc, part.mpw * part.vel[0] * part.vel[0]);
-			vv_sum.scatter(part.lc, part.mpw * part.vel[1] * part.vel[1]);
-			ww_sum.scatter(part.lc, part.mpw * part.vel[2] * part.vel[2]);
-			count_sum.scatter(part.lc, part.mpw);
+		for (ParticleBlock pb : md.particle_block) {
+			ParticleArray pa = pb.particle_array;
+			if (pa != null) {
+				pb.sync();
+				for (int p = 0; p < pa.np; p++) {
+					double li = pa.lc[2 * p];
+					double lj = pa.lc[2 * p + 1];
+					double mpw = pa.mpw[p];
+					double u = pa.vel[3 * p];
+					double v = pa.vel[3 * p + 1];
+					double w = pa.vel[3 * p + 2];
+
+					u_sum.scatter(li, lj, mpw * u);
+					v_sum.scatter(li, lj, mpw * v);
+					w_sum.scatter(li, lj, mpw * w);
+					uu_sum.scatter(li, lj, mpw * u * u);
+					vv_sum.scatter(li, lj, mpw * v * v);
+					ww_sum.scatter(li, lj, mpw * w * w);
+					count_sum.scatter(li, lj, mpw);
+
+					// mpc is cell data
+					mpc_sum.add((int) li, (int) lj, 1);
+				}
+				continue;
+			}
 
-			// mpc is cell data
-			mpc_sum.add((int) part.lc[0], (int) part.lc[1], 1);
+			for (Particle part : pb.particle_list) {
+				u_sum.scatter(part.lc, part.mpw * part.vel[0]);
+				v_sum.scatter(part.lc, part.mpw * part.vel[1]);
+				w_sum.scatter(part.lc, part.mpw * part.vel[2]);
+				uu_sum.scatter(part.lc, part.mpw * part.vel[0] * part.vel[0]);
+				vv_sum.scatter(part.lc, part.mpw * part.vel[1] * part.vel[1]);
+				ww_sum.scatter(part.lc, part.mpw * part.vel[2] * part.vel[2]);
+				count_sum.scatter(part.lc, part.mpw);
+
+				// mpc is cell data
+				mpc_sum.add((int) part.lc[0], (int) part.lc[1], 1);
+			}
 		}
 	}
 
@@ -10,6 +10,8 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
 import starfish.core.boundaries.Field1D;
@@ -17,6 +19,7 @@ import starfish.core.boundaries.FieldCollection1D;
 import starfish.core.boundaries.FieldManager1D;
 import starfish.core.boundaries.Segment;
 import starfish.core.common.Constants;
+import starfish.core.common.RestartReader;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
 import starfish.core.common.Utils;
@@ -676,6 +679,15 @@ public abstract class Material
 
     public void loadRestartData(DataInputStream in)throws IOException {Log.warning("loadRestartData not yet implemented for "+name);}
 
+    /*reads data from a memory-mapped restart file, by default through the stream interface*/
+
+    /**
+     *
+     * @param in
+     * @throws IOException
+     */
+    public void loadRestartData(RestartReader in)throws IOException {loadRestartData(in.data());}
+
     /**
      * initializes material interactions
      */
@@ -755,44 +767,80 @@ public abstract class Material
     }
 
     boolean steady_state = false;
-    
-    void addSurfaceMomentum(Boundary boundary, double spline_t, double vel[], double spwt)
-    {
-		if (Starfish.time_module.steady_state && !steady_state)
-		{
-		    flux_collection.clear();
-		    flux_normal_collection.clear();
-		    steady_state = true;
-		}
-	
-		Field1D flux_field = flux_collection.getField(boundary);
-	
-		if (spline_t >= 0 && spline_t < flux_field.getNi())
-		{
-		    flux_field.scatter(spline_t, spwt);
-		} else
-		{
-		    return;
-		}
 
-	/*normal vector*/
-		double n[] = boundary.normal(spline_t);
-		double dot = -Vec.dot(n, vel)/Vec.mag3(vel);	 //positive for going in
-		flux_normal_collection.getField(boundary).scatter(spline_t, dot * spwt);
-	    }
-	
-	    void addSurfaceMassDeposit(Boundary boundary, double spline_t, double spwt)
+    /** surface flux and deposition collected by a single particle mover, added to
+     * the shared collections by addSurfaceTally once all movers finished*/
+    static class SurfaceTally
+    {
+	/*flux, flux_normal, and deprate for each boundary hit by the mover*/
+	final HashMap<Boundary,Field1D[]> fields = new HashMap<>();
+	boolean has_flux = false;
+	boolean has_deposit = false;
+
+	Field1D[] get(Boundary boundary)
+	{
+	    Field1D f[] = fields.get(boundary);
+	    if (f==null)
 	    {
-		if (Starfish.time_module.steady_state && !steady_state)
-		{
-		    deprate_collection.clear();
-		    steady_state = true;
-		}
-			
-		Field1D dep = deprate_collection.getField(boundary);
-		dep.scatter(spline_t, spwt);
-		Field1D dep_inst = deprate_collection_inst.getField(boundary);
-		dep_inst.scatter(spline_t,spwt);
+		f = new Field1D[] {new Field1D(boundary), new Field1D(boundary), new Field1D(boundary)};
+		fields.put(boundary, f);
+	    }
+	    return f;
+	}
+    }
+
+    void addSurfaceMomentum(SurfaceTally tally, Boundary boundary, double spline_t, double vel[], double spwt)
+    {
+	tally.has_flux = true;
+	Field1D f[] = tally.get(boundary);
+	Field1D flux_field = f[0];
+
+	if (spline_t >= 0 && spline_t < flux_field.getNi())
+	{
+	    flux_field.scatter(spline_t, spwt);
+	} else
+	{
+	    return;
+	}
+
+	/*normal vector*/
+	double n[] = boundary.normal(spline_t);
+	double dot = -Vec.dot(n, vel)/Vec.mag3(vel);	 //positive for going in
+	f[1].scatter(spline_t, dot * spwt);
+    }
+
+    void addSurfaceMassDeposit(SurfaceTally tally, Boundary boundary, double spline_t, double spwt)
+    {
+	tally.has_deposit = true;
+	tally.get(boundary)[2].scatter(spline_t, spwt);
+    }
+
+    /** adds data collected by a mover to the surface collections, called after the push
+     * in mover order so the sums do not depend on thread timing*/
+    void addSurfaceTally(SurfaceTally tally)
+    {
+	if (tally.has_flux && Starfish.time_module.steady_state && !steady_state)
+	{
+	    flux_collection.clear();
+	    flux_normal_collection.clear();
+	    steady_state = true;
+	}
+
+	if (tally.has_deposit && Starfish.time_module.steady_state && !steady_state)
+	{
+	    deprate_collection.clear();
+	    steady_state = true;
+	}
+
+	for (Map.Entry<Boundary,Field1D[]> entry:tally.fields.entrySet())
+	{
+	    Boundary boundary = entry.getKey();
+	    Field1D f[] = entry.getValue();
+	    flux_collection.getField(boundary).add(f[0]);
+	    flux_normal_collection.getField(boundary).add(f[1]);
+	    deprate_collection.getField(boundary).add(f[2]);
+	    deprate_collection_inst.getField(boundary).add(f[2]);
+	}
     }
 	    
 	public void deleteMass() {
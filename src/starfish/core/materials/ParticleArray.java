@@ -0,0 +1,263 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.materials;
+
+import java.util.Arrays;
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Structure-of-arrays particle storage used by a single particle block. Particle
+ * data is kept in flat primitive arrays (pos and vel interleaved by three, lc by two)
+ * so that the push loop streams through contiguous memory instead of following
+ * references to individual Particle objects. Slot p of the particle is given by
+ * pos[3*p+d], vel[3*p+d], lc[2*p+d] and dt[p], mpw[p], and so on.
+ *
+ * Removal swaps the last particle into the freed slot, so particle order is not preserved.
+ */
+public class ParticleArray {
+	public double pos[];
+	public double vel[];
+	public double lc[];
+	public double dt[];
+	public double mpw[];
+	public double mass[];
+	public double radius[];
+	public int id[];
+	public int born_it[];
+
+	int np = 0;		// number of particles currently stored
+
+	/* buffers reused by sortByCell, swapped with the particle arrays after each sort */
+	double sort_d1[], sort_d2[], sort_d3[];
+	int sort_i1[];
+	int sort_key[], sort_count[], sort_perm[];
+
+	public ParticleArray() {
+		this(1024);
+	}
+
+	/**
+	 * @param capacity initial number of particle slots
+	 */
+	public ParticleArray(int capacity) {
+		if (capacity < 1) capacity = 1;
+		pos = new double[3 * capacity];
+		vel = new double[3 * capacity];
+		lc = new double[2 * capacity];
+		dt = new double[capacity];
+		mpw = new double[capacity];
+		mass = new double[capacity];
+		radius = new double[capacity];
+		id = new int[capacity];
+		born_it = new int[capacity];
+	}
+
+	/** @return number of stored particles */
+	public int size() {
+		return np;
+	}
+
+	/** @return number of particles that can be stored without reallocation */
+	public int capacity() {
+		return mpw.length;
+	}
+
+	/** makes sure at least n particles can be stored */
+	public void ensureCapacity(int n) {
+		if (n <= mpw.length) return;
+		int cap = Math.max(n, mpw.length + (mpw.length >> 1));
+		pos = Arrays.copyOf(pos, 3 * cap);
+		vel = Arrays.copyOf(vel, 3 * cap);
+		lc = Arrays.copyOf(lc, 2 * cap);
+		dt = Arrays.copyOf(dt, cap);
+		mpw = Arrays.copyOf(mpw, cap);
+		mass = Arrays.copyOf(mass, cap);
+		radius = Arrays.copyOf(radius, cap);
+		id = Arrays.copyOf(id, cap);
+		born_it = Arrays.copyOf(born_it, cap);
+	}
+
+	/**
+	 * appends a copy of the particle
+	 * @param part particle to copy, the object itself is not retained
+	 * @return slot of the new particle
+	 */
+	public int add(Particle part) {
+		ensureCapacity(np + 1);
+		store(np, part);
+		return np++;
+	}
+
+	/** copies particle data from slot p into part */
+	public void load(int p, Particle part) {
+		if (part.lc == null) part.lc = new double[2];
+		int p3 = 3 * p;
+		part.pos[0] = pos[p3];
+		part.pos[1] = pos[p3 + 1];
+		part.pos[2] = pos[p3 + 2];
+		part.vel[0] = vel[p3];
+		part.vel[1] = vel[p3 + 1];
+		part.vel[2] = vel[p3 + 2];
+		part.lc[0] = lc[2 * p];
+		part.lc[1] = lc[2 * p + 1];
+		part.dt = dt[p];
+		part.mpw = mpw[p];
+		part.mass = mass[p];
+		part.radius = radius[p];
+		part.id = id[p];
+		part.born_it = born_it[p];
+	}
+
+	/** copies data from part into slot p */
+	public void store(int p, Particle part) {
+		int p3 = 3 * p;
+		pos[p3] = part.pos[0];
+		pos[p3 + 1] = part.pos[1];
+		pos[p3 + 2] = part.pos[2];
+		vel[p3] = part.vel[0];
+		vel[p3 + 1] = part.vel[1];
+		vel[p3 + 2] = part.vel[2];
+		if (part.lc != null) {
+			lc[2 * p] = part.lc[0];
+			lc[2 * p + 1] = part.lc[1];
+		}
+		dt[p] = part.dt;
+		mpw[p] = part.mpw;
+		mass[p] = part.mass;
+		radius[p] = part.radius;
+		id[p] = part.id;
+		born_it[p] = part.born_it;
+	}
+
+	/** removes particle in slot p by moving the last particle into its place */
+	public void remove(int p) {
+		int last = np - 1;
+		if (p != last) {
+			System.arraycopy(pos, 3 * last, pos, 3 * p, 3);
+			System.arraycopy(vel, 3 * last, vel, 3 * p, 3);
+			lc[2 * p] = lc[2 * last];
+			lc[2 * p + 1] = lc[2 * last + 1];
+			dt[p] = dt[last];
+			mpw[p] = mpw[last];
+			mass[p] = mass[last];
+			radius[p] = radius[last];
+			id[p] = id[last];
+			born_it[p] = born_it[last];
+		}
+		np = last;
+	}
+
+	/**
+	 * removes all particles with zero or negative weight while preserving the order
+	 * of the remaining ones
+	 * @return number of removed particles
+	 */
+	public int compact() {
+		int k = 0;
+		for (int p = 0; p < np; p++) {
+			if (mpw[p] <= 0) continue;
+			if (k != p) {
+				System.arraycopy(pos, 3 * p, pos, 3 * k, 3);
+				System.arraycopy(vel, 3 * p, vel, 3 * k, 3);
+				lc[2 * k] = lc[2 * p];
+				lc[2 * k + 1] = lc[2 * p + 1];
+				dt[k] = dt[p];
+				mpw[k] = mpw[p];
+				mass[k] = mass[p];
+				radius[k] = radius[p];
+				id[k] = id[p];
+				born_it[k] = born_it[p];
+			}
+			k++;
+		}
+		int removed = np - k;
+		np = k;
+		return removed;
+	}
+
+	/**
+	 * orders particles by cell using a counting sort so that particles in the same cell
+	 * are adjacent in memory, particles outside the cell range are placed last
+	 * @param nci number of cells in i
+	 * @param ncj number of cells in j
+	 * @return true if the order changed
+	 */
+	public boolean sortByCell(int nci, int ncj) {
+		int nc = nci * ncj;
+		if (sort_key == null || sort_key.length < np)
+			sort_key = new int[capacity()];
+		if (sort_count == null || sort_count.length < nc + 2)
+			sort_count = new int[nc + 2];
+
+		/* compute keys and check if already sorted */
+		int count[] = sort_count;
+		Arrays.fill(count, 0, nc + 2, 0);
+		boolean sorted = true;
+		for (int p = 0; p < np; p++) {
+			int i = (int) lc[2 * p];
+			int j = (int) lc[2 * p + 1];
+			int key = (i >= 0 && j >= 0 && i < nci && j < ncj) ? j * nci + i : nc;
+			sort_key[p] = key;
+			if (p > 0 && key < sort_key[p - 1])
+				sorted = false;
+			count[key + 1]++;
+		}
+		if (sorted)
+			return false;
+
+		for (int c = 0; c <= nc; c++)
+			count[c + 1] += count[c];
+
+		/* perm[k] is the old slot of the particle moving to slot k */
+		if (sort_perm == null || sort_perm.length < np)
+			sort_perm = new int[capacity()];
+		for (int p = 0; p < np; p++)
+			sort_perm[count[sort_key[p]]++] = p;
+
+		int cap = capacity();
+		if (sort_d1 == null || sort_d1.length != cap) {
+			sort_d1 = new double[cap];
+			sort_d2 = new double[2 * cap];
+			sort_d3 = new double[3 * cap];
+			sort_i1 = new int[cap];
+		}
+
+		double t[];
+		t = permute(pos, 3, sort_d3); sort_d3 = pos; pos = t;
+		t = permute(vel, 3, sort_d3); sort_d3 = vel; vel = t;
+		t = permute(lc, 2, sort_d2); sort_d2 = lc; lc = t;
+		t = permute(dt, 1, sort_d1); sort_d1 = dt; dt = t;
+		t = permute(mpw, 1, sort_d1); sort_d1 = mpw; mpw = t;
+		t = permute(mass, 1, sort_d1); sort_d1 = mass; mass = t;
+		t = permute(radius, 1, sort_d1); sort_d1 = radius; radius = t;
+		int ti[];
+		ti = permute(id, sort_i1); sort_i1 = id; id = ti;
+		ti = permute(born_it, sort_i1); sort_i1 = born_it; born_it = ti;
+		return true;
+	}
+
+	/** copies src into dst in the order given by sort_perm, stride values per particle */
+	private double[] permute(double src[], int stride, double dst[]) {
+		for (int k = 0; k < np; k++) {
+			int p = sort_perm[k];
+			for (int d = 0; d < stride; d++)
+				dst[stride * k + d] = src[stride * p + d];
+		}
+		return dst;
+	}
+
+	private int[] permute(int src[], int dst[]) {
+		for (int k = 0; k < np; k++)
+			dst[k] = src[sort_perm[k]];
+		return dst;
+	}
+
+	/** removes all particles */
+	public void clear() {
+		np = 0;
+	}
+}
@@ -0,0 +1,92 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.materials;
+
+import java.util.Arrays;
+import starfish.core.materials.KineticMaterial.ParticleBlock;
+
+/**
+ * Set of particle ids followed by a diagnostic. Created with KineticMaterial.createTagSet,
+ * the material then records the block and slot of every tagged particle as it is added
+ * to a block, so the particles are found without searching the whole population.
+ *
+ * Ids are kept in an open addressing table mapping the id to its index k in the set.
+ * Block and slot of entry k are only a hint, the slot is verified on lookup and the
+ * block is rescanned if the particle moved within it.
+ */
+public class TagSet {
+	final int ids[];
+
+	/* open addressing table, keys[h] is an id or EMPTY and index[h] its position in ids */
+	static final int EMPTY = Integer.MIN_VALUE;
+	final int keys[];
+	final int index[];
+	final int mask;
+
+	/* last known location of each tagged particle, block is null if not found */
+	final ParticleBlock block[];
+	final int slot[];
+
+	TagSet(int ids[]) {
+		this.ids = ids.clone();
+		int cap = Integer.highestOneBit(Math.max(2 * ids.length, 8) - 1) << 1;
+		keys = new int[cap];
+		index = new int[cap];
+		mask = cap - 1;
+		Arrays.fill(keys, EMPTY);
+		for (int k = 0; k < ids.length; k++) {
+			int h = hash(ids[k]) & mask;
+			while (keys[h] != EMPTY && keys[h] != ids[k])
+				h = (h + 1) & mask;
+			if (keys[h] == EMPTY) {	/* duplicates share the first entry */
+				keys[h] = ids[k];
+				index[h] = k;
+			}
+		}
+		block = new ParticleBlock[ids.length];
+		slot = new int[ids.length];
+	}
+
+	/** @return number of tagged ids */
+	public int size() {
+		return ids.length;
+	}
+
+	/** @return id of the k-th tagged particle */
+	public int id(int k) {
+		return ids[k];
+	}
+
+	/** @return position of id in this set or -1 if not tagged */
+	public int indexOf(long id) {
+		if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE || id == EMPTY)
+			return -1;
+		int key = (int) id;
+		int h = hash(key) & mask;
+		while (keys[h] != EMPTY) {
+			if (keys[h] == key)
+				return index[h];
+			h = (h + 1) & mask;
+		}
+		return -1;
+	}
+
+	/** records the location of a particle added to a block, ignored if not tagged */
+	void added(ParticleBlock pb, int id, int s) {
+		int k = indexOf(id);
+		if (k < 0)
+			return;
+		block[k] = pb;
+		slot[k] = s;
+	}
+
+	/* ids are mostly consecutive, spread them over the table */
+	private static int hash(int id) {
+		int h = id * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
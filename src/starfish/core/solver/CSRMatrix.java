@@ -0,0 +1,169 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.solver;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable sparse matrix in the compressed sparse row (CSR) format. Row i holds
+ * the columns col[row_ptr[i]..row_ptr[i+1]-1], sorted in increasing order, with
+ * values in val[]. The position of the diagonal entry of each row is cached so
+ * that Gauss-Seidel type sweeps do not need to search for it.
+ *
+ * Instances are obtained by freezing an assembled Matrix with Matrix.csr().
+ */
+public final class CSRMatrix {
+	public final int nr; /* number of rows */
+	final int row_ptr[]; /* start of each row in col and val, size nr+1 */
+	final int col[]; /* column indexes */
+	final double val[]; /* non-zero values */
+	final int diag_ptr[]; /* index of the diagonal in val, or -1 if not stored */
+
+	/** builds the CSR form of an assembled hash map matrix */
+	CSRMatrix(Matrix A) {
+		nr = A.nr;
+		row_ptr = new int[nr + 1];
+		for (int i = 0; i < nr; i++)
+			row_ptr[i + 1] = row_ptr[i] + A.data.get(i).size();
+
+		col = new int[row_ptr[nr]];
+		val = new double[row_ptr[nr]];
+		diag_ptr = new int[nr];
+
+		for (int i = 0; i < nr; i++) {
+			HashMap<Integer, Double> row = A.data.get(i);
+			int k = row_ptr[i];
+			for (Integer c : row.keySet())
+				col[k++] = c;
+			Arrays.sort(col, row_ptr[i], k);
+
+			diag_ptr[i] = -1;
+			for (k = row_ptr[i]; k < row_ptr[i + 1]; k++) {
+				val[k] = row.get(col[k]);
+				if (col[k] == i)
+					diag_ptr[i] = k;
+			}
+		}
+	}
+
+	/** wraps already compressed data, columns in each row must be sorted */
+	CSRMatrix(int nr, int row_ptr[], int col[], double val[]) {
+		this.nr = nr;
+		this.row_ptr = row_ptr;
+		this.col = col;
+		this.val = val;
+		diag_ptr = new int[nr];
+		for (int i = 0; i < nr; i++) {
+			int k = Arrays.binarySearch(col, row_ptr[i], row_ptr[i + 1], i);
+			diag_ptr[i] = k >= 0 ? k : -1;
+		}
+	}
+
+	/** creates a matrix with the same sparsity pattern as S but new values */
+	private CSRMatrix(CSRMatrix S, double val[]) {
+		nr = S.nr;
+		row_ptr = S.row_ptr;
+		col = S.col;
+		diag_ptr = S.diag_ptr;
+		this.val = val;
+	}
+
+	/** @return number of stored values */
+	public int nnz() {
+		return val.length;
+	}
+
+	/** @return value at row i and column j */
+	public double get(int i, int j) {
+		int k = Arrays.binarySearch(col, row_ptr[i], row_ptr[i + 1], j);
+		return k >= 0 ? val[k] : 0;
+	}
+
+	/** @return diagonal value in row i */
+	public double diag(int i) {
+		int k = diag_ptr[i];
+		return k >= 0 ? val[k] : 0;
+	}
+
+	/** @return vector containing the diagonal */
+	public double[] diag() {
+		double D[] = new double[nr];
+		for (int i = 0; i < nr; i++)
+			D[i] = diag(i);
+		return D;
+	}
+
+	/** @return A*x */
+	public double[] mult(double x[]) {
+		double b[] = new double[nr];
+		mult(x, b);
+		return b;
+	}
+
+	/** performs matrix vector multiplication and stores it in result */
+	public void mult(double x[], double result[]) {
+		for (int i = 0; i < nr; i++) {
+			double prod = 0;
+			for (int k = row_ptr[i]; k < row_ptr[i + 1]; k++)
+				prod += val[k] * x[col[k]];
+			result[i] = prod;
+		}
+	}
+
+	/** @return row i of A times x */
+	public double multRow(double x[], int i) {
+		double prod = 0;
+		for (int k = row_ptr[i]; k < row_ptr[i + 1]; k++)
+			prod += val[k] * x[col[k]];
+		return prod;
+	}
+
+	/** @return row i of A times x excluding the diagonal element */
+	public double multRowNonDiag(double x[], int i) {
+		double prod = 0;
+		for (int k = row_ptr[i]; k < row_ptr[i + 1]; k++)
+			if (k != diag_ptr[i])
+				prod += val[k] * x[col[k]];
+		return prod;
+	}
+
+	/**
+	 * computes A-diag(b)
+	 * @param b values to subtract from the diagonal
+	 * @param R matrix from a previous call to reuse, may be null
+	 * @return A-diag(b), same as R if R shares our sparsity pattern
+	 */
+	public CSRMatrix subtractDiag(double b[], CSRMatrix R) {
+		assert (nr == b.length);
+
+		for (int i = 0; i < nr; i++)
+			if (diag_ptr[i] < 0 && b[i] != 0)
+				return toMatrix().subtractDiag(b).csr();
+
+		if (R == null || R.col != col)
+			R = new CSRMatrix(this, new double[val.length]);
+
+		System.arraycopy(val, 0, R.val, 0, val.length);
+		for (int i = 0; i < nr; i++)
+			if (diag_ptr[i] >= 0)
+				R.val[diag_ptr[i]] -= b[i];
+		return R;
+	}
+
+	/** @return modifiable hash map copy of this matrix */
+	public Matrix toMatrix() {
+		Matrix A = new Matrix(nr);
+		for (int i = 0; i < nr; i++) {
+			Map<Integer, Double> row = A.data.get(i);
+			for (int k = row_ptr[i]; k < row_ptr[i + 1]; k++)
+				row.put(col[k], val[k]);
+		}
+		return A;
+	}
+}
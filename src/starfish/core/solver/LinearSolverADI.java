@@ -28,7 +28,7 @@ public class LinearSolverADI implements LinearSolver
     class ParLinearGS<K> implements Callable
     {
 	int i_min,i_max;
-	Matrix A;
+	CSRMatrix A;
 	double x[],b[];
 	double Ax_neigh[];
 	protected int id;
@@ -36,7 +36,7 @@ public class LinearSolverADI implements LinearSolver
 	ParLinearGS(int id, int i_min, int i_max, MeshData md)
 	{
 	    this.id=id;
-	    this.A=md.A;
+	    this.A=md.getA();
 	    this.x=md.x;
 	    this.b=md.b;
 	    this.Ax_neigh = md.Ax_neigh;
@@ -51,7 +51,7 @@ public class LinearSolverADI implements LinearSolver
 	    {		
 		/* tau = [A-D]x */
 		double tau = A.multRowNonDiag(x, u);
-		double g = (b[u] - Ax_neigh[u] - tau) / A.get(u,u);
+		double g = (b[u] - Ax_neigh[u] - tau) / A.diag(u);
 
 		 x[u] = x[u] + 1.4*(g-x[u]); /*SOR*/
 	    }
@@ -84,6 +84,7 @@ public class LinearSolverADI implements LinearSolver
 	    Log.error("ADI multi-domain support not yet implemented");
 	
 	MeshData md = mesh_data[0];
+	CSRMatrix A = md.getA();
 	
 	/* construct the X and Y vectors*/
 	int nu = md.x.length;
@@ -108,18 +109,18 @@ public class LinearSolverADI implements LinearSolver
 	    //reset diagonals
 	    for (int u=0;u<nu;u++)
 	    {
-		Xb[u] = md.A.get(u, u);
+		Xb[u] = A.diag(u);
 		Yb[u] = Xb[u];
 		d[u] = md.b[u];
 
 		if (u>=1)
-		    Xa[u] = md.A.get(u,u-1);
+		    Xa[u] = A.get(u,u-1);
 		if (u<nu-1)
-		    Xc[u] = md.A.get(u,u+1);
+		    Xc[u] = A.get(u,u+1);
 		if (u>=ni)
-		    Ya[u] = md.A.get(u,u-ni);
+		    Ya[u] = A.get(u,u-ni);
 		if (u<nu-ni)
-		    Yc[u] = md.A.get(u,u+ni);	    
+		    Yc[u] = A.get(u,u+ni);	    
 	    }
 	
 	    //compute RHS = b-X*phi or b-Y*phi
@@ -171,7 +172,7 @@ public class LinearSolverADI implements LinearSolver
 		norm=0;
 		int nn=0;
 		
-		norm += Solver.calculateResidue(md.A, md.Ax_neigh, md.x, md.b);
+		norm += Solver.calculateResidue(md.getA(), md.Ax_neigh, md.x, md.b);
 		nn += md.x.length;
 		
 		norm/=nn;
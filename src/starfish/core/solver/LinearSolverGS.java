@@ -1,155 +1,272 @@
 /*
  * (c) 2012-2018 Particle In Cell Consulting LLC
- * 
- * This document is subject to the license specified in 
+ *
+ * This document is subject to the license specified in
  * Starfish.java and the LICENSE file
  */
 package starfish.core.solver;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
+import starfish.core.common.WorkerPool;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.solver.Solver.LinearSolver;
 import starfish.core.solver.Solver.MeshData;
 
-/**
+/** Multicolor SOR solver
+ *
+ * Unknowns are colored so that no two unknowns of the same color are coupled
+ * through the matrix, which gives the red-black ordering for the 5-point stencil
+ * and four colors for the 9-point one. Colors are swept in turn and all unknowns
+ * of a color are updated in parallel on the shared worker pool, so the result does
+ * not depend on the number of threads.
+ *
+ * The residual is accumulated during the sweeps instead of a separate pass, see
+ * solve(). With adaptive over-relaxation, the solver starts with Gauss-Seidel and
+ * periodically measures the convergence rate, which gives the spectral radius of the
+ * Jacobi iteration and from it the optimum omega. The value is kept between calls.
  *
  * @author Lubos Brieda
  */
 public class LinearSolverGS implements LinearSolver
 {
-    class ParLinearGS<K> implements Callable
+    static final int MIN_CHUNK = 4096;	    /*smallest number of unknowns processed by a separate task*/
+    static final int WARMUP = 10;	    /*sweeps after a change of omega before the rate is measured*/
+    static final int WINDOW = 40;	    /*sweeps over which the convergence rate is measured*/
+    static final double MAX_OMEGA = 1.95;
+
+    protected final boolean adaptive;
+    protected double omega;
+
+    /** unknowns grouped by color for each mesh */
+    static class Coloring
     {
-	int i_min,i_max;
-	Matrix A;
-	double x[],b[];
-	double Ax_neigh[];
-	protected int id;
-	
-	ParLinearGS(int id, int i_min, int i_max, MeshData md)
-	{
-	    this.id=id;
-	    this.A=md.A;
-	    this.x=md.x;
-	    this.b=md.b;
-	    this.Ax_neigh = md.Ax_neigh;
-	    this.i_min=i_min;
-	    this.i_max=i_max<A.nr?i_max:A.nr;
-	}
-	
-	@Override
-	public String call() throws Exception
-	{
-	    for (int u=i_min;u<i_max;u++)
-	    {		
-			/* tau = [A-D]x */
-			double tau = A.multRowNonDiag(x, u);
-			if (Math.abs(A.get(u, u))<1e-8) 
-			{
-				continue;
-			}
-				
-			double g = (b[u] - Ax_neigh[u] - tau) / A.get(u,u);
-	
-			 x[u] = x[u] + 1.4*(g-x[u]); /*SOR*/
-			}
-		    
-		    return "OK";
-		}
-	
+	int col[];		/*column array of the matrix this was built for*/
+	int order[];		/*unknowns sorted by color*/
+	int color_start[];	/*color c holds order[color_start[c]:color_start[c+1]]*/
+
+	/*squared residuals from the last sweep for the first color and the others*/
+	double r2_first, r2_rest;
+    }
+
+    Coloring coloring[] = new Coloring[0];
+    double partial[] = new double[0];	/*per chunk residual sums*/
+
+    /** creates a solver with adaptive over-relaxation */
+    public LinearSolverGS()
+    {
+	this(0);
+    }
+
+    /**
+     * @param omega relaxation factor, 0 to estimate it from the convergence rate
+     */
+    public LinearSolverGS(double omega)
+    {
+	this.adaptive = omega<=0;
+	this.omega = adaptive?1.0:omega;
     }
 
+    /** @return relaxation factor used by the last sweep */
+    public double getOmega() {return omega;}
+
     /**
-     * solves Ax=b for x using the GS method
+     * solves Ax=b for x using multicolor SOR
      * @param mesh_data
-     * @return 
+     * @return number of iterations
      */
+    @Override
     public int solve(MeshData mesh_data[], FieldCollection2D fc, int max_it, double tolerance)
     {
-		/*create threads*/
-		int np = Starfish.getNumProcessors();
-		
-		/*total number of unknowns*/
-		int nu_total = 0;
-		for (MeshData md:mesh_data)
-		    nu_total+=md.x.length;
-	
-		Collection<Callable<String>> workers = new ArrayList<Callable<String>>();
-		ExecutorService executor = Executors.newFixedThreadPool(np);
-		
-		for (MeshData md:mesh_data)
-		{
-		    int nu = md.x.length;
-		    
-		    /*number of nodes in each chunk*/
-		    int chunk_size = (int)((double)nu_total/np)+1;
-		    
-		    for (int i1=0, id=0;i1<nu;i1+=chunk_size)
-		    {
-			/*avoid creating new threads for pieces with less than 100 unknowns*/
-			if ((nu-(i1+chunk_size))<100) chunk_size = nu-i1;		
-		    	workers.add(new ParLinearGS(id,i1,i1+chunk_size,md));
-		    }
-		}
-	
-		/* SOLVER */
-		int it = 1;			/*start with one so we don't compute residue on first run*/
-		double norm=1e66;
-		while (it <= max_it)
+	setup(mesh_data);
+
+	int nn = 0;
+	for (MeshData md:mesh_data)
+	    nn+=md.x.length;
+
+	double w = omega;
+	double norm=1e66;
+	double w_prev = w;
+
+	/*window over which the convergence rate is measured*/
+	int mark_it = WARMUP;
+	double mark_norm = 0;
+
+	int it = 0;
+	while (it < max_it)
+	{
+	    /*** update boundaries**/
+	    Solver.updateGhostVector(mesh_data, fc);
+
+	    /* Residual of the previous iterate, same scaling as calculateResidue. The
+	     * first color is not coupled to itself, so its residuals just before this
+	     * sweep's update are exact. The other colors were last changed by their own
+	     * update in the previous sweep, which left (1-w) of their residual.*/
+	    norm=0;
+	    for (int m=0;m<mesh_data.length;m++)
+	    {
+		Coloring cm = coloring[m];
+		double r2_rest = cm.r2_rest;
+		double w_rest = w_prev;
+		sweep(mesh_data[m],cm,w);
+		if (it==0) {r2_rest = cm.r2_rest; w_rest = w;}	/*no previous sweep*/
+		norm += Math.sqrt(cm.r2_first + (1-w_rest)*(1-w_rest)*r2_rest)/mesh_data[m].x.length;
+	    }
+	    norm/=nn;
+	    w_prev = w;
+	    it++;
+
+	    if (Double.isInfinite(norm) || Double.isNaN(norm))
+		Log.error("Solver diverged, aborting");
+
+	    if (norm < tolerance)
+	    {
+		Log.debug(String.format("GS converged in %d iterations with norm=%g, omega=%.3f",it,norm,w));
+		break;
+	    }
+
+	    if (!adaptive) continue;
+	    if (it==mark_it)
+		mark_norm = norm;
+	    else if (it==mark_it+WINDOW)
+	    {
+		double lambda = Math.pow(norm/mark_norm, 1.0/WINDOW);
+		if (lambda<1)
 		{
-		    /*** update boundaries**/	    
-		    Solver.updateGhostVector(mesh_data, fc);
-		    
-		    /* check convergence */
-		    if (it % 25 == 0)
-		    {
-				norm=0;
-				int nn=0;
-				
-				for (MeshData md:mesh_data)
-				{
-				    norm += Solver.calculateResidue(md.A, md.Ax_neigh, md.x, md.b);
-				    nn += md.x.length;
-				}
-				
-				norm/=nn;
-				
-				//System.out.println(norm);
-				if (norm < tolerance)
-				{
-				    Log.debug(String.format("GS converged in %d iterations with norm=%g",it,norm));
-				    break;
-				}
-		    }
-			    
-		    try
-		    {
-		    	executor.invokeAll(workers);
-		    } catch (InterruptedException ex)
-		    {
-		    	Logger.getLogger(Solver.class.getName()).log(Level.SEVERE, null, ex);
-		    }
-		    it++;
+		    /*SOR with consistent ordering, (lambda+w-1)^2 = lambda*w^2*rho_J^2*/
+		    double rho2 = (lambda+w-1)*(lambda+w-1)/(lambda*w*w);
+		    if (rho2<1)
+			omega = Math.min(2/(1+Math.sqrt(1-rho2)),MAX_OMEGA);
 		}
-	 	it--;
-		if (it >= max_it)
+		else
+		    omega = 1+0.5*(omega-1);	/*not converging, back off*/
+
+		if (omega!=w)
+		    Log.debug(String.format("GS convergence rate %.5f at omega=%.3f, using omega=%.3f",lambda,w,omega));
+		w = omega;
+		mark_it = it+WARMUP;
+	    }
+	}
+
+	if (it >= max_it)
+	{
+	    Starfish.Log.warning(" !! GS failed to converge in " + it + " iteration, norm = " + norm);
+	    if (adaptive) omega = 1+0.5*(omega-1);
+	}
+
+	return it;
+    }
+
+    /** colors the unknowns of each mesh, reused while the sparsity pattern is unchanged*/
+    void setup(MeshData mesh_data[])
+    {
+	if (coloring.length!=mesh_data.length)
+	    coloring = new Coloring[mesh_data.length];
+
+	for (int m=0;m<mesh_data.length;m++)
+	{
+	    CSRMatrix A = mesh_data[m].getA();
+	    if (coloring[m]!=null && coloring[m].col==A.col) continue;
+	    coloring[m] = color(A);
+	    Log.debug(String.format("GS using %d colors",coloring[m].color_start.length-1));
+	}
+    }
+
+    /** greedy coloring in row order, checkerboard for the 5-point stencil. Both
+     * A[u][v] and A[v][u] couple u and v, rows copied from gradient stencils on
+     * Neumann boundaries are not symmetric*/
+    static Coloring color(CSRMatrix A)
+    {
+	int n = A.nr;
+
+	/*lower neighbors of each row in the symmetrized pattern, zero values ignored*/
+	int lo_start[] = new int[n+1];
+	for (int u=0;u<n;u++)
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+		if (A.val[k]!=0 && A.col[k]!=u) lo_start[Math.max(u,A.col[k])+1]++;
+	for (int u=0;u<n;u++) lo_start[u+1]+=lo_start[u];
+	int lo[] = new int[lo_start[n]];
+	int fill[] = lo_start.clone();
+	for (int u=0;u<n;u++)
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+	    {
+		int v = A.col[k];
+		if (A.val[k]!=0 && v!=u) lo[fill[Math.max(u,v)]++] = Math.min(u,v);
+	    }
+
+	int color[] = new int[n];
+	int num_colors = 0;
+	for (int u=0;u<n;u++)
+	{
+	    int c = 0;
+	    boolean taken = true;
+	    while (taken)
+	    {
+		taken = false;
+		for (int k=lo_start[u];k<lo_start[u+1] && !taken;k++)
+		    taken = color[lo[k]]==c;
+		if (taken) c++;
+	    }
+	    color[u] = c;
+	    num_colors = Math.max(num_colors,c+1);
+	}
+
+	/*counting sort by color, keeping the row order within each color*/
+	Coloring col = new Coloring();
+	col.col = A.col;
+	col.color_start = new int[num_colors+1];
+	for (int u=0;u<n;u++) col.color_start[color[u]+1]++;
+	for (int c=0;c<num_colors;c++) col.color_start[c+1]+=col.color_start[c];
+	col.order = new int[n];
+	fill = col.color_start.clone();
+	for (int u=0;u<n;u++) col.order[fill[color[u]]++] = u;
+	return col;
+    }
+
+    /**
+     * one SOR sweep over all colors, sums of squared residuals evaluated just before
+     * each update are saved in the coloring
+     */
+    void sweep(MeshData md, Coloring coloring, double w)
+    {
+	final CSRMatrix A = md.getA();
+	final double x[] = md.x;
+	final double b[] = md.b;
+	final double Ax_neigh[] = md.Ax_neigh;
+	final int order[] = coloring.order;
+
+	double first = 0, rest = 0;
+	for (int c=0;c<coloring.color_start.length-1;c++)
+	{
+	    final int start = coloring.color_start[c];
+	    int n = coloring.color_start[c+1]-start;
+	    int nc = WorkerPool.numChunks(n, MIN_CHUNK);
+	    if (partial.length<nc) partial = new double[nc];
+	    final double part[] = partial;
+
+	    WorkerPool.parallelFor(n, MIN_CHUNK, (chunk,i_min,i_max)->{
+		double s = 0;
+		for (int k=start+i_min;k<start+i_max;k++)
 		{
-		    Starfish.Log.warning(" !! GS failed to converge in " + it + " iteration, norm = " + norm);
+		    int u = order[k];
+		    double a_uu = A.diag(u);
+		    if (Math.abs(a_uu)<1e-8) continue;
+
+		    /* r = b - Ax_neigh - Ax */
+		    double r = b[u] - (Ax_neigh!=null?Ax_neigh[u]:0) - A.multRowNonDiag(x, u) - a_uu*x[u];
+		    s += r*r;
+		    x[u] += w*r/a_uu; /*SOR*/
 		}
-	
-		executor.shutdown();
-		
-		/*hack for testing*/
-		
-		return it;
-    }
+		part[chunk] = s;
+	    });
 
-    
+	    /*partial sums added in chunk order so the result does not depend on thread timing*/
+	    double sum = 0;
+	    for (int i=0;i<nc;i++)
+		sum += part[i];
+	    if (c==0) first = sum; else rest += sum;
+	}
+	coloring.r2_first = first;
+	coloring.r2_rest = rest;
+    }
 }
@@ -21,7 +21,8 @@ public class LinearSolverLU implements LinearSolver
 	    if (md.L==null || md.U==null)
 	    {
 		try {
-		Matrix ret[] = md.A.decomposeLU();
+		Matrix A = (md.A != null) ? md.A : md.getA().toMatrix();
+		Matrix ret[] = A.decomposeLU();
 		md.L = ret[0]; md.U = ret[1];
 		}
 		catch (UnsupportedOperationException e)
@@ -36,7 +37,7 @@ public class LinearSolverLU implements LinearSolver
 	    Matrix U = md.U;
 	    
 	    //first solve Ly=b using forward subsitution
-	    int n = md.A.nr;
+	    int n = md.x.length;
 	    double y[] = new double[n];
 	    y[0] = b[0] / L.get(0,0);
 	    for (int i=1;i<n;i++)
@@ -1,29 +1,550 @@
 /*
  * (c) 2012-2018 Particle In Cell Consulting LLC
- * 
- * This document is subject to the license specified in 
+ *
+ * This document is subject to the license specified in
  * Starfish.java and the LICENSE file
  */
 package starfish.core.solver;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import starfish.core.common.Starfish;
+import starfish.core.common.Starfish.Log;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.solver.Solver.LinearSolver;
 import starfish.core.solver.Solver.MeshData;
 
-/** Placeholder for a multigrid solver, not yet implemented
- * 
- * @author Lubos Brieda 
+/** Geometric multigrid solver
+ *
+ * Each mesh is coarsened by dropping every other node in the i and j index directions
+ * (directions with three or fewer nodes are not coarsened). Values are transferred with
+ * bilinear interpolation in index space, which works for both uniform and quadrilateral
+ * meshes, and coarse matrices are formed with the Galerkin product R*A*P with R=P^T.
+ * Gauss-Seidel sweeps are used as the smoother and the coarsest level is solved directly.
+ * Multiple meshes are coupled through the ghost vector, which is updated before each cycle.
+ *
+ * @author Lubos Brieda
  */
 public class LinearSolverMG implements LinearSolver
 {
+    protected boolean w_cycle;	    /*use W cycles instead of V cycles*/
+    protected int pre_sweeps;	    /*smoothing sweeps before restriction*/
+    protected int post_sweeps;	    /*smoothing sweeps after prolongation*/
+
+    static final int COARSE_SIZE = 100;	    /*solve directly once the level has at most this many nodes*/
+
+    Hierarchy hierarchy[] = new Hierarchy[0];	    /*cached levels for each mesh*/
+
+    /** creates a V(2,2) cycle solver */
+    public LinearSolverMG()
+    {
+	this(false,2,2);
+    }
+
+    /**
+     * @param w_cycle use W cycles instead of V cycles
+     * @param pre_sweeps number of Gauss-Seidel sweeps before coarse grid correction
+     * @param post_sweeps number of Gauss-Seidel sweeps after coarse grid correction
+     */
+    public LinearSolverMG(boolean w_cycle, int pre_sweeps, int post_sweeps)
+    {
+	this.w_cycle = w_cycle;
+	this.pre_sweeps = pre_sweeps;
+	this.post_sweeps = post_sweeps;
+    }
+
+    /** single level of the grid hierarchy */
+    static class Level
+    {
+	int ni,nj;		/*number of nodes*/
+	CSRMatrix A;
+	double x[],b[],r[];
+
+	/*interpolation from the next coarser level, per direction. Fine node i receives
+	 w0[i]*xc[c0[i]] + w1[i]*xc[c1[i]], c1 is -1 if only one coarse node contributes*/
+	int ci0[],ci1[],cj0[],cj1[];
+	double wi0[],wi1[],wj0[],wj1[];
+
+	/*dense LU factors on the coarsest level, null if singular*/
+	double lu[][];
+	int piv[];
+
+	Level(int ni, int nj)
+	{
+	    this.ni = ni;
+	    this.nj = nj;
+	    r = new double[ni*nj];
+	}
+    }
+
+    /** levels built for a single mesh */
+    static class Hierarchy
+    {
+	Level levels[];
+	double scale[];		/*fine rows are scaled by the inverse of the diagonal*/
+	CSRMatrix A;		/*fine matrix the hierarchy was built for*/
+	double A_val[];		/*values of A at build time, to detect in-place updates*/
+    }
+
     /**
      * solves Ax=b for x using the Multigrid method
-     * @return 
+     * @return number of cycles
      */
-    public int solve(MeshData mesh_data[], FieldCollection2D fc, int num_it, double tolerance)
+    @Override
+    public int solve(MeshData mesh_data[], FieldCollection2D fc, int max_it, double tolerance)
+    {
+	setup(mesh_data);
+
+	int it;
+	double norm=1e66;
+	for (it=0;it<max_it;it++)
+	{
+	    /*** update boundaries**/
+	    Solver.updateGhostVector(mesh_data, fc);
+
+	    /* check convergence, same measure as the GS solver */
+	    norm=0;
+	    int nn=0;
+	    for (MeshData md:mesh_data)
+	    {
+		norm += Solver.calculateResidue(md.getA(), md.Ax_neigh, md.x, md.b);
+		nn += md.x.length;
+	    }
+	    norm/=nn;
+
+	    if (norm < tolerance)
+	    {
+		Log.debug(String.format("MG converged in %d cycles with norm=%g",it,norm));
+		break;
+	    }
+
+	    for (int m=0;m<mesh_data.length;m++)
+	    {
+		MeshData md = mesh_data[m];
+		Level fine = hierarchy[m].levels[0];
+
+		/*fine level works directly on the solution vector*/
+		double scale[] = hierarchy[m].scale;
+		fine.x = md.x;
+		for (int u=0;u<fine.b.length;u++)
+		    fine.b[u] = scale[u]*(md.b[u] - md.Ax_neigh[u]);
+
+		cycle(hierarchy[m].levels,0);
+	    }
+	}
+
+	if (it >= max_it)
+	    Starfish.Log.warning(" !! MG failed to converge in " + it + " cycles, norm = " + norm);
+
+	return it;
+    }
+
+    /** builds or updates the level hierarchy for each mesh
+     * @param mesh_data meshes to prepare*/
+    public void setup(MeshData mesh_data[])
+    {
+	if (hierarchy.length!=mesh_data.length)
+	    hierarchy = new Hierarchy[mesh_data.length];
+
+	for (int m=0;m<mesh_data.length;m++)
+	    hierarchy[m] = getHierarchy(hierarchy[m], mesh_data[m]);
+    }
+
+    /** applies a single cycle to A*z=r starting from z=0, used as a preconditioner.
+     * setup must be called first
+     * @param m mesh index
+     * @param r right hand side
+     * @param z approximate solution*/
+    public void precondition(int m, double r[], double z[])
+    {
+	Level fine = hierarchy[m].levels[0];
+	double scale[] = hierarchy[m].scale;
+
+	Arrays.fill(z, 0);
+	fine.x = z;
+	for (int u=0;u<r.length;u++)
+	    fine.b[u] = scale[u]*r[u];
+
+	cycle(hierarchy[m].levels,0);
+    }
+
+    /** performs a single V or W cycle starting at level l*/
+    void cycle(Level levels[], int l)
     {
-	/*TODO: Implement*/
-	throw new UnsupportedOperationException("Not yet implemented");	
+	Level fine = levels[l];
+
+	if (l==levels.length-1)
+	{
+	    coarseSolve(fine);
+	    return;
+	}
+
+	Level coarse = levels[l+1];
+
+	for (int s=0;s<pre_sweeps;s++)
+	    smooth(fine,true);
+
+	/*restrict residue, b_c = P^T (b-Ax)*/
+	for (int u=0;u<fine.r.length;u++)
+	    fine.r[u] = fine.b[u] - fine.A.multRow(fine.x, u);
+	restrict(coarse, fine.r, coarse.b);
+	Arrays.fill(coarse.x, 0);
+
+	cycle(levels,l+1);
+	if (w_cycle && l+1<levels.length-1)
+	    cycle(levels,l+1);
+
+	/*add correction, x = x + P*x_c*/
+	prolongate(coarse, coarse.x, fine.x);
+
+	for (int s=0;s<post_sweeps;s++)
+	    smooth(fine,false);
+    }
+
+    /** Gauss-Seidel sweep in the forward or backward direction*/
+    static void smooth(Level level, boolean forward)
+    {
+	CSRMatrix A = level.A;
+	double x[] = level.x;
+	double b[] = level.b;
+	int nu = x.length;
+
+	for (int k=0;k<nu;k++)
+	{
+	    int u = forward?k:nu-1-k;
+	    double a_uu = A.diag(u);
+	    if (Math.abs(a_uu)<1e-8) continue;	    /*same as LinearSolverGS*/
+	    x[u] = (b[u] - A.multRowNonDiag(x, u))/a_uu;
+	}
+    }
+
+    /** solves the coarsest level with the dense LU factors, or with GS if singular*/
+    static void coarseSolve(Level level)
+    {
+	if (level.lu==null)
+	{
+	    for (int s=0;s<50;s++)
+		smooth(level,(s%2)==0);
+	    return;
+	}
+
+	double lu[][] = level.lu;
+	int n = lu.length;
+	double x[] = level.x;
+
+	for (int i=0;i<n;i++)
+	    x[i] = level.b[level.piv[i]];
+
+	/*forward substitution, L has unit diagonal*/
+	for (int i=1;i<n;i++)
+	{
+	    double s = x[i];
+	    for (int j=0;j<i;j++)
+		s -= lu[i][j]*x[j];
+	    x[i] = s;
+	}
+
+	/*back substitution*/
+	for (int i=n-1;i>=0;i--)
+	{
+	    double s = x[i];
+	    for (int j=i+1;j<n;j++)
+		s -= lu[i][j]*x[j];
+	    x[i] = s/lu[i][i];
+	}
+    }
+
+    /** xf += P*xc, coarse level holds the interpolation weights*/
+    static void prolongate(Level coarse, double xc[], double xf[])
+    {
+	int ni = coarse.ci0.length;
+	int nj = coarse.cj0.length;
+	int nci = coarse.ni;
+
+	for (int j=0;j<nj;j++)
+	    for (int i=0;i<ni;i++)
+	    {
+		double v = coarse.wi0[i]*coarse.wj0[j]*xc[coarse.cj0[j]*nci+coarse.ci0[i]];
+		if (coarse.ci1[i]>=0)
+		    v += coarse.wi1[i]*coarse.wj0[j]*xc[coarse.cj0[j]*nci+coarse.ci1[i]];
+		if (coarse.cj1[j]>=0)
+		{
+		    v += coarse.wi0[i]*coarse.wj1[j]*xc[coarse.cj1[j]*nci+coarse.ci0[i]];
+		    if (coarse.ci1[i]>=0)
+			v += coarse.wi1[i]*coarse.wj1[j]*xc[coarse.cj1[j]*nci+coarse.ci1[i]];
+		}
+		xf[j*ni+i] += v;
+	    }
+    }
+
+    /** bc = P^T*rf */
+    static void restrict(Level coarse, double rf[], double bc[])
+    {
+	int ni = coarse.ci0.length;
+	int nj = coarse.cj0.length;
+	int nci = coarse.ni;
+
+	Arrays.fill(bc, 0);
+	for (int j=0;j<nj;j++)
+	    for (int i=0;i<ni;i++)
+	    {
+		double r = rf[j*ni+i];
+		if (r==0) continue;
+		bc[coarse.cj0[j]*nci+coarse.ci0[i]] += coarse.wi0[i]*coarse.wj0[j]*r;
+		if (coarse.ci1[i]>=0)
+		    bc[coarse.cj0[j]*nci+coarse.ci1[i]] += coarse.wi1[i]*coarse.wj0[j]*r;
+		if (coarse.cj1[j]>=0)
+		{
+		    bc[coarse.cj1[j]*nci+coarse.ci0[i]] += coarse.wi0[i]*coarse.wj1[j]*r;
+		    if (coarse.ci1[i]>=0)
+			bc[coarse.cj1[j]*nci+coarse.ci1[i]] += coarse.wi1[i]*coarse.wj1[j]*r;
+		}
+	    }
+    }
+
+    /** returns the hierarchy for the mesh, reusing the old one if A did not change*/
+    Hierarchy getHierarchy(Hierarchy h, MeshData md)
+    {
+	CSRMatrix A = md.getA();
+	if (h!=null && h.A==A && Arrays.equals(h.A_val, A.val))
+	    return h;
+
+	h = new Hierarchy();
+	h.A = A;
+	h.A_val = A.val.clone();
+
+	ArrayList<Level> list = new ArrayList<>();
+	Level fine = new Level(md.mesh.ni, md.mesh.nj);
+	if (fine.r.length!=A.nr)
+	    Log.error("MG: matrix size does not match mesh "+md.mesh.getName());
+	/*scale rows to unit diagonal so that fixed rows and FVM rows have similar
+	 weight in the coarse operators, this does not change the GS sweeps*/
+	h.scale = new double[A.nr];
+	double val[] = new double[A.val.length];
+	for (int u=0;u<A.nr;u++)
+	{
+	    double a_uu = A.diag(u);
+	    h.scale[u] = Math.abs(a_uu)<1e-8?1:1/a_uu;
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+		val[k] = h.scale[u]*A.val[k];
+	}
+	fine.A = new CSRMatrix(A.nr, A.row_ptr, A.col, val);
+	fine.b = new double[A.nr];
+	list.add(fine);
+
+	while (fine.ni*fine.nj>COARSE_SIZE && (fine.ni>3 || fine.nj>3))
+	{
+	    Level coarse = coarsen(fine);
+	    list.add(coarse);
+	    fine = coarse;
+	}
+
+	factorCoarse(fine);
+	h.levels = list.toArray(new Level[0]);
+	Log.debug(String.format("MG: %d levels for mesh %s, coarsest %dx%d",
+		h.levels.length,md.mesh.getName(),fine.ni,fine.nj));
+	return h;
+    }
+
+    /** sets up the 1D interpolation from a coarse index range, returns number of coarse nodes*/
+    static int setWeights(int n, int c0[], int c1[], double w0[], double w1[])
+    {
+	/*directions with few nodes are not coarsened*/
+	if (n<=3)
+	{
+	    for (int i=0;i<n;i++) {c0[i]=i;c1[i]=-1;w0[i]=1;w1[i]=0;}
+	    return n;
+	}
+
+	/*coarse node I sits on fine node min(2I,n-1)*/
+	int nc = n/2+1;
+	for (int i=0;i<n;i++)
+	{
+	    if (i%2==0) {c0[i]=i/2;c1[i]=-1;w0[i]=1;w1[i]=0;}
+	    else if (i==n-1) {c0[i]=nc-1;c1[i]=-1;w0[i]=1;w1[i]=0;}
+	    else {c0[i]=(i-1)/2;c1[i]=(i+1)/2;w0[i]=0.5;w1[i]=0.5;}
+	}
+	return nc;
+    }
+
+    /** creates the next coarser level with the Galerkin operator*/
+    static Level coarsen(Level fine)
+    {
+	int ni = fine.ni, nj = fine.nj;
+	int ci0[] = new int[ni], ci1[] = new int[ni], cj0[] = new int[nj], cj1[] = new int[nj];
+	double wi0[] = new double[ni], wi1[] = new double[ni], wj0[] = new double[nj], wj1[] = new double[nj];
+	int nci = setWeights(ni,ci0,ci1,wi0,wi1);
+	int ncj = setWeights(nj,cj0,cj1,wj0,wj1);
+
+	Level coarse = new Level(nci,ncj);
+	coarse.ci0=ci0; coarse.ci1=ci1; coarse.wi0=wi0; coarse.wi1=wi1;
+	coarse.cj0=cj0; coarse.cj1=cj1; coarse.wj0=wj0; coarse.wj1=wj1;
+	coarse.x = new double[nci*ncj];
+	coarse.b = new double[nci*ncj];
+	coarse.A = galerkin(fine.A, ni, nj, coarse);
+	return coarse;
+    }
+
+    /** computes Ac = P^T*A*P, coarse entries are accumulated in a small window around the diagonal*/
+    static CSRMatrix galerkin(CSRMatrix A, int ni, int nj, Level coarse)
+    {
+	int nci = coarse.ni, ncj = coarse.nj;
+
+	/*stencil radius of the fine matrix in index space*/
+	int rf = 0;
+	for (int u=0;u<A.nr;u++)
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+	    {
+		int di = Math.abs(A.col[k]%ni - u%ni);
+		int dj = Math.abs(A.col[k]/ni - u/ni);
+		rf = Math.max(rf, Math.max(di,dj));
+	    }
+	int rc = rf/2+2;
+	int w = 2*rc+1;
+
+	/*fine nodes contributing to each coarse node, inverse of the interpolation*/
+	int fi[][] = new int[nci][], fj[][] = new int[ncj][];
+	double fwi[][] = new double[nci][], fwj[][] = new double[ncj][];
+	invert(coarse.ci0,coarse.ci1,coarse.wi0,coarse.wi1,nci,fi,fwi);
+	invert(coarse.cj0,coarse.cj1,coarse.wj0,coarse.wj1,ncj,fj,fwj);
+
+	int nc = nci*ncj;
+	int row_ptr[] = new int[nc+1];
+	int col[] = new int[nc*9];
+	double val[] = new double[nc*9];
+	double window[] = new double[w*w];
+
+	for (int J=0;J<ncj;J++)
+	    for (int I=0;I<nci;I++)
+	    {
+		Arrays.fill(window, 0);
+
+		/*loop over fine rows restricted to this coarse row*/
+		for (int b=0;b<fj[J].length;b++)
+		    for (int a=0;a<fi[I].length;a++)
+		    {
+			double r = fwi[I][a]*fwj[J][b];
+			int u = fj[J][b]*ni + fi[I][a];
+
+			for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+			{
+			    double ra = r*A.val[k];
+			    if (ra==0) continue;
+			    int i = A.col[k]%ni;
+			    int j = A.col[k]/ni;
+
+			    /*interpolate column back to the coarse nodes*/
+			    for (int q=0;q<2;q++)
+			    {
+				int Jc = q==0?coarse.cj0[j]:coarse.cj1[j];
+				if (Jc<0) continue;
+				double wq = q==0?coarse.wj0[j]:coarse.wj1[j];
+				for (int p=0;p<2;p++)
+				{
+				    int Ic = p==0?coarse.ci0[i]:coarse.ci1[i];
+				    if (Ic<0) continue;
+				    double wp = p==0?coarse.wi0[i]:coarse.wi1[i];
+				    int di = Ic-I+rc;
+				    int dj = Jc-J+rc;
+				    if (di<0 || dj<0 || di>=w || dj>=w)
+					Log.error("MG: coarse stencil exceeds window");
+				    window[dj*w+di] += ra*wp*wq;
+				}
+			    }
+			}
+		    }
+
+		/*compress the window into the row, columns come out sorted*/
+		int U = J*nci+I;
+		int k = row_ptr[U];
+		for (int dj=0;dj<w;dj++)
+		    for (int di=0;di<w;di++)
+		    {
+			double v = window[dj*w+di];
+			if (v==0) continue;
+			if (k==col.length)
+			{
+			    col = Arrays.copyOf(col, 2*col.length);
+			    val = Arrays.copyOf(val, 2*val.length);
+			}
+			col[k] = (J+dj-rc)*nci + (I+di-rc);
+			val[k] = v;
+			k++;
+		    }
+		row_ptr[U+1] = k;
+	    }
+
+	return new CSRMatrix(nc, row_ptr, Arrays.copyOf(col, row_ptr[nc]), Arrays.copyOf(val, row_ptr[nc]));
+    }
+
+    /** builds the list of fine nodes (and weights) interpolated from each coarse node*/
+    static void invert(int c0[], int c1[], double w0[], double w1[], int nc, int f[][], double fw[][])
+    {
+	int count[] = new int[nc];
+	for (int i=0;i<c0.length;i++)
+	{
+	    count[c0[i]]++;
+	    if (c1[i]>=0) count[c1[i]]++;
+	}
+	for (int c=0;c<nc;c++)
+	{
+	    f[c] = new int[count[c]];
+	    fw[c] = new double[count[c]];
+	    count[c] = 0;
+	}
+	for (int i=0;i<c0.length;i++)
+	{
+	    f[c0[i]][count[c0[i]]] = i;
+	    fw[c0[i]][count[c0[i]]++] = w0[i];
+	    if (c1[i]>=0)
+	    {
+		f[c1[i]][count[c1[i]]] = i;
+		fw[c1[i]][count[c1[i]]++] = w1[i];
+	    }
+	}
+    }
+
+    /** computes dense LU factorization with partial pivoting of the coarsest level*/
+    static void factorCoarse(Level level)
+    {
+	int n = level.A.nr;
+	double lu[][] = new double[n][n];
+	int piv[] = new int[n];
+	for (int i=0;i<n;i++)
+	{
+	    piv[i] = i;
+	    for (int k=level.A.row_ptr[i];k<level.A.row_ptr[i+1];k++)
+		lu[i][level.A.col[k]] = level.A.val[k];
+	}
+
+	for (int c=0;c<n;c++)
+	{
+	    int p = c;
+	    for (int i=c+1;i<n;i++)
+		if (Math.abs(lu[i][c])>Math.abs(lu[p][c])) p = i;
+
+	    if (Math.abs(lu[p][c])<1e-300)
+	    {
+		Log.debug("MG: singular coarse matrix, using GS on the coarsest level");
+		return;
+	    }
+
+	    if (p!=c)
+	    {
+		double t[] = lu[p]; lu[p] = lu[c]; lu[c] = t;
+		int tp = piv[p]; piv[p] = piv[c]; piv[c] = tp;
+	    }
+
+	    for (int i=c+1;i<n;i++)
+	    {
+		double f = lu[i][c]/lu[c][c];
+		lu[i][c] = f;
+		if (f==0) continue;
+		for (int j=c+1;j<n;j++)
+		    lu[i][j] -= f*lu[c][j];
+	    }
+	}
+	level.lu = lu;
+	level.piv = piv;
     }
-    
 }
@@ -1,125 +1,443 @@
 /*
  * (c) 2012-2018 Particle In Cell Consulting LLC
- * 
- * This document is subject to the license specified in 
+ *
+ * This document is subject to the license specified in
  * Starfish.java and the LICENSE file
  */
 package starfish.core.solver;
 
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
-import starfish.core.common.Vec;
+import starfish.core.common.WorkerPool;
 import starfish.core.domain.DomainModule.DomainType;
 import starfish.core.domain.FieldCollection2D;
 import starfish.core.solver.Solver.LinearSolver;
 
+/** Preconditioned conjugate gradient solver
+ *
+ * All meshes are iterated together, with dot products and the convergence check
+ * taken over the combined system. On multi-domain simulations the ghost vector is
+ * updated after every INNER_IT iterations and the iteration is restarted with the
+ * new right hand side. Work vectors are kept between calls so that the iteration
+ * itself does not allocate memory.
+ *
+ * Rows containing only the diagonal, such as Dirichlet nodes, are solved directly
+ * before the iteration. Their columns then do not enter the search directions, which
+ * keeps the iterated operator symmetric for the interior FVM stencil.
+ */
 public class LinearSolverPCG implements LinearSolver
 {
+    /** available preconditioners */
+    public enum Preconditioner {NONE, JACOBI, SSOR, IC, MG};
+
+    protected Preconditioner preconditioner;
+    protected double omega = 1.0;	/*SSOR relaxation factor*/
+
+    static final int INNER_IT = 50;	    /*iterations between ghost updates on multi-domain runs*/
+    static final int MIN_CHUNK = 8192;	    /*smallest vector piece processed by a separate task*/
+
     boolean first_time = true;
-    
+    boolean ic_warned = false;
+
+    /** data kept for each mesh between calls */
+    static class Work
+    {
+	CSRMatrix A;
+	double x[];
+	double rhs[];		/*b - Ax_neigh*/
+	double r[],z[],p[],q[];
+	double inv_diag[];
+	boolean fixed[];	/*rows with only the diagonal entry*/
+
+	/*incomplete Cholesky factor, lower triangle stored by rows with the diagonal last*/
+	CSRMatrix L;
+	double sign[];
+    }
+
+    Work work[] = new Work[0];
+    LinearSolverMG mg;
+    double partial[] = new double[0];	/*per chunk partial sums*/
+
+    /** creates a solver with the Jacobi preconditioner */
+    public LinearSolverPCG()
+    {
+	this(Preconditioner.JACOBI);
+    }
+
+    /**
+     * @param preconditioner preconditioner to use
+     */
+    public LinearSolverPCG(Preconditioner preconditioner)
+    {
+	this.preconditioner = preconditioner;
+	if (preconditioner==Preconditioner.MG)
+	    mg = new LinearSolverMG(false,1,1);
+    }
+
     @Override
     public int solve(Solver.MeshData[] md, FieldCollection2D fc, int max_it, double tolerance)
     {
-	double norm = tolerance;
-	
 	if (first_time && Starfish.getDomainType()!=DomainType.XY)
 	    Log.warning("PCG solver may not converge on axi-symmetric domains!!");
-	
-	double b[][] = new double[md.length][];
-	double x[][] = new double[md.length][];
-	Matrix A[]= new Matrix[md.length];
-	Matrix Mi[] = new Matrix[md.length];
-	double r[][] = new double[md.length][];
-	double z[][] = new double[md.length][];
-	double p[][] = new double[md.length][];
-	
-	for (int m=0;m<md.length;m++)
-	{
-	    /*pcg needs a non-zero initial guess (otherwise diverges), 
-	      setting to b seems to do the trick   */
-	    if (first_time) 
-	    	md[m].x = Vec.copy(md[m].b);
-	    
-	    b[m]= md[m].b;
-	    x[m]= md[m].x;
-	    A[m] = md[m].A;
-	    
-	    /*diagonal preconditioner*/
-	    Matrix M = A[m].diag_matrix();
-	    Mi[m] = M.inverse();	    //this is only defined for diagonal matrix
-	    
-	    /*initialize*/
-	    r[m] = Vec.subtract(b[m], A[m].mult(x[m]));  //r=b-Ax
-	    z[m] = Mi[m].mult(r[m]);	    // z = Mi*r
-	    p[m] = Vec.copy(z[m]);
-	}
-	
 	first_time = false;
-	
-	
-	/* SOLVER */
-	int it = 1;			/*start with one so we don't compute residue on first run*/
-	while (it <= max_it)
+
+	setup(md);
+
+	int nn = 0;
+	for (Work w:work) nn+=w.x.length;
+
+	int it = 0;
+	double norm = 0;
+	while (true)
 	{
-	     /*** update boundaries**/	    
+	    /*** update boundaries, neighbor terms are held fixed during the inner iterations**/
 	    Solver.updateGhostVector(md, fc);
-	    
-	    norm = 0;
-	    
-	    /*iterate over all meshes*/
+
+	    /*r = b - Ax_neigh - Ax*/
 	    for (int m=0;m<md.length;m++)
 	    {
-		
-		//compute the maximum norm accross the domains
-		double  norm_m = Vec.norm(r[m]);
-		if (norm_m>norm) norm = norm_m;
+		Work w = work[m];
+		for (int u=0;u<w.rhs.length;u++)
+		{
+		    w.rhs[u] = md[m].b[u] - md[m].Ax_neigh[u];
+		    if (w.fixed[u]) w.x[u] = w.rhs[u]*w.inv_diag[u];
+		}
+		residue(w);
+	    }
+
+	    norm = Math.sqrt(dotAll(true))/nn;
+	    if (norm<tolerance || it>=max_it) break;
+
+	    /*p = z = M^-1 r*/
+	    for (int m=0;m<md.length;m++)
+	    {
+		precondition(m, work[m]);
+		System.arraycopy(work[m].z, 0, work[m].p, 0, work[m].z.length);
+	    }
+	    double rz = dotAll(false);
+
+	    int inner_max = max_it-it;
+	    if (md.length>1 && inner_max>INNER_IT) inner_max = INNER_IT;
+
+	    int k;
+	    for (k=0;k<inner_max;k++)
+	    {
+		/*q = A*p, the only matrix vector product in the iteration*/
+		double pq = 0;
+		for (Work w:work)
+		{
+		    mult(w.A, w.p, w.q);
+		    pq += dot(w.p, w.q);
+		}
+		if (pq==0 || rz==0) break;
+
+		/*x = x + alpha*p, r = r - alpha*q*/
+		double alpha = rz/pq;
+		for (Work w:work)
+		    update(w, alpha);
+		it++;
+
+		norm = Math.sqrt(dotAll(true))/nn;
 		if (norm<tolerance) break;
-		
-		//alpha = dot(r,z) / dot(p,A*p)
-		double alpha = Vec.dot(r[m], z[m]) / 
-			       Vec.dot(p[m], A[m].mult(p[m]));
-		
-		//x = x + alpha*p
-		Vec.addInclusive(x[m],Vec.mult(p[m], alpha));
-
-		//save dot(z,r) for later use
-		double zr_dot = Vec.dot(z[m],r[m]);
-        
-		//r = r - alpha*(A*p)
-		Vec.subtractInclusive(r[m], Vec.mult(A[m].mult(p[m]),alpha));
-
-		//z = Mi*r
-		z[m] = Mi[m].mult(r[m]);
-        
-		// beta = dot(z,r)/ dot(z[k-1],r[k-1]))
-		double beta = Vec.dot(z[m],r[m])/zr_dot;
-		
-		// p = z + beta*p
-		p[m] = Vec.add(z[m], Vec.mult(p[m], beta));
-		
+
+		/*z = M^-1 r, p = z + beta*p*/
+		for (int m=0;m<md.length;m++)
+		    precondition(m, work[m]);
+		double rz_new = dotAll(false);
+		double beta = rz_new/rz;
+		rz = rz_new;
+		for (Work w:work)
+		    direction(w, beta);
+
+		if (it%100==0)
+		    Log.debug(String.format("PCG it: %d, norm = %.3g", it, norm));
 	    }
-	    
-	    /* check convergence */
-	    if (it % 100 == 0)
+
+	    /*no progress possible*/
+	    if (k==0) break;
+	}
+
+	if (norm<tolerance)
+	    Log.debug(String.format("PCG converged in %d iterations with norm=%g", it, norm));
+	else
+	    Starfish.Log.warning(" !! PCG failed to converge in " + it + " iteration, norm = " + norm);
+
+	return it;
+    }
+
+    /** allocates work vectors and rebuilds preconditioners if the matrix changed*/
+    void setup(Solver.MeshData md[])
+    {
+	if (work.length!=md.length)
+	    work = new Work[md.length];
+
+	for (int m=0;m<md.length;m++)
+	{
+	    Work w = work[m];
+	    CSRMatrix A = md[m].getA();
+	    int n = A.nr;
+	    if (w==null || w.r.length!=n)
 	    {
-		System.out.printf("it: %d, norm = %.3g\n", it, norm);
+		w = new Work();
+		w.rhs = new double[n];
+		w.r = new double[n];
+		w.z = new double[n];
+		w.p = new double[n];
+		w.q = new double[n];
+		w.inv_diag = new double[n];
+		w.fixed = new boolean[n];
+		work[m] = w;
 	    }
-	    	    
-	    if (norm < tolerance)
+	    w.x = md[m].x;
+
+	    /*the Newton solver updates the Jacobian values in place, so always refresh*/
+	    w.A = A;
+	    for (int u=0;u<n;u++)
 	    {
-		break;
+		double d = A.diag(u);
+		w.inv_diag[u] = d!=0?1/d:1;
+		w.fixed[u] = d!=0 && A.row_ptr[u+1]-A.row_ptr[u]==1;
 	    }
-	    it++;
+
+	    if (preconditioner==Preconditioner.IC)
+		factorIC(w);
 	}
 
-	it--;
-	if (it >= max_it)
+	if (mg!=null) mg.setup(md);
+    }
+
+    /** r = rhs - A*x */
+    void residue(Work w)
+    {
+	final CSRMatrix A = w.A;
+	WorkerPool.parallelFor(A.nr, MIN_CHUNK, (c,i_min,i_max)->{
+	    for (int u=i_min;u<i_max;u++)
+		w.r[u] = w.rhs[u] - A.multRow(w.x, u);
+	});
+    }
+
+    /** result = A*x */
+    static void mult(CSRMatrix A, double x[], double result[])
+    {
+	WorkerPool.parallelFor(A.nr, MIN_CHUNK, (c,i_min,i_max)->{
+	    for (int u=i_min;u<i_max;u++)
+		result[u] = A.multRow(x, u);
+	});
+    }
+
+    /** x = x + alpha*p, r = r - alpha*q */
+    static void update(Work w, double alpha)
+    {
+	WorkerPool.parallelFor(w.x.length, MIN_CHUNK, (c,i_min,i_max)->{
+	    for (int u=i_min;u<i_max;u++)
+	    {
+		w.x[u] += alpha*w.p[u];
+		w.r[u] -= alpha*w.q[u];
+	    }
+	});
+    }
+
+    /** p = z + beta*p */
+    static void direction(Work w, double beta)
+    {
+	WorkerPool.parallelFor(w.p.length, MIN_CHUNK, (c,i_min,i_max)->{
+	    for (int u=i_min;u<i_max;u++)
+		w.p[u] = w.z[u] + beta*w.p[u];
+	});
+    }
+
+    /** @return sum of r*r (if rr) or r*z over all meshes*/
+    double dotAll(boolean rr)
+    {
+	double sum = 0;
+	for (Work w:work)
+	    sum += dot(w.r, rr?w.r:w.z);
+	return sum;
+    }
+
+    /** parallel dot product, partial sums are added in chunk order so the result
+     * does not depend on thread timing*/
+    double dot(double a[], double b[])
+    {
+	int nc = WorkerPool.numChunks(a.length, MIN_CHUNK);
+	if (partial.length<nc) partial = new double[nc];
+	final double part[] = partial;
+
+	WorkerPool.parallelFor(a.length, MIN_CHUNK, (c,i_min,i_max)->{
+	    double s = 0;
+	    for (int u=i_min;u<i_max;u++)
+		s += a[u]*b[u];
+	    part[c] = s;
+	});
+
+	double sum = 0;
+	for (int c=0;c<nc;c++)
+	    sum += part[c];
+	return sum;
+    }
+
+    /** z = M^-1 r */
+    void precondition(int m, Work w)
+    {
+	switch (preconditioner)
 	{
-	    Starfish.Log.warning(" !! PCG failed to converge in " + it + " iteration, norm = " + norm);
+	    case NONE:
+		System.arraycopy(w.r, 0, w.z, 0, w.r.length);
+		break;
+	    case JACOBI:
+		WorkerPool.parallelFor(w.r.length, MIN_CHUNK, (c,i_min,i_max)->{
+		    for (int u=i_min;u<i_max;u++)
+			w.z[u] = w.inv_diag[u]*w.r[u];
+		});
+		break;
+	    case SSOR:
+		applySSOR(w);
+		break;
+	    case IC:
+		if (w.L!=null) applyIC(w);
+		else
+		    for (int u=0;u<w.r.length;u++)
+			w.z[u] = w.inv_diag[u]*w.r[u];
+		break;
+	    case MG:
+		mg.precondition(m, w.r, w.z);
+		break;
 	}
+    }
 
-	return it;
+    /** symmetric SOR, z = w(2-w) (D+wU)^-1 D (D+wL)^-1 r */
+    void applySSOR(Work w)
+    {
+	CSRMatrix A = w.A;
+	double z[] = w.z;
+	int n = A.nr;
+
+	/*forward, (D+wL) y = r*/
+	for (int u=0;u<n;u++)
+	{
+	    double s = w.r[u];
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1] && A.col[k]<u;k++)
+		s -= omega*A.val[k]*z[A.col[k]];
+	    z[u] = s*w.inv_diag[u];
+	}
+
+	/*D y*/
+	for (int u=0;u<n;u++)
+	    z[u] /= w.inv_diag[u];
+
+	/*backward, (D+wU) z = D y*/
+	for (int u=n-1;u>=0;u--)
+	{
+	    double s = z[u];
+	    for (int k=A.row_ptr[u+1]-1;k>=A.row_ptr[u] && A.col[k]>u;k--)
+		s -= omega*A.val[k]*z[A.col[k]];
+	    z[u] = s*w.inv_diag[u];
+	}
+
+	double f = omega*(2-omega);
+	for (int u=0;u<n;u++)
+	    z[u] *= f;
     }
 
-    
+    /**
+     * incomplete Cholesky factorization with zero fill-in of the lower triangle of
+     * S*A, where S flips the sign of rows with negative diagonal. Columns of fixed
+     * rows are dropped since they do not appear in the search directions. If a pivot is not
+     * positive, the diagonal is shifted and the factorization repeated.
+     */
+    void factorIC(Work w)
+    {
+	CSRMatrix A = w.A;
+	int n = A.nr;
+
+	/*lower triangle pattern including the diagonal*/
+	int row_ptr[] = new int[n+1];
+	for (int u=0;u<n;u++)
+	{
+	    int c = 1;
+	    for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+		if (A.col[k]<u && !w.fixed[A.col[k]]) c++;
+	    row_ptr[u+1] = row_ptr[u]+c;
+	}
+	int col[] = new int[row_ptr[n]];
+	double val[] = new double[row_ptr[n]];
+	w.sign = new double[n];
+
+	for (double shift=0;shift<=1;shift=(shift==0?1e-3:shift*10))
+	{
+	    boolean ok = true;
+	    for (int u=0;u<n && ok;u++)
+	    {
+		double d = A.diag(u);
+		w.sign[u] = d<0?-1:1;
+		int kk = row_ptr[u];
+		for (int k=A.row_ptr[u];k<A.row_ptr[u+1];k++)
+		    if (A.col[k]<u && !w.fixed[A.col[k]])
+		    {
+			int j = A.col[k];
+			/*l_uj = (a_uj - sum_m l_um*l_jm)/l_jj, rows of L are sorted*/
+			double s = w.sign[u]*A.val[k];
+			int a = row_ptr[u], b = row_ptr[j];
+			while (a<kk && b<row_ptr[j+1]-1)
+			{
+			    if (col[a]==col[b]) s -= val[a++]*val[b++];
+			    else if (col[a]<col[b]) a++;
+			    else b++;
+			}
+			col[kk] = j;
+			val[kk] = s/val[row_ptr[j+1]-1];
+			kk++;
+		    }
+
+		double s = Math.abs(d)*(1+shift);
+		if (d==0) s = 1;
+		for (int a=row_ptr[u];a<kk;a++)
+		    s -= val[a]*val[a];
+		if (s<=0) {ok=false;break;}
+		col[kk] = u;
+		val[kk] = Math.sqrt(s);
+	    }
+
+	    if (ok)
+	    {
+		w.L = new CSRMatrix(n, row_ptr, col, val);
+		if (shift>0)
+		    Log.debug(String.format("PCG: incomplete Cholesky needed diagonal shift %g",shift));
+		return;
+	    }
+	}
+
+	if (!ic_warned)
+	    Log.warning("PCG: incomplete Cholesky factorization failed, using Jacobi preconditioner");
+	ic_warned = true;
+	w.L = null;
+    }
+
+    /** z = (L L^T)^-1 S r*/
+    void applyIC(Work w)
+    {
+	CSRMatrix L = w.L;
+	double z[] = w.z;
+	int n = L.nr;
+
+	/*forward, L y = S r*/
+	for (int u=0;u<n;u++)
+	{
+	    double s = w.sign[u]*w.r[u];
+	    int last = L.row_ptr[u+1]-1;
+	    for (int k=L.row_ptr[u];k<last;k++)
+		s -= L.val[k]*z[L.col[k]];
+	    z[u] = s/L.val[last];
+	}
+
+	/*backward, L^T z = y*/
+	for (int u=n-1;u>=0;u--)
+	{
+	    int last = L.row_ptr[u+1]-1;
+	    z[u] /= L.val[last];
+	    double zu = z[u];
+	    for (int k=L.row_ptr[u];k<last;k++)
+		z[L.col[k]] -= L.val[k]*zu;
+	}
+    }
 }
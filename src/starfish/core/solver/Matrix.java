@@ -34,6 +34,9 @@ public class Matrix
      *
      */
     public final int nr;		    /*number of rows and values in each row*/
+
+    /*compressed row copy used by the solvers, cleared whenever the matrix is modified*/
+    protected CSRMatrix csr;
     	
     /**sparse matrix constructor
      * @param nr */
@@ -61,10 +64,26 @@ public class Matrix
     }
 
     
+    /**returns the matrix in the compressed row format. The CSR form is built on
+     * first use and reused until the matrix is modified again, so it should be
+     * requested after assembly is complete
+     * @return CSR copy of this matrix*/
+    public CSRMatrix csr()
+    {
+		CSRMatrix C = csr;
+		if (C==null)
+		{
+		    C = new CSRMatrix(this);
+		    csr = C;
+		}
+		return C;
+    }
+    
     /**clears (sets to zero) a single row
      * @param i*/
     public void clearRow(int i)
     {
+    	csr = null;
     	data.set(i, new HashMap<Integer,Double>());
     }
 
@@ -84,6 +103,7 @@ public class Matrix
      * @param val*/
     public void set(int i, int j, double val)
     {
+	csr = null;
 	data.get(i).put(j, val);	
     }
 
@@ -102,6 +122,7 @@ public class Matrix
     public void copyRow(Matrix A, int i)
     {
 		assert(nr==A.nr);	
+		csr = null;
 		data.set(i, (HashMap<Integer,Double>)A.data.get(i));	 // this had .clone before but it shouldn't be needed
     }
     
@@ -111,6 +132,7 @@ public class Matrix
     public void addRow(Matrix A, double scale, int r)
     {
 		assert(nr==A.nr);	
+		csr = null;
 		HashMap<Integer,Double> map = A.data.get(r);
 		HashMap<Integer,Double> my_data = data.get(r);
 		for (Map.Entry<Integer,Double> ent : map.entrySet()) {
@@ -228,6 +250,7 @@ public class Matrix
      * @param val*/
     public void mult(int i, int j,  double val)
     {
+		csr = null;
 		data.get(i).put(j, data.get(i).get(j)*val);
     }
 
@@ -236,6 +259,7 @@ public class Matrix
      * @param s*/
     public void multRow(int i, double s)
     {
+		csr = null;
 		for (Map.Entry<Integer, Double> it : data.get(i).entrySet())
 		{
 		    int j = it.getKey();
@@ -411,6 +435,7 @@ public class Matrix
     /*cleans up the matrix by removing zero entries*/
     void removeZeros() 
     {
+		csr = null;
 		for (int i = 0;i<nr;i++)
 		{
 		    //new empty data
@@ -117,6 +117,7 @@ public abstract class Solver {
 		public Matrix Gi; /* gradient matrix in i direction */
 		public Matrix Gj; /* gradient matrix in j direction */
 		public Matrix A;
+		public CSRMatrix A_csr; // matrix to solve when A is not set, such as the Newton Jacobian
 		public Matrix L; // LU decomposition of matrix A, if available
 		public Matrix U;
 		public boolean fixed_node[];
@@ -131,6 +132,11 @@ public abstract class Solver {
 		public NeighborData A_neigh[];
 		public NeighborData Gi_neigh[];
 		public NeighborData Gj_neigh[];
+
+		/** @return the coefficient matrix in compressed row form for the linear solvers */
+		public CSRMatrix getA() {
+			return (A != null) ? A.csr() : A_csr;
+		}
 	}
 
 	public MeshData mesh_data[];
@@ -342,7 +348,8 @@ public abstract class Solver {
 					}
 
 				/* calculate F(x)=Ax + (Ax)_neigh - b */
-				double lhs[] = mesh_data[k].A.mult(mesh_data[k].x);
+				CSRMatrix A = mesh_data[k].getA();
+				double lhs[] = A.mult(mesh_data[k].x);
 				lhs = Vec.add(lhs, mesh_data[k].Ax_neigh);
 				double F[] = Vec.subtract(lhs, b);
 
@@ -352,10 +359,10 @@ public abstract class Solver {
 				 * be included directly. Contribution will be taken care of by updateGhostVector
 				 * in the linear solver
 				 */
-				Matrix J = mesh_data[k].A.subtractDiag(P);
+				CSRMatrix J = A.subtractDiag(P, md_nl[k].A_csr);
 
 				/* solve Jy=F */
-				md_nl[k].A = J;
+				md_nl[k].A_csr = J;
 				md_nl[k].b = F;
 				md_nl[k].A_neigh = mesh_data[k].A_neigh;
 			}
@@ -428,12 +435,16 @@ public abstract class Solver {
 	 * @param b
 	 * @return
 	 */
-	static double calculateResidue(Matrix A, double Ax_neigh[], double x[], double b[]) {
+	static double calculateResidue(CSRMatrix A, double Ax_neigh[], double x[], double b[]) {
 		/* this is ||Ax-b|| */
-		double lhs[] = A.mult(x);
-		if (Ax_neigh != null)
-			lhs = Vec.add(lhs, Ax_neigh);
-		double norm = Vec.norm(Vec.subtract(lhs, b));
+		double sum = 0;
+		for (int i = 0; i < A.nr; i++) {
+			double r = A.multRow(x, i) - b[i];
+			if (Ax_neigh != null)
+				r += Ax_neigh[i];
+			sum += r * r;
+		}
+		double norm = Math.sqrt(sum) / A.nr; // same scaling as Vec.norm
 		if (Double.isInfinite(norm) || Double.isNaN(norm)) {
 			Log.error("Solver diverged, aborting");
 		}
@@ -788,8 +799,8 @@ public abstract class Solver {
 	 */
 	protected void evaluateGradient(double x[], double gi[], double gj[], MeshData md, double scale,
 			FieldCollection2D fc) {
-		md.Gi.mult(x, gi); /* gi = Gi*x */
-		md.Gj.mult(x, gj);
+		md.Gi.csr().mult(x, gi); /* gi = Gi*x */
+		md.Gj.csr().mult(x, gj);
 
 		/* add contribution for mesh neighbors */
 		for (int u = 0; u < md.Gi_neigh.length; u++) {
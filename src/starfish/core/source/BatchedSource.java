@@ -0,0 +1,25 @@
+/* *****************************************************
+ * (c) 2025 Particle In Cell Consulting LLC
+ *
+ * This document is subject to the license specified in
+ * Starfish.java and the LICENSE file
+ * *****************************************************/
+package starfish.core.source;
+
+import starfish.core.materials.KineticMaterial.Particle;
+
+/**
+ * Implemented by sources whose particles are independent of each other. The num_mp
+ * particles of such sources are created concurrently on the worker pool, see
+ * Source.sampleKinetic.
+ */
+public interface BatchedSource {
+
+	/**
+	 * creates a new particle without changing the source, called from worker threads.
+	 * Random numbers must be drawn through Starfish.rnd().
+	 * 
+	 * @return new particle or null
+	 */
+	Particle createParticle();
+}
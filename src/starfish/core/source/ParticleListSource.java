@@ -40,12 +40,65 @@ public class ParticleListSource extends VolumeSource
     }
 
     /**
-     * adds a new particle to the list
+     * adds a new particle to the list, or to the queue staged on the calling thread
      * @param part
      */
     public void addParticle(Particle part)
     {
-	particle_list.add(part);
+	ProductQueue queue = staged.get();
+	if (queue != null)
+	    queue.add(this, part);
+	else
+	    particle_list.add(part);
+    }
+
+    /* queue of the work item currently running on this thread */
+    private static final ThreadLocal<ProductQueue> staged = new ThreadLocal<>();
+
+    /**
+     * Particles created by a single work item, such as a particle mover, while other
+     * items run concurrently. They are added to their sources by flush() once the items
+     * finished, in item order, so the sources are not shared between threads.
+     */
+    public static class ProductQueue
+    {
+	final ArrayList<ParticleListSource> sources = new ArrayList<>();
+	final ArrayList<Particle> particles = new ArrayList<>();
+
+	void add(ParticleListSource source, Particle part)
+	{
+	    sources.add(source);
+	    particles.add(part);
+	}
+
+	/** moves the queued particles to their sources */
+	public void flush()
+	{
+	    for (int i = 0; i < particles.size(); i++)
+		sources.get(i).particle_list.add(particles.get(i));
+	    sources.clear();
+	    particles.clear();
+	}
+    }
+
+    /**
+     * routes particles added on the calling thread to queue
+     * @return previously staged queue, to be passed to unstage
+     */
+    public static ProductQueue stage(ProductQueue queue)
+    {
+	ProductQueue prev = staged.get();
+	staged.set(queue);
+	return prev;
+    }
+
+    /** restores the queue staged before the matching call to stage */
+    public static void unstage(ProductQueue prev)
+    {
+	if (prev == null)
+	    staged.remove();
+	else
+	    staged.set(prev);
     }
 
     @Override
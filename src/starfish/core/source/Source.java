@@ -6,14 +6,18 @@
  * *****************************************************/
 package starfish.core.source;
 
+import java.util.SplittableRandom;
 import org.w3c.dom.Element;
 import starfish.core.boundaries.Boundary;
+import starfish.core.common.RandomStreams;
 import starfish.core.common.Starfish;
 import starfish.core.common.Starfish.Log;
+import starfish.core.common.WorkerPool;
 import starfish.core.io.InputParser;
 import starfish.core.materials.FluidMaterial;
 import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.KineticMaterial.Particle;
+import starfish.core.materials.KineticMaterial.ParticleBatch;
 import starfish.core.materials.Material;
 import starfish.core.materials.SolidMaterial;
 
@@ -31,6 +35,11 @@ public abstract class Source {
 	public int start_it;
 	public int stop_it;
 
+	/* particles sampled by a single task, fixed so the random streams do not depend on the thread count */
+	static final int BATCH_SIZE = 2048;
+
+	int stream_id; /* identifies random streams used by batched sampling, see SourceModule.registerSource */
+
 	double mass_generated; // total mass generated
 	double mass_generated_inst; // instantenous mass generated
 
@@ -173,6 +182,11 @@ public abstract class Source {
 			return;
 		}
 
+		if (this instanceof BatchedSource) {
+			sampleBatched(ks, (BatchedSource) this);
+			return;
+		}
+
 		int count = 0;
 		while (hasParticles()) {
 			Particle part = sampleParticle();
@@ -197,6 +211,53 @@ public abstract class Source {
 		Log.log_low("Added " + count + " " + ks.getName() + " particles from " + getName());
 	}
 
+	/**
+	 * creates num_mp particles in batches of BATCH_SIZE on the worker pool, each batch
+	 * with its own random stream, and adds them to the material in batch order
+	 */
+	private void sampleBatched(KineticMaterial ks, BatchedSource source) {
+		final int n = num_mp;
+		num_mp = 0;
+
+		final int num_batches = (n + BATCH_SIZE - 1) / BATCH_SIZE;
+		final ParticleBatch batches[] = new ParticleBatch[num_batches];
+		final double dt = Starfish.getDt();
+
+		WorkerPool.parallelFor(num_batches, 1, (chunk, b_min, b_max) -> {
+			for (int b = b_min; b < b_max; b++) {
+				SplittableRandom prev = RandomStreams.bind(RandomStreams.key(stream_id, b, b >>> 16, RandomStreams.TAG_SOURCE));
+				try {
+					ParticleBatch batch = ks.newBatch();
+					int i_max = Math.min(n, (b + 1) * BATCH_SIZE);
+					for (int i = b * BATCH_SIZE; i < i_max; i++) {
+						Particle part = source.createParticle();
+						if (part == null)
+							continue;
+
+						/* push particle slightly off the surface, see sampleKinetic */
+						for (int d = 0; d < 3; d++)
+							part.pos[d] += part.vel[d] * 1e-6 * dt;
+
+						batch.add(part);
+					}
+					batches[b] = batch;
+				} finally {
+					RandomStreams.unbind(prev);
+				}
+			}
+		});
+
+		ks.addBatches(batches);
+
+		int count = 0;
+		for (ParticleBatch batch : batches) {
+			count += batch.size();
+			mass_generated_inst += batch.getMpwSum() * source_mat.mass;
+		}
+
+		Log.log_low("Added " + count + " " + ks.getName() + " particles from " + getName());
+	}
+
 	/**
 	 * updates boundaries for fluid-based species
 	 */
@@ -288,9 +288,23 @@ public class SourceModule extends CommandModule
      */
     public void addVolumeSource(VolumeSource vol_source)
     {
+	registerSource(vol_source);
 	volume_source_list.add(vol_source);
     }
 
+    /*sources registered in this simulation*/
+    int num_sources = 0;
+
+    /**
+     * assigns the source its random stream id, called when the source is added to
+     * a boundary or the volume source list so ids only depend on the input file
+     * @param source
+     */
+    public void registerSource(Source source)
+    {
+	source.stream_id = num_sources++;
+    }
+
     @Override
     public void exit()
     {
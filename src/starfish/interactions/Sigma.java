@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import org.w3c.dom.Element;
 import starfish.core.common.Constants;
 import starfish.core.common.LinearList;
+import starfish.core.common.Starfish.Log;
 import starfish.core.io.InputParser;
 import starfish.core.materials.Material;
 
@@ -180,6 +181,13 @@ public abstract class Sigma
 		dep_var_energy = true;
 	    else
 		dep_var_energy = false;
+
+	    /*build the lookup now rather than on the first collision*/
+	    int grid = table.gridSize();
+	    if (grid>0)
+		Log.log(String.format("Tabulated sigma resampled onto %d %s points",grid,table.isLogGrid()?"log-spaced":"uniform"));
+	    else if (!table.isEmpty())
+		Log.log("Tabulated sigma uses exact interpolation, resampled grid not accurate enough");
 	    }
 	@Override
 	public double eval(double g, double mass) 
@@ -88,10 +88,40 @@ public class PoissonSolver extends PotentialSolver
 	
 		String sm = (InputParser.getValue("method", element, "GS")).toUpperCase();
 		if (sm.equals("DIRECT")) lin_solver = new LinearSolverLU();
-		else if (sm.equals("GS")) lin_solver = new LinearSolverGS();
+		else if (sm.equals("GS") || sm.equals("SOR")) {
+		    /*over-relaxation factor, estimated from the convergence rate unless given*/
+		    String omega = InputParser.getValue("sor_omega", element, "auto");
+		    if (omega.equalsIgnoreCase("auto"))
+			lin_solver = new LinearSolverGS();
+		    else {
+			double w = 0;
+			try {
+			    w = Double.parseDouble(omega);
+			} catch (NumberFormatException e) {
+			    Log.error("Invalid sor_omega "+omega+", expecting a number in (0,2) or auto");
+			}
+			if (w<=0 || w>=2)
+			    Log.error("sor_omega must be in (0,2)");
+			lin_solver = new LinearSolverGS(w);
+		    }
+		    Log.log("> sor_omega: "+omega);
+		}
 		else if (sm.equals("GS_SIMPLE")) lin_solver = new LinearSolverGSsimple();
-		else if (sm.equals("PCG")) lin_solver = new LinearSolverPCG();
-		else if (sm.equals("MULTIGRID")) lin_solver = new LinearSolverMG();
+		else if (sm.equals("PCG")) {
+		    String pc = InputParser.getValue("preconditioner", element, "JACOBI").toUpperCase();
+		    try {
+			lin_solver = new LinearSolverPCG(LinearSolverPCG.Preconditioner.valueOf(pc));
+		    } catch (IllegalArgumentException e) {
+			Log.error("Unknown preconditioner "+pc);
+		    }
+		    Log.log("> preconditioner: "+pc);
+		}
+		else if (sm.equals("MULTIGRID")) {
+		    boolean w_cycle = InputParser.getValue("mg_cycle", element, "V").equalsIgnoreCase("W");
+		    int sweeps = InputParser.getInt("mg_sweeps", element, 2);
+		    lin_solver = new LinearSolverMG(w_cycle, sweeps, sweeps);
+		    Log.log("> multigrid cycle: "+(w_cycle?"W":"V")+"("+sweeps+","+sweeps+")");
+		}
 		else if (sm.equals("ADI")) lin_solver = new LinearSolverADI();
 		else if (sm.equals("DIRECT1D")) lin_solver = new LinearSolverDirect1D();
 		else Log.error("Unknown method "+sm);
@@ -23,11 +23,12 @@ import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /** Source that generates particles along a boundary until a prescribed 
  * total pressure, partial pressure, or number density is reached. 
  */
-public class AmbientSource extends Source
+public class AmbientSource extends Source implements BatchedSource
 {
     double v_th;			/*thermal velocity*/
     double v_norm;           // normal velocity
@@ -270,6 +271,13 @@ public class AmbientSource extends Source
     
     @Override
     public Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public Particle createParticle()
     {
     	Particle part = new Particle((KineticMaterial) source_mat);
     	
@@ -295,8 +303,6 @@ public class AmbientSource extends Source
 		part.vel[1] += v_norm*norm[1];
 		part.vel[2] += v_norm*norm[2];
 			
-		num_mp--;
-	
 		return part;
     }
 	
@@ -17,9 +17,10 @@ import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /** produces particles with uniform v_drift in source component normal direction*/
-public class ColdBeamSource extends Source
+public class ColdBeamSource extends Source implements BatchedSource
 {
     final double den0;
     final double v_drift;
@@ -56,6 +57,13 @@ public class ColdBeamSource extends Source
      
     @Override
     public Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public Particle createParticle()
     {
 	Particle part = new Particle((KineticMaterial)source_mat);
 	double t = boundary.randomT();
@@ -72,8 +80,6 @@ public class ColdBeamSource extends Source
 	part.vel[1] = n[1]*v_drift;
 	part.vel[2] = 0;
 		
-	/*TODO: Move this to a wrapper?*/
-	num_mp--;
 	return part;
     }
    
@@ -18,9 +18,10 @@ import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /** produces source with cosine distribution used for conductance testing*/
-public class CosineSource extends Source
+public class CosineSource extends Source implements BatchedSource
 {
     final double den0;
     final double v_drift;
@@ -54,6 +55,13 @@ public class CosineSource extends Source
 
     @Override
     public Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public Particle createParticle()
     {
 	Particle part = new Particle((KineticMaterial)source_mat);
 	double t = boundary.randomT();
@@ -71,7 +79,6 @@ public class CosineSource extends Source
 	for (int i=0;i<3;i++)
 	    part.vel[i] *= v_drift;
 	
-	num_mp--;
 	return part;
     }
    
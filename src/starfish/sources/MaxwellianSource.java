@@ -21,9 +21,10 @@ import starfish.core.common.Vec;
 import starfish.core.common.Starfish.Log;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /** Source that samples Maxwellian VDF */
-public class MaxwellianSource extends Source {
+public class MaxwellianSource extends Source implements BatchedSource {
 
 	final double den0;
 	final double v_drift;
@@ -91,6 +92,12 @@ public class MaxwellianSource extends Source {
 
 	@Override
 	public Particle sampleParticle() {
+		num_mp--;
+		return createParticle();
+	}
+
+	@Override
+	public Particle createParticle() {
 		Particle part = new Particle((KineticMaterial) source_mat);
 		double t = boundary.randomT();
 
@@ -119,8 +126,6 @@ public class MaxwellianSource extends Source {
 			part.dt = Starfish.rnd() * Starfish.getDt();
 		} while (Vec.dot2(n, part.vel) <= 0);
 
-		num_mp--;
-
 		return part;
 	}
 
@@ -23,12 +23,13 @@ import starfish.core.materials.Material;
 
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /**
  * Implements Schottsky thermionic emission of electrons per https://en.wikipedia.org/wiki/Thermionic_emission
  * @author Lubos Brieda
  */
-public class ThermionicEmissionSource extends Source
+public class ThermionicEmissionSource extends Source implements BatchedSource
 {
     public ThermionicEmissionSource(String name, Material source_mat, Boundary boundary, Element element)
     {
@@ -74,6 +75,13 @@ public class ThermionicEmissionSource extends Source
     
     @Override
     public Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public Particle createParticle()
     {
 	Particle part = new Particle((KineticMaterial) source_mat);
 	double t = boundary.randomT();
@@ -101,7 +109,6 @@ public class ThermionicEmissionSource extends Source
 	} while (Vec.dot2(normal, part.vel) <= 0);
 	
 	part.dt=Starfish.rnd()*Starfish.getDt();
-	num_mp--;
 	
 	return part;
     }
@@ -17,9 +17,10 @@ import starfish.core.materials.KineticMaterial.Particle;
 import starfish.core.materials.Material;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /** produces a cold beam source with velocity in the spline normal direction*/
-public class UniformSource extends Source
+public class UniformSource extends Source implements BatchedSource
 {
     final double den0;
     final double v_drift;
@@ -54,6 +55,13 @@ public class UniformSource extends Source
      
     @Override
     public Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public Particle createParticle()
     {
 	Particle part = new Particle((KineticMaterial)source_mat);
 	double t = boundary.randomT();
@@ -67,7 +75,6 @@ public class UniformSource extends Source
 	
 	for (int i=0;i<3;i++) part.vel[i]=n[i]*v_drift;
 	
-	num_mp--;
 	return part;
     }
    
@@ -18,12 +18,13 @@ import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.Material;
 import starfish.core.source.Source;
 import starfish.core.source.SourceModule;
+import starfish.core.source.BatchedSource;
 
 /**
  *
  * @author Lubos Brieda
  */
-public class VaporizationSource extends Source
+public class VaporizationSource extends Source implements BatchedSource
 {
     
     public VaporizationSource(String name, Material source_mat, Boundary boundary, Element element)
@@ -50,6 +51,13 @@ public class VaporizationSource extends Source
     
     @Override
     public KineticMaterial.Particle sampleParticle()
+    {
+	num_mp--;
+	return createParticle();
+    }
+
+    @Override
+    public KineticMaterial.Particle createParticle()
     {
 	KineticMaterial.Particle part = new KineticMaterial.Particle((KineticMaterial) source_mat);
 	double t = boundary.randomT();
@@ -72,8 +80,6 @@ public class VaporizationSource extends Source
 	    part.dt=Starfish.rnd()*Starfish.getDt();
 	} while (Vec.dot2(normal, part.vel) <= 0);
 
-	num_mp--;
-	
 	return part;
     }
 
@@ -17,12 +17,13 @@ import starfish.core.materials.KineticMaterial;
 import starfish.core.materials.Material;
 import starfish.core.source.SourceModule;
 import starfish.core.source.VolumeSource;
+import starfish.core.source.BatchedSource;
 
 /**
  *
  * @author Lubos Brieda
  */
-public class VolumeMaxwellianSource extends VolumeSource {
+public class VolumeMaxwellianSource extends VolumeSource implements BatchedSource {
 
 	protected double v_th;
 	protected double v_drift[];
@@ -240,6 +241,12 @@ public class VolumeMaxwellianSource extends VolumeSource {
 
 	@Override
 	public KineticMaterial.Particle sampleParticle() {
+		num_mp--;
+		return createParticle();
+	}
+
+	@Override
+	public KineticMaterial.Particle createParticle() {
 		KineticMaterial.Particle part = new KineticMaterial.Particle((KineticMaterial) source_mat);
 
 		/* position */
@@ -259,8 +266,6 @@ public class VolumeMaxwellianSource extends VolumeSource {
 		part.vel[0] += v_drift[0];
 		part.vel[1] += v_drift[1];
 
-		num_mp -= 1;
-
 		return part;
 	}
 